@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies;
+
+import android.content.ContentValues;
+
+import java.util.Locale;
+import java.util.Random;
+
+import io.github.ilya_lebedev.popularmovies.data.MoviesContract;
+
+/**
+ * Synthetic TMDb data for benchmarks. Responses have the fields and field sizes of real
+ * TMDb responses, including the fields the app skips. Data is generated from a fixed seed,
+ * so every run measures the same input.
+ */
+public class SyntheticCatalog {
+
+    public static final int PAGE_SIZE = 20;
+
+    private static final String[] WORDS = {
+            "heist", "river", "detective", "winter", "orbit", "family", "secret", "island",
+            "revenge", "letter", "machine", "summer", "kingdom", "witness", "garden", "storm",
+            "soldier", "mirror", "journey", "promise", "signal", "shadow", "harbor", "legend"
+    };
+
+    private final Random mRandom;
+
+    /**
+     * Creates SyntheticCatalog.
+     *
+     * @param seed Seed of the generated data
+     */
+    public SyntheticCatalog(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Returns a page of a movies list as TMDb serves it.
+     *
+     * @param page       Number of the page, from 1
+     * @param totalPages Total number of pages of the list
+     * @return JSON of the page
+     */
+    public String getMoviePageJson(int page, int totalPages) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"page\":").append(page)
+                .append(",\"total_results\":").append(totalPages * PAGE_SIZE)
+                .append(",\"total_pages\":").append(totalPages)
+                .append(",\"results\":[");
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            int movieId = (page - 1) * PAGE_SIZE + i + 1;
+            String title = getTitle(movieId);
+            json.append("{\"vote_count\":").append(100 + mRandom.nextInt(20000))
+                    .append(",\"id\":").append(movieId)
+                    .append(",\"video\":false")
+                    .append(",\"vote_average\":").append(getVoteAverage())
+                    .append(",\"title\":\"").append(title).append('"')
+                    .append(",\"popularity\":").append(getPopularity())
+                    .append(",\"poster_path\":\"").append(getPosterPath(movieId)).append('"')
+                    .append(",\"original_language\":\"en\"")
+                    .append(",\"original_title\":\"").append(title).append('"')
+                    .append(",\"genre_ids\":[18,80,53]")
+                    .append(",\"backdrop_path\":\"/b").append(movieId).append(".jpg\"")
+                    .append(",\"adult\":false")
+                    .append(",\"overview\":\"").append(getText(45)).append('"')
+                    .append(",\"release_date\":\"").append(getReleaseDate()).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Returns a page of a movies list as the parser hands it to the provider.
+     *
+     * @param page Number of the page, from 1
+     * @return Rows of the page
+     */
+    public ContentValues[] getMoviePage(int page) {
+        ContentValues[] movies = new ContentValues[PAGE_SIZE];
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            int rank = (page - 1) * PAGE_SIZE + i;
+            movies[i] = getMovie(rank + 1);
+            movies[i].put(MoviesContract.ListEntry.COLUMN_RANK, rank);
+        }
+        return movies;
+    }
+
+    /**
+     * Returns a row of the movie table.
+     *
+     * @param movieId TMDb id of the movie
+     * @return The movie row
+     */
+    public ContentValues getMovie(long movieId) {
+        ContentValues values = new ContentValues();
+        values.put(MoviesContract.MovieEntry.COLUMN_MOVIE_ID, movieId);
+        values.put(MoviesContract.MovieEntry.COLUMN_TITLE, getTitle(movieId));
+        values.put(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE, getVoteAverage());
+        values.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, getPopularity());
+        values.put(MoviesContract.MovieEntry.COLUMN_POSTER_PATH, getPosterPath(movieId));
+        values.put(MoviesContract.MovieEntry.COLUMN_OVERVIEW, getText(45));
+        values.put(MoviesContract.MovieEntry.COLUMN_RELEASE_DATE,
+                -631152000000L + mRandom.nextInt(25000) * 86400000L);
+        return values;
+    }
+
+    public String getTitle(long movieId) {
+        return capitalize(getWord()) + " " + getWord() + " " + movieId;
+    }
+
+    public String getPosterPath(long movieId) {
+        return "/p" + movieId + ".jpg";
+    }
+
+    public double getVoteAverage() {
+        return mRandom.nextInt(100) / 10.0;
+    }
+
+    public double getPopularity() {
+        return mRandom.nextInt(100000) / 1000.0;
+    }
+
+    /**
+     * Returns a text of random words.
+     *
+     * @param wordCount Number of words
+     * @return The text
+     */
+    public String getText(int wordCount) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(getWord());
+        }
+        return text.toString();
+    }
+
+    private String getReleaseDate() {
+        return String.format(Locale.US, "%d-%02d-%02d",
+                1950 + mRandom.nextInt(68), 1 + mRandom.nextInt(12), 1 + mRandom.nextInt(28));
+    }
+
+    private String getWord() {
+        return WORDS[mRandom.nextInt(WORDS.length)];
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import io.github.ilya_lebedev.popularmovies.SyntheticCatalog;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link BulkInsertStatement} with a {@link SQLiteDatabase#insert} per row, the
+ * bulk insert path it replaced, on movie, video and review rows of the current schema.
+ * Each batch is inserted in one transaction into an empty table, rows per second for
+ * every table and batch size are written to the log under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkInsertBenchmark {
+
+    private static final String TAG = BulkInsertBenchmark.class.getSimpleName();
+
+    private static final int[] BATCH_SIZES = { 20, 1000, 50000 };
+
+    /* Distinct rows generated per table, larger batches reuse them under new ids */
+    private static final int TEMPLATE_COUNT = 1000;
+
+    private static final int ROUNDS = 3;
+
+    private BenchmarkDatabaseContext mContext;
+    private MoviesDbHelper mHelper;
+
+    /**
+     * Inserts a batch of rows in the current transaction.
+     */
+    private interface BatchInserter {
+        void insert(SQLiteDatabase db, String tableName, ContentValues[] templates,
+                    String idColumn, int rowCount);
+    }
+
+    private static final BatchInserter DATABASE_INSERT = new BatchInserter() {
+        @Override
+        public void insert(SQLiteDatabase db, String tableName, ContentValues[] templates,
+                           String idColumn, int rowCount) {
+            for (int i = 0; i < rowCount; i++) {
+                db.insert(tableName, null, getRow(templates, idColumn, i));
+            }
+        }
+    };
+
+    private static final BatchInserter BULK_INSERT_STATEMENT = new BatchInserter() {
+        @Override
+        public void insert(SQLiteDatabase db, String tableName, ContentValues[] templates,
+                           String idColumn, int rowCount) {
+            BulkInsertStatement statement =
+                    BulkInsertStatement.forValues(db, tableName, templates);
+            try {
+                for (int i = 0; i < rowCount; i++) {
+                    statement.insert(getRow(templates, idColumn, i));
+                }
+            } finally {
+                statement.close();
+            }
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mContext = new BenchmarkDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+        mHelper = new MoviesDbHelper(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void compiledStatementAgainstInsertPerRow() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        SyntheticCatalog catalog = new SyntheticCatalog(42);
+
+        measureTable(db, MoviesContract.MovieEntry.TABLE_NAME, getMovies(catalog),
+                MoviesContract.MovieEntry.COLUMN_MOVIE_ID);
+        measureTable(db, MoviesContract.VideoEntry.TABLE_NAME, getVideos(catalog),
+                MoviesContract.VideoEntry.COLUMN_TMDB_ID);
+        measureTable(db, MoviesContract.ReviewEntry.TABLE_NAME, getReviews(catalog),
+                MoviesContract.ReviewEntry.COLUMN_TMDB_ID);
+    }
+
+    private static void measureTable(SQLiteDatabase db, String tableName,
+                                     ContentValues[] templates, String idColumn) {
+        /* Warm up both paths and the table */
+        measure(db, tableName, templates, idColumn, TEMPLATE_COUNT, DATABASE_INSERT);
+        measure(db, tableName, templates, idColumn, TEMPLATE_COUNT, BULK_INSERT_STATEMENT);
+
+        for (int rowCount : BATCH_SIZES) {
+            double before = measure(db, tableName, templates, idColumn, rowCount,
+                    DATABASE_INSERT);
+            double after = measure(db, tableName, templates, idColumn, rowCount,
+                    BULK_INSERT_STATEMENT);
+            Log.i(TAG, String.format(Locale.US,
+                    "%s, %d rows: insert %.0f rows/s, BulkInsertStatement %.0f rows/s",
+                    tableName, rowCount, before, after));
+        }
+    }
+
+    /* Best rows per second of a few rounds, every round starts on an empty table */
+    private static double measure(SQLiteDatabase db, String tableName,
+                                  ContentValues[] templates, String idColumn, int rowCount,
+                                  BatchInserter inserter) {
+        long bestNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            db.delete(tableName, null, null);
+
+            long startNanos = System.nanoTime();
+            db.beginTransactionNonExclusive();
+            try {
+                inserter.insert(db, tableName, templates, idColumn, rowCount);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime() - startNanos);
+
+            assertEquals(rowCount, DatabaseUtils.queryNumEntries(db, tableName));
+        }
+        return rowCount * 1000000000.0 / bestNanos;
+    }
+
+    /* Row of a batch, a template under the unique id of the row */
+    private static ContentValues getRow(ContentValues[] templates, String idColumn, int index) {
+        ContentValues row = templates[index % templates.length];
+        if (MoviesContract.MovieEntry.COLUMN_MOVIE_ID.equals(idColumn)) {
+            row.put(idColumn, index + 1);
+        } else {
+            row.put(idColumn, "id" + index);
+        }
+        return row;
+    }
+
+    private static ContentValues[] getMovies(SyntheticCatalog catalog) {
+        ContentValues[] movies = new ContentValues[TEMPLATE_COUNT];
+        for (int i = 0; i < TEMPLATE_COUNT; i++) {
+            movies[i] = catalog.getMovie(i + 1);
+        }
+        return movies;
+    }
+
+    private static ContentValues[] getVideos(SyntheticCatalog catalog) {
+        ContentValues[] videos = new ContentValues[TEMPLATE_COUNT];
+        for (int i = 0; i < TEMPLATE_COUNT; i++) {
+            ContentValues video = new ContentValues();
+            video.put(MoviesContract.VideoEntry.COLUMN_MOVIE_TMDB_ID, i / 4 + 1);
+            video.put(MoviesContract.VideoEntry.COLUMN_TMDB_ID, "id" + i);
+            video.put(MoviesContract.VideoEntry.COLUMN_KEY, "k" + catalog.getPosterPath(i));
+            video.put(MoviesContract.VideoEntry.COLUMN_NAME, catalog.getText(4));
+            video.put(MoviesContract.VideoEntry.COLUMN_SITE, "YouTube");
+            video.put(MoviesContract.VideoEntry.COLUMN_TYPE, "Trailer");
+            videos[i] = video;
+        }
+        return videos;
+    }
+
+    /* Reviews are stored as the provider stores them, deflated with an excerpt */
+    private static ContentValues[] getReviews(SyntheticCatalog catalog) {
+        ContentValues[] reviews = new ContentValues[TEMPLATE_COUNT];
+        for (int i = 0; i < TEMPLATE_COUNT; i++) {
+            ContentValues review = new ContentValues();
+            review.put(MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID, i / 4 + 1);
+            review.put(MoviesContract.ReviewEntry.COLUMN_TMDB_ID, "id" + i);
+            review.put(MoviesContract.ReviewEntry.COLUMN_AUTHOR, catalog.getText(2));
+            review.put(MoviesContract.ReviewEntry.COLUMN_CONTENT, catalog.getText(150));
+            reviews[i] = MoviesDbHelper.compressReview(review);
+        }
+        return reviews;
+    }
+
+}
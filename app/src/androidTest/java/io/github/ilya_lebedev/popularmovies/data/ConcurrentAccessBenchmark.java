@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.github.ilya_lebedev.popularmovies.MainActivity;
+import io.github.ilya_lebedev.popularmovies.SyntheticCatalog;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Stress test of {@link MoviesProvider} on its write-ahead log database. Readers query
+ * windows of a list as the grid does, first alone and then while writers append list
+ * pages and store reviews in parallel, as sync does. The p50 and p99 query latencies of
+ * both runs are written to the log under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConcurrentAccessBenchmark {
+
+    private static final String TAG = ConcurrentAccessBenchmark.class.getSimpleName();
+
+    private static final int READER_COUNT = 3;
+    private static final int IDLE_QUERIES_PER_READER = 300;
+
+    /* Pages of the list the readers read, written before the readers start */
+    private static final int READ_PAGES = 50;
+
+    /* Work of the writers during ingestion */
+    private static final int WRITE_PAGES = 150;
+    private static final int REVIEW_MOVIES = 300;
+    private static final int REVIEWS_PER_MOVIE = 5;
+
+    private static final int WINDOW_SIZE = 60;
+
+    private BenchmarkDatabaseContext mContext;
+    private MoviesProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = new BenchmarkDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+        mProvider = mContext.createProvider();
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void queryLatencyDuringIngestion() throws Exception {
+        SyntheticCatalog catalog = new SyntheticCatalog(42);
+        for (int page = 1; page <= READ_PAGES; page++) {
+            mProvider.bulkInsert(MoviesContract.MovieEntry.CONTENT_URI_TOP_RATED,
+                    catalog.getMoviePage(page));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(READER_COUNT + 2);
+        try {
+            List<Future<List<Long>>> idleReaders =
+                    startReaders(executor, new AtomicBoolean(false), IDLE_QUERIES_PER_READER);
+            List<Long> idle = collect(idleReaders);
+
+            AtomicBoolean ingestionDone = new AtomicBoolean(false);
+            long startNanos = System.nanoTime();
+            Future<?> listWriter = executor.submit(new ListWriter());
+            Future<?> reviewWriter = executor.submit(new ReviewWriter());
+            List<Future<List<Long>>> busyReaders =
+                    startReaders(executor, ingestionDone, Integer.MAX_VALUE);
+            try {
+                listWriter.get();
+                reviewWriter.get();
+            } finally {
+                ingestionDone.set(true);
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            List<Long> busy = collect(busyReaders);
+
+            Log.i(TAG, "Idle: " + formatLatencies(idle));
+            Log.i(TAG, "During ingestion: " + formatLatencies(busy) + String.format(Locale.US,
+                    ", ingestion took %.0f ms", elapsedNanos / 1000000.0));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Future<List<Long>>> startReaders(ExecutorService executor,
+                                                  AtomicBoolean done, int maxQueries) {
+        List<Future<List<Long>>> readers = new ArrayList<>();
+        for (int i = 0; i < READER_COUNT; i++) {
+            readers.add(executor.submit(new WindowReader(i, done, maxQueries)));
+        }
+        return readers;
+    }
+
+    private static List<Long> collect(List<Future<List<Long>>> readers) throws Exception {
+        List<Long> latencies = new ArrayList<>();
+        for (Future<List<Long>> reader : readers) {
+            latencies.addAll(reader.get());
+        }
+        Collections.sort(latencies);
+        return latencies;
+    }
+
+    private static String formatLatencies(List<Long> sortedNanos) {
+        return String.format(Locale.US, "%d queries, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                sortedNanos.size(),
+                getPercentile(sortedNanos, 50) / 1000000.0,
+                getPercentile(sortedNanos, 99) / 1000000.0,
+                sortedNanos.get(sortedNanos.size() - 1) / 1000000.0);
+    }
+
+    private static long getPercentile(List<Long> sortedNanos, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.size()) - 1;
+        return sortedNanos.get(Math.max(index, 0));
+    }
+
+    /**
+     * Reads windows of the list at random positions, as the grid does while scrolling,
+     * and records the latency of each query until done or enough queries are made.
+     */
+    private class WindowReader implements Callable<List<Long>> {
+
+        private final Random mRandom;
+        private final AtomicBoolean mDone;
+        private final int mMaxQueries;
+
+        WindowReader(int seed, AtomicBoolean done, int maxQueries) {
+            mRandom = new Random(seed);
+            mDone = done;
+            mMaxQueries = maxQueries;
+        }
+
+        @Override
+        public List<Long> call() {
+            List<Long> latencies = new ArrayList<>();
+            int rowCount = READ_PAGES * SyntheticCatalog.PAGE_SIZE;
+            while (!mDone.get() && latencies.size() < mMaxQueries) {
+                long afterRank = mRandom.nextInt(rowCount - WINDOW_SIZE) - 1;
+                Uri windowUri = afterRank < 0
+                        ? MoviesContract.MovieEntry.buildListWindowUri(
+                                MoviesContract.MovieEntry.CONTENT_URI_TOP_RATED,
+                                MoviesContract.ListEntry.COLUMN_RANK, WINDOW_SIZE)
+                        : MoviesContract.MovieEntry.buildListWindowUri(
+                                MoviesContract.MovieEntry.CONTENT_URI_TOP_RATED,
+                                MoviesContract.ListEntry.COLUMN_RANK, afterRank, 0, WINDOW_SIZE);
+
+                long startNanos = System.nanoTime();
+                Cursor cursor = mProvider.query(windowUri, MainActivity.MAIN_MOVIE_PROJECTION,
+                        null, null, null);
+                try {
+                    /* The window is filled when it is counted, as the grid does */
+                    assertEquals(WINDOW_SIZE, cursor.getCount());
+                } finally {
+                    cursor.close();
+                }
+                latencies.add(System.nanoTime() - startNanos);
+            }
+            return latencies;
+        }
+
+    }
+
+    /**
+     * Appends pages to a list, as a fetch of next pages does.
+     */
+    private class ListWriter implements Callable<Void> {
+
+        @Override
+        public Void call() {
+            SyntheticCatalog catalog = new SyntheticCatalog(7);
+            for (int page = 1; page <= WRITE_PAGES; page++) {
+                mProvider.bulkInsert(MoviesContract.MovieEntry.CONTENT_URI_MOST_POPULAR,
+                        catalog.getMoviePage(page));
+            }
+            return null;
+        }
+
+    }
+
+    /**
+     * Stores reviews of movies, as a fetch of movie details does.
+     */
+    private class ReviewWriter implements Callable<Void> {
+
+        @Override
+        public Void call() {
+            SyntheticCatalog catalog = new SyntheticCatalog(11);
+            for (int movieId = 1; movieId <= REVIEW_MOVIES; movieId++) {
+                ContentValues[] reviews = new ContentValues[REVIEWS_PER_MOVIE];
+                for (int i = 0; i < REVIEWS_PER_MOVIE; i++) {
+                    ContentValues review = new ContentValues();
+                    review.put(MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID, movieId);
+                    review.put(MoviesContract.ReviewEntry.COLUMN_TMDB_ID,
+                            movieId + "-" + i);
+                    review.put(MoviesContract.ReviewEntry.COLUMN_AUTHOR, catalog.getText(2));
+                    review.put(MoviesContract.ReviewEntry.COLUMN_CONTENT, catalog.getText(150));
+                    reviews[i] = review;
+                }
+                mProvider.bulkInsert(
+                        MoviesContract.ReviewEntry.buildMovieReviewsUriWithMovieTmdbId(movieId),
+                        reviews);
+            }
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Locale;
+
+import io.github.ilya_lebedev.popularmovies.SyntheticCatalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the write amplification of a full re-sync of a movies list through the
+ * generations of {@link MoviesProvider} with the REPLACE path it replaced, where a refresh
+ * emptied the list table and inserted every movie again in one transaction. Both run on a
+ * database in write-ahead log mode with the settings of {@link MoviesDbHelper}. Bytes the
+ * process writes, including log checkpoints, and the time per re-sync are written to the
+ * log under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ListRefreshBenchmark {
+
+    private static final String TAG = ListRefreshBenchmark.class.getSimpleName();
+
+    private static final String REPLACE_DATABASE_NAME = "replace.db";
+
+    /* Version 1 list table, every refreshed row is a delete and an insert */
+    private static final String SQL_CREATE_REPLACE_LIST =
+            "CREATE TABLE top_rated_movie(_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    "movie_id INTEGER NOT NULL, title TEXT NOT NULL, overview TEXT NOT NULL, " +
+                    "poster_path TEXT NOT NULL, release_date INTEGER NOT NULL, " +
+                    "popularity REAL NOT NULL, vote_average REAL NOT NULL, " +
+                    " UNIQUE (movie_id) ON CONFLICT REPLACE);";
+
+    private static final int PAGE_COUNT = 25;
+    private static final int RESYNCS = 5;
+
+    private BenchmarkDatabaseContext mContext;
+
+    @Before
+    public void setUp() {
+        mContext = new BenchmarkDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+        mContext.deleteDatabase(REPLACE_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+        mContext.deleteDatabase(REPLACE_DATABASE_NAME);
+    }
+
+    @Test
+    public void generationRefreshAgainstReplace() {
+        assumeTrue("Written bytes of the process are not readable", getWrittenBytes() >= 0);
+
+        String replace = measureReplace();
+        String generation = measureGeneration();
+
+        Log.i(TAG, "REPLACE: " + replace);
+        Log.i(TAG, "Generation: " + generation);
+    }
+
+    private String measureReplace() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(REPLACE_DATABASE_NAME,
+                0, null);
+        try {
+            configure(db);
+            db.execSQL(SQL_CREATE_REPLACE_LIST);
+
+            SyntheticCatalog catalog = new SyntheticCatalog(42);
+            replaceList(db, getReplacePages(catalog));
+
+            long totalBytes = 0;
+            long totalNanos = 0;
+            for (int i = 0; i < RESYNCS; i++) {
+                ContentValues[][] pages = getReplacePages(catalog);
+
+                long startBytes = getWrittenBytes();
+                long startNanos = System.nanoTime();
+                replaceList(db, pages);
+                totalNanos += System.nanoTime() - startNanos;
+                totalBytes += getWrittenBytes() - startBytes;
+            }
+
+            assertEquals(PAGE_COUNT * SyntheticCatalog.PAGE_SIZE,
+                    DatabaseUtils.queryNumEntries(db, "top_rated_movie"));
+            return format(totalBytes, totalNanos);
+        } finally {
+            db.close();
+        }
+    }
+
+    private String measureGeneration() {
+        MoviesProvider provider = mContext.createProvider();
+        Uri uri = MoviesContract.MovieEntry.CONTENT_URI_TOP_RATED;
+
+        SyntheticCatalog catalog = new SyntheticCatalog(42);
+        refreshList(provider, uri, getPages(catalog));
+
+        long totalBytes = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < RESYNCS; i++) {
+            ContentValues[][] pages = getPages(catalog);
+
+            long startBytes = getWrittenBytes();
+            long startNanos = System.nanoTime();
+            refreshList(provider, uri, pages);
+            totalNanos += System.nanoTime() - startNanos;
+            totalBytes += getWrittenBytes() - startBytes;
+        }
+
+        SQLiteDatabase db = new MoviesDbHelper(mContext).getReadableDatabase();
+        try {
+            assertEquals(PAGE_COUNT * SyntheticCatalog.PAGE_SIZE,
+                    DatabaseUtils.queryNumEntries(db, MoviesContract.ListEntry.TABLE_NAME));
+        } finally {
+            db.close();
+        }
+        return format(totalBytes, totalNanos);
+    }
+
+    /* The refresh before generations: the list table is emptied and filled again */
+    private static void replaceList(SQLiteDatabase db, ContentValues[][] pages) {
+        db.beginTransaction();
+        try {
+            db.delete("top_rated_movie", null, null);
+            for (ContentValues[] page : pages) {
+                for (ContentValues value : page) {
+                    db.insert("top_rated_movie", null, value);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /* The refresh of MovieFetchTask: pages go to a pending generation which is committed */
+    private static void refreshList(MoviesProvider provider, Uri uri, ContentValues[][] pages) {
+        Bundle result = provider.call(MoviesContract.METHOD_BEGIN_LIST_REFRESH,
+                uri.toString(), null);
+        long generation = result.getLong(MoviesContract.EXTRA_GENERATION);
+        Uri pendingUri = MoviesContract.MovieEntry.buildListUriWithGeneration(uri, generation);
+
+        for (ContentValues[] page : pages) {
+            provider.bulkInsert(pendingUri, page);
+        }
+
+        Bundle extras = new Bundle();
+        extras.putLong(MoviesContract.EXTRA_GENERATION, generation);
+        provider.call(MoviesContract.METHOD_COMMIT_LIST_REFRESH, uri.toString(), extras);
+    }
+
+    /* Same connection settings as MoviesDbHelper#onConfigure */
+    private static void configure(SQLiteDatabase db) {
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        db.enableWriteAheadLogging();
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint = 2000", null);
+    }
+
+    /* Every re-sync gets fresh votes and popularity for the same movies */
+    private static ContentValues[][] getPages(SyntheticCatalog catalog) {
+        ContentValues[][] pages = new ContentValues[PAGE_COUNT][];
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            pages[i] = catalog.getMoviePage(i + 1);
+        }
+        return pages;
+    }
+
+    /* Version 1 list rows had no rank, the order was the order of insertion */
+    private static ContentValues[][] getReplacePages(SyntheticCatalog catalog) {
+        ContentValues[][] pages = getPages(catalog);
+        for (ContentValues[] page : pages) {
+            for (ContentValues value : page) {
+                value.remove(MoviesContract.ListEntry.COLUMN_RANK);
+            }
+        }
+        return pages;
+    }
+
+    private static String format(long totalBytes, long totalNanos) {
+        int movieCount = PAGE_COUNT * SyntheticCatalog.PAGE_SIZE;
+        return String.format(Locale.US,
+                "%d bytes written/re-sync, %.1f bytes/movie, %.1f ms/re-sync of %d movies",
+                totalBytes / RESYNCS, (double) totalBytes / RESYNCS / movieCount,
+                totalNanos / 1000000.0 / RESYNCS, movieCount);
+    }
+
+    /*
+     * Bytes the process passed to write calls so far, -1 if the kernel does not tell.
+     * It counts the log, the database and checkpoints alike.
+     */
+    private static long getWrittenBytes() {
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/self/io"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("wchar:")) {
+                        return Long.parseLong(line.substring("wchar:".length()).trim());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import io.github.ilya_lebedev.popularmovies.utilities.CompressionUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database of version 1 through all migrations of {@link MoviesDbHelper} and
+ * checks the resulting schema and data, and that list, window and favorite queries of
+ * {@link MoviesProvider} are served by indexes on both an upgraded and a new database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MoviesDbHelperTest {
+
+    /* Schema of version 1, as it was shipped */
+    private static final String[] SQL_CREATE_VERSION_1 = {
+            "CREATE TABLE top_rated_movie(_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    "movie_id INTEGER NOT NULL, title TEXT NOT NULL, overview TEXT NOT NULL, " +
+                    "poster_path TEXT NOT NULL, release_date INTEGER NOT NULL, " +
+                    "popularity REAL NOT NULL, vote_average REAL NOT NULL, " +
+                    " UNIQUE (movie_id) ON CONFLICT REPLACE);",
+            "CREATE TABLE most_popular_movie(_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    "movie_id INTEGER NOT NULL, title TEXT NOT NULL, overview TEXT NOT NULL, " +
+                    "poster_path TEXT NOT NULL, release_date INTEGER NOT NULL, " +
+                    "popularity REAL NOT NULL, vote_average REAL NOT NULL, " +
+                    " UNIQUE (movie_id) ON CONFLICT REPLACE);",
+            "CREATE TABLE favorite_movie(_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    "movie_id INTEGER NOT NULL, title TEXT NOT NULL, overview TEXT NOT NULL, " +
+                    "poster_path TEXT NOT NULL, release_date INTEGER NOT NULL, " +
+                    "popularity REAL NOT NULL, vote_average REAL NOT NULL, " +
+                    "last_update_time INTEGER NOT NULL);",
+            "CREATE TABLE movie_video(_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    "movie_tmdb_id INTEGER NOT NULL, tmdb_id TEXT NOT NULL, key TEXT NOT NULL, " +
+                    "name TEXT NOT NULL, site TEXT NOT NULL, type TEXT NOT NULL, " +
+                    " UNIQUE (tmdb_id) ON CONFLICT REPLACE);",
+            "CREATE TABLE movie_review(_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    "movie_tmdb_id INTEGER NOT NULL, tmdb_id TEXT NOT NULL, " +
+                    "author TEXT NOT NULL, content TEXT NOT NULL, " +
+                    " UNIQUE (tmdb_id) ON CONFLICT REPLACE);"
+    };
+
+    private static final String REVIEW_CONTENT = "A patient heist story with a great cast.";
+
+    /* Full scan of a table, "SCAN TABLE t" before SQLite 3.36, "SCAN t" since */
+    private static final String SCAN_PATTERN = "^SCAN (TABLE )?%s( |$)";
+
+    /* Databases of the test live under names of their own, the app database is left alone */
+    private Context mContext;
+    private MoviesDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = new BenchmarkDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) {
+            mHelper.close();
+        }
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsListsAndFavorites() {
+        createVersion1Database();
+
+        mHelper = new MoviesDbHelper(mContext);
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        assertEquals(8, db.getVersion());
+        assertSchema(db);
+
+        /* Ranks are renumbered from zero in the old order, the gap of a deleted row is gone */
+        assertListEntries(db, MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED,
+                new long[] { 11, 13, 14 });
+        assertListEntries(db, MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR,
+                new long[] { 12, 21 });
+
+        /* The list copy of a movie wins over the stale favorite copy */
+        assertEquals("Popular 12", getTitle(db, 12));
+        assertEquals("Favorite 31", getTitle(db, 31));
+
+        Cursor favorites = db.query(MoviesContract.MovieEntry.TABLE_NAME_FAVORITE,
+                new String[] {
+                        MoviesContract.MovieEntry.COLUMN_MOVIE_ID,
+                        MoviesContract.MovieEntry.COLUMN_LAST_UPDATE_TIME },
+                null, null, null, null, MoviesContract.MovieEntry.COLUMN_MOVIE_ID);
+        try {
+            assertEquals(2, favorites.getCount());
+            favorites.moveToNext();
+            assertEquals(12, favorites.getLong(0));
+            assertEquals(1000, favorites.getLong(1));
+            favorites.moveToNext();
+            assertEquals(31, favorites.getLong(0));
+            assertEquals(2000, favorites.getLong(1));
+        } finally {
+            favorites.close();
+        }
+
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, MoviesContract.VideoEntry.TABLE_NAME,
+                MoviesContract.VideoEntry.COLUMN_MOVIE_TMDB_ID + " = 11", null));
+
+        Cursor review = db.query(MoviesContract.ReviewEntry.TABLE_NAME,
+                new String[] {
+                        MoviesContract.ReviewEntry.COLUMN_CONTENT,
+                        MoviesContract.ReviewEntry.COLUMN_EXCERPT },
+                MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID + " = 31",
+                null, null, null, null);
+        try {
+            assertTrue(review.moveToFirst());
+            assertEquals(REVIEW_CONTENT, CompressionUtils.inflate(review.getBlob(0)));
+            assertEquals(REVIEW_CONTENT, review.getString(1));
+        } finally {
+            review.close();
+        }
+
+        assertEquals(31, DatabaseUtils.longForQuery(db,
+                "SELECT docid FROM " + MoviesContract.SearchEntry.TABLE_NAME +
+                        " WHERE " + MoviesContract.SearchEntry.TABLE_NAME + " MATCH 'heist'",
+                null));
+
+        assertQueriesUseIndexes(db);
+    }
+
+    @Test
+    public void newDatabaseHasSchemaAndIndexes() {
+        mHelper = new MoviesDbHelper(mContext);
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        assertSchema(db);
+        assertQueriesUseIndexes(db);
+    }
+
+    private void createVersion1Database() {
+        File path = mContext.getDatabasePath(MoviesDbHelper.DATABASE_NAME);
+        path.getParentFile().mkdirs();
+
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            for (String sql : SQL_CREATE_VERSION_1) {
+                db.execSQL(sql);
+            }
+
+            insertMovie(db, MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED, 11, "Top 11");
+            insertMovie(db, MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED, 12, "Top 12");
+            insertMovie(db, MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED, 13, "Top 13");
+            insertMovie(db, MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED, 14, "Top 14");
+            db.delete(MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED, "movie_id = 12", null);
+
+            insertMovie(db, MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR, 12, "Popular 12");
+            insertMovie(db, MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR, 21, "Popular 21");
+
+            ContentValues favorite = buildMovie(12, "Stale 12");
+            favorite.put(MoviesContract.MovieEntry.COLUMN_LAST_UPDATE_TIME, 1000);
+            db.insertOrThrow(MoviesContract.MovieEntry.TABLE_NAME_FAVORITE, null, favorite);
+            favorite = buildMovie(31, "Favorite 31");
+            favorite.put(MoviesContract.MovieEntry.COLUMN_LAST_UPDATE_TIME, 2000);
+            db.insertOrThrow(MoviesContract.MovieEntry.TABLE_NAME_FAVORITE, null, favorite);
+
+            ContentValues video = new ContentValues();
+            video.put(MoviesContract.VideoEntry.COLUMN_MOVIE_TMDB_ID, 11);
+            video.put(MoviesContract.VideoEntry.COLUMN_TMDB_ID, "v11");
+            video.put(MoviesContract.VideoEntry.COLUMN_KEY, "key");
+            video.put(MoviesContract.VideoEntry.COLUMN_NAME, "Trailer");
+            video.put(MoviesContract.VideoEntry.COLUMN_SITE, "YouTube");
+            video.put(MoviesContract.VideoEntry.COLUMN_TYPE, "Trailer");
+            db.insertOrThrow(MoviesContract.VideoEntry.TABLE_NAME, null, video);
+
+            ContentValues review = new ContentValues();
+            review.put(MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID, 31);
+            review.put(MoviesContract.ReviewEntry.COLUMN_TMDB_ID, "r31");
+            review.put(MoviesContract.ReviewEntry.COLUMN_AUTHOR, "Critic");
+            review.put(MoviesContract.ReviewEntry.COLUMN_CONTENT, REVIEW_CONTENT);
+            db.insertOrThrow(MoviesContract.ReviewEntry.TABLE_NAME, null, review);
+
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static void insertMovie(SQLiteDatabase db, String tableName, long movieId,
+                                    String title) {
+        db.insertOrThrow(tableName, null, buildMovie(movieId, title));
+    }
+
+    private static ContentValues buildMovie(long movieId, String title) {
+        ContentValues values = new ContentValues();
+        values.put(MoviesContract.MovieEntry.COLUMN_MOVIE_ID, movieId);
+        values.put(MoviesContract.MovieEntry.COLUMN_TITLE, title);
+        values.put(MoviesContract.MovieEntry.COLUMN_OVERVIEW, "Overview of " + title);
+        values.put(MoviesContract.MovieEntry.COLUMN_POSTER_PATH, "/" + movieId + ".jpg");
+        values.put(MoviesContract.MovieEntry.COLUMN_RELEASE_DATE, 1514764800000L);
+        values.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, 10.0 + movieId);
+        values.put(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE, 7.5);
+        return values;
+    }
+
+    private static void assertSchema(SQLiteDatabase db) {
+        List<String> tables = new ArrayList<>();
+        Cursor cursor = db.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'table'", null);
+        try {
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (String table : new String[] {
+                MoviesContract.MovieEntry.TABLE_NAME,
+                MoviesContract.MovieEntry.TABLE_NAME_FAVORITE,
+                MoviesContract.ListEntry.TABLE_NAME,
+                MoviesContract.ListGenerationEntry.TABLE_NAME,
+                MoviesContract.MovieAccessEntry.TABLE_NAME,
+                MoviesContract.SearchEntry.TABLE_NAME,
+                MoviesContract.VideoEntry.TABLE_NAME,
+                MoviesContract.ReviewEntry.TABLE_NAME }) {
+            assertTrue("Missing table " + table, tables.contains(table));
+        }
+        for (String table : new String[] {
+                MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED,
+                MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR,
+                MoviesContract.MovieEntry.TABLE_NAME_FAVORITE + "_old",
+                MoviesContract.ReviewEntry.TABLE_NAME + "_old" }) {
+            assertFalse("Leftover table " + table, tables.contains(table));
+        }
+
+        assertTrue(Arrays.asList(getColumnNames(db, MoviesContract.ReviewEntry.TABLE_NAME))
+                .contains(MoviesContract.ReviewEntry.COLUMN_EXCERPT));
+
+        /* Incremental vacuum, so trims release free pages without rewriting the file */
+        assertEquals(2, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+    }
+
+    private static String[] getColumnNames(SQLiteDatabase db, String tableName) {
+        Cursor cursor = db.query(tableName, null, null, null, null, null, null, "0");
+        try {
+            return cursor.getColumnNames();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertListEntries(SQLiteDatabase db, String listName, long[] movieIds) {
+        Cursor cursor = db.query(MoviesContract.ListEntry.TABLE_NAME,
+                new String[] {
+                        MoviesContract.ListEntry.COLUMN_MOVIE_ID,
+                        MoviesContract.ListEntry.COLUMN_RANK,
+                        MoviesContract.ListEntry.COLUMN_GENERATION },
+                MoviesContract.ListEntry.COLUMN_LIST + " = ?", new String[] { listName },
+                null, null, MoviesContract.ListEntry.COLUMN_RANK);
+        try {
+            assertEquals(movieIds.length, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                assertEquals(movieIds[i], cursor.getLong(0));
+                assertEquals(i, cursor.getLong(1));
+                assertEquals(0, cursor.getLong(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String getTitle(SQLiteDatabase db, long movieId) {
+        return DatabaseUtils.stringForQuery(db,
+                "SELECT " + MoviesContract.MovieEntry.COLUMN_TITLE +
+                        " FROM " + MoviesContract.MovieEntry.TABLE_NAME +
+                        " WHERE " + MoviesContract.MovieEntry.COLUMN_MOVIE_ID + " = ?",
+                new String[] { Long.toString(movieId) });
+    }
+
+    private static void assertQueriesUseIndexes(SQLiteDatabase db) {
+        Uri listUri = MoviesContract.MovieEntry.CONTENT_URI_TOP_RATED;
+        String listName = MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED;
+
+        /* First window and a following one in rank order, read straight from the index */
+        List<String> plan = explain(db, MoviesProvider.buildListQuerySql(listName,
+                MoviesContract.MovieEntry.buildListWindowUri(listUri,
+                        MoviesContract.ListEntry.COLUMN_RANK, 20),
+                null, null, null));
+        assertNoScan(plan, MoviesContract.ListEntry.TABLE_NAME, MoviesContract.MovieEntry.TABLE_NAME);
+        assertNoSort(plan);
+
+        plan = explain(db, MoviesProvider.buildListQuerySql(listName,
+                MoviesContract.MovieEntry.buildListWindowUri(listUri,
+                        MoviesContract.ListEntry.COLUMN_RANK, 19, 0, 20),
+                null, null, null));
+        assertNoScan(plan, MoviesContract.ListEntry.TABLE_NAME, MoviesContract.MovieEntry.TABLE_NAME);
+        assertNoSort(plan);
+
+        /* Windows by a movie column sort the entries of one generation, but scan nothing */
+        plan = explain(db, MoviesProvider.buildListQuerySql(listName,
+                MoviesContract.MovieEntry.buildListWindowUri(listUri,
+                        MoviesContract.MovieEntry.COLUMN_POPULARITY, 25.5, 14, 20),
+                null, null, null));
+        assertNoScan(plan, MoviesContract.ListEntry.TABLE_NAME, MoviesContract.MovieEntry.TABLE_NAME);
+
+        /* Listing favorites reads every favorite, but movies are looked up by key */
+        plan = explain(db, MoviesProvider.buildFavoriteQuery()
+                .buildQuery(null, null, null, null, null, null));
+        assertNoScan(plan, MoviesContract.MovieEntry.TABLE_NAME);
+
+        plan = explain(db, MoviesProvider.buildFavoriteQuery()
+                .buildQuery(null, MoviesProvider.MOVIE_ID_SELECTION, null, null, null, null));
+        assertNoScan(plan, MoviesContract.MovieEntry.TABLE_NAME,
+                MoviesContract.MovieEntry.TABLE_NAME_FAVORITE);
+    }
+
+    private static List<String> explain(SQLiteDatabase db, String sql) {
+        List<String> plan = new ArrayList<>();
+        /* Unbound parameters are NULL, which does not change the plan */
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    private static void assertNoScan(List<String> plan, String... tableNames) {
+        for (String tableName : tableNames) {
+            Pattern scan = Pattern.compile(String.format(SCAN_PATTERN, tableName));
+            for (String step : plan) {
+                assertFalse("Full scan of " + tableName + " in " + plan,
+                        scan.matcher(step).find());
+            }
+        }
+    }
+
+    private static void assertNoSort(List<String> plan) {
+        for (String step : plan) {
+            assertFalse("Sort step in " + plan, step.startsWith("USE TEMP B-TREE FOR ORDER BY"));
+        }
+    }
+
+}
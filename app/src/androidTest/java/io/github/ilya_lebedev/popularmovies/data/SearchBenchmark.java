@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import io.github.ilya_lebedev.popularmovies.SyntheticCatalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures search through {@link MoviesContract.SearchEntry#buildSearchUri} on a synthetic
+ * catalog of tens of thousands of cached movies, part of them with reviews. For queries
+ * from a single matching movie up to most of the catalog, the p50 and p99 latency of
+ * a query with its full result counted are written to the log under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchBenchmark {
+
+    private static final String TAG = SearchBenchmark.class.getSimpleName();
+
+    private static final int MOVIE_COUNT = 40000;
+    private static final int BATCH_SIZE = 1000;
+
+    private static final int REVIEWED_MOVIES = 5000;
+    private static final int REVIEWS_PER_MOVIE = 2;
+
+    private static final int WARMUP_QUERIES = 5;
+    private static final int QUERIES = 50;
+
+    /* Movie ids are part of the titles, so an id finds exactly one movie */
+    private static final String[] SEARCHES = {
+            "31337",
+            "313",
+            "detective winter",
+            "heist",
+            "he"
+    };
+
+    private static final String[] SEARCH_PROJECTION = {
+            MoviesContract.MovieEntry.COLUMN_MOVIE_ID,
+            MoviesContract.MovieEntry.COLUMN_TITLE,
+            MoviesContract.MovieEntry.COLUMN_POSTER_PATH,
+            MoviesContract.SearchEntry.COLUMN_SNIPPET
+    };
+
+    private BenchmarkDatabaseContext mContext;
+    private MoviesProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = new BenchmarkDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+        mProvider = mContext.createProvider();
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void searchLatencyOnLargeCatalog() {
+        SyntheticCatalog catalog = new SyntheticCatalog(42);
+        fillCatalog(catalog);
+
+        for (String search : SEARCHES) {
+            for (int i = 0; i < WARMUP_QUERIES; i++) {
+                search(search);
+            }
+
+            long[] latencies = new long[QUERIES];
+            int resultCount = 0;
+            for (int i = 0; i < QUERIES; i++) {
+                long startNanos = System.nanoTime();
+                resultCount = search(search);
+                latencies[i] = System.nanoTime() - startNanos;
+            }
+            assertTrue(resultCount > 0);
+
+            Arrays.sort(latencies);
+            Log.i(TAG, String.format(Locale.US,
+                    "\"%s\": %d results of %d movies, p50 %.2f ms, p99 %.2f ms",
+                    search, resultCount, MOVIE_COUNT,
+                    latencies[QUERIES / 2] / 1000000.0,
+                    latencies[(int) Math.ceil(QUERIES * 0.99) - 1] / 1000000.0));
+        }
+    }
+
+    /* Results are counted, which runs the query to its end as a loader does */
+    private int search(String text) {
+        Cursor cursor = mProvider.query(MoviesContract.SearchEntry.buildSearchUri(text),
+                SEARCH_PROJECTION, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void fillCatalog(SyntheticCatalog catalog) {
+        for (int first = 0; first < MOVIE_COUNT; first += BATCH_SIZE) {
+            ContentValues[] movies = new ContentValues[BATCH_SIZE];
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                movies[i] = catalog.getMovie(first + i + 1);
+                movies[i].put(MoviesContract.ListEntry.COLUMN_RANK, first + i);
+            }
+            assertEquals(BATCH_SIZE, mProvider.bulkInsert(
+                    MoviesContract.MovieEntry.CONTENT_URI_TOP_RATED, movies));
+        }
+
+        for (int movieId = 1; movieId <= REVIEWED_MOVIES; movieId++) {
+            ContentValues[] reviews = new ContentValues[REVIEWS_PER_MOVIE];
+            for (int i = 0; i < REVIEWS_PER_MOVIE; i++) {
+                ContentValues review = new ContentValues();
+                review.put(MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID, movieId);
+                review.put(MoviesContract.ReviewEntry.COLUMN_TMDB_ID, movieId + "-" + i);
+                review.put(MoviesContract.ReviewEntry.COLUMN_AUTHOR, catalog.getText(2));
+                review.put(MoviesContract.ReviewEntry.COLUMN_CONTENT, catalog.getText(150));
+                reviews[i] = review;
+            }
+            mProvider.bulkInsert(
+                    MoviesContract.ReviewEntry.buildMovieReviewsUriWithMovieTmdbId(movieId),
+                    reviews);
+        }
+    }
+
+}
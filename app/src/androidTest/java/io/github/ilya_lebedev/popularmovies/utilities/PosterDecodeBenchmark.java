@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.squareup.picasso.Request;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import io.github.ilya_lebedev.popularmovies.R;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Binds posters to a grid of cells the way a fling does: each bind decodes the poster of
+ * a new movie and the poster the cell showed before is dropped. It is measured with the
+ * full size ARGB_8888 decode the grid used before and with {@link PosterRequestHandler}
+ * and {@link BitmapPool}, in ARGB_8888 and in the opt-in RGB_565. Bitmap bytes, heap bytes
+ * allocated, garbage collections and time per 1000 bound cells are written to the log
+ * under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PosterDecodeBenchmark {
+
+    private static final String TAG = PosterDecodeBenchmark.class.getSimpleName();
+
+    /* TMDb w342 posters shown in cells 300 pixels wide */
+    private static final int POSTER_WIDTH = 342;
+    private static final int POSTER_HEIGHT = 513;
+    private static final int CELL_WIDTH = 300;
+
+    private static final int POSTER_COUNT = 20;
+    private static final int VISIBLE_CELLS = 24;
+
+    private static final int WARMUP_BINDS = 200;
+    private static final int BINDS = 1000;
+
+    private static final int BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    /**
+     * Shows posters in a cell of the grid.
+     */
+    private interface CellBinder {
+
+        /* Decodes a poster for a cell which showed the given bitmap, null if none */
+        Bitmap bind(byte[] poster, Bitmap previous) throws IOException;
+
+        /* Bytes of the bitmaps allocated so far */
+        long getAllocatedBitmapBytes();
+    }
+
+    @Test
+    public void pooledDecodeAgainstFullSizeDecode() throws IOException {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        byte[][] posters = createPosters();
+
+        String fullSize = measure(posters, new CellBinder() {
+            private long mAllocatedBytes;
+
+            @Override
+            public Bitmap bind(byte[] poster, Bitmap previous) {
+                Bitmap bitmap = BitmapFactory.decodeByteArray(poster, 0, poster.length);
+                mAllocatedBytes += bitmap.getByteCount();
+                return bitmap;
+            }
+
+            @Override
+            public long getAllocatedBitmapBytes() {
+                return mAllocatedBytes;
+            }
+        });
+        String pooled = measure(posters, new PooledCellBinder(context, Bitmap.Config.ARGB_8888));
+        String rgb565 = measure(posters, new PooledCellBinder(context, Bitmap.Config.RGB_565));
+
+        Log.i(TAG, "Full size ARGB_8888: " + fullSize);
+        Log.i(TAG, "Pooled ARGB_8888 at cell width: " + pooled);
+        Log.i(TAG, "Pooled RGB_565 at cell width: " + rgb565);
+    }
+
+    /* Values per 1000 bound cells, after warm up binds */
+    @SuppressWarnings("deprecation")
+    private static String measure(byte[][] posters, CellBinder binder) throws IOException {
+        Bitmap[] cells = new Bitmap[VISIBLE_CELLS];
+        for (int i = 0; i < WARMUP_BINDS; i++) {
+            bindCell(posters, binder, cells, i);
+        }
+
+        long startBitmapBytes = binder.getAllocatedBitmapBytes();
+        long startGcCount = getGcCount();
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < BINDS; i++) {
+            bindCell(posters, binder, cells, WARMUP_BINDS + i);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        Debug.stopAllocCounting();
+        long heapBytes = Debug.getThreadAllocSize();
+        long gcCount = getGcCount() - startGcCount;
+
+        float perThousand = 1000f / BINDS;
+        return String.format(Locale.US,
+                "%.1f MB of bitmaps, %.1f MB heap allocated, %s GCs, %.0f ms per 1000 cells",
+                (binder.getAllocatedBitmapBytes() - startBitmapBytes) * perThousand
+                        / BYTES_IN_MEGABYTE,
+                heapBytes * perThousand / BYTES_IN_MEGABYTE,
+                startGcCount < 0 ? "n/a" : Float.toString(gcCount * perThousand),
+                elapsedNanos / 1000000.0 * perThousand);
+    }
+
+    private static void bindCell(byte[][] posters, CellBinder binder, Bitmap[] cells,
+                                 int bind) throws IOException {
+        int cell = bind % cells.length;
+        Bitmap bitmap = binder.bind(posters[bind % posters.length], cells[cell]);
+        assertNotNull(bitmap);
+        cells[cell] = bitmap;
+    }
+
+    /* Runtime statistics are available since Marshmallow, -1 before */
+    private static long getGcCount() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return Long.parseLong(Debug.getRuntimeStat("art.gc.gc-count"));
+        }
+        return -1;
+    }
+
+    /* Posters with noise, so they compress like photos and not like flat color */
+    private static byte[][] createPosters() {
+        Random random = new Random(42);
+        Paint paint = new Paint();
+        byte[][] posters = new byte[POSTER_COUNT][];
+        for (int i = 0; i < POSTER_COUNT; i++) {
+            Bitmap bitmap = Bitmap.createBitmap(POSTER_WIDTH, POSTER_HEIGHT,
+                    Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            for (int y = 0; y < POSTER_HEIGHT; y += 9) {
+                for (int x = 0; x < POSTER_WIDTH; x += 9) {
+                    paint.setColor(Color.rgb(random.nextInt(256), random.nextInt(256),
+                            random.nextInt(256)));
+                    canvas.drawRect(x, y, x + 9, y + 9, paint);
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 85, out);
+            bitmap.recycle();
+            posters[i] = out.toByteArray();
+        }
+        return posters;
+    }
+
+    /**
+     * Decodes through {@link PosterRequestHandler} into a pool with the budget of the app.
+     * The poster a cell showed goes back to the pool once the cell shows a new one.
+     */
+    private static class PooledCellBinder implements CellBinder {
+
+        private final BitmapPool mBitmapPool;
+        private final PosterRequestHandler mRequestHandler;
+        private final Bitmap.Config mConfig;
+        private final PosterDownloader.Poster[] mPoster = new PosterDownloader.Poster[1];
+
+        PooledCellBinder(Context context, Bitmap.Config config) {
+            ActivityManager activityManager =
+                    (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            int percent = context.getResources().getInteger(R.integer.poster_bitmap_pool_percent);
+            mBitmapPool = new BitmapPool(activityManager.getMemoryClass() * BYTES_IN_MEGABYTE
+                    * percent / 100);
+            mRequestHandler = new PosterRequestHandler(context, new PosterDownloader(context) {
+                @Override
+                public Poster loadPoster(Uri uri, int networkPolicy) {
+                    return mPoster[0];
+                }
+            }, mBitmapPool);
+            mConfig = config;
+        }
+
+        @Override
+        public Bitmap bind(byte[] poster, Bitmap previous) throws IOException {
+            if (previous != null) {
+                mBitmapPool.onHidden(previous);
+            }
+
+            mPoster[0] = new PosterDownloader.Poster(poster, true);
+            Request request = new Request.Builder(Uri.parse(
+                    "https://image.tmdb.org/t/p/w342/poster.jpg?"
+                            + PosterRequestHandler.PARAM_TARGET_WIDTH + "=" + CELL_WIDTH))
+                    .config(mConfig)
+                    .build();
+            Bitmap bitmap = mRequestHandler.load(request, 0).getBitmap();
+            assertEquals(CELL_WIDTH, bitmap.getWidth());
+
+            mBitmapPool.onShown(bitmap);
+            return bitmap;
+        }
+
+        @Override
+        public long getAllocatedBitmapBytes() {
+            return mBitmapPool.getAllocatedBytes();
+        }
+
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.Locale;
+
+import io.github.ilya_lebedev.popularmovies.SyntheticCatalog;
+import io.github.ilya_lebedev.popularmovies.data.MoviesContract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares {@link TmdbJsonUtils#getMoviePageFromJson} with the JSONObject parser it replaced
+ * on synthetic TMDb movie pages. Both parse the same pages to the same values, the time and
+ * the bytes allocated per page are written to the log under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TmdbJsonUtilsBenchmark {
+
+    private static final String TAG = TmdbJsonUtilsBenchmark.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int PAGE_COUNT = 50;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 10;
+
+    private static final String[] MOVIE_COLUMNS = {
+            MoviesContract.MovieEntry.COLUMN_MOVIE_ID,
+            MoviesContract.MovieEntry.COLUMN_TITLE,
+            MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE,
+            MoviesContract.MovieEntry.COLUMN_POPULARITY,
+            MoviesContract.MovieEntry.COLUMN_POSTER_PATH,
+            MoviesContract.MovieEntry.COLUMN_OVERVIEW,
+            MoviesContract.MovieEntry.COLUMN_RELEASE_DATE
+    };
+
+    /**
+     * Parses one response body.
+     */
+    private interface PageParser {
+        void parse(byte[] body) throws Exception;
+    }
+
+    @Test
+    public void streamingParserAgainstJsonObject() throws Exception {
+        SyntheticCatalog catalog = new SyntheticCatalog(42);
+        byte[][] pages = new byte[PAGE_COUNT][];
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            pages[i] = catalog.getMoviePageJson(i + 1, PAGE_COUNT).getBytes(UTF_8);
+        }
+
+        for (byte[] body : pages) {
+            ContentValues[] expected = parseWithJsonObject(body);
+            TmdbJsonUtils.MoviePage page =
+                    TmdbJsonUtils.getMoviePageFromJson(new ByteArrayInputStream(body));
+            assertNotNull(page);
+            assertEquals(PAGE_COUNT, page.totalPages);
+            assertEquals(expected.length, page.movies.length);
+            for (int i = 0; i < expected.length; i++) {
+                for (String column : MOVIE_COLUMNS) {
+                    assertEquals(column, expected[i].get(column), page.movies[i].get(column));
+                }
+            }
+        }
+
+        String jsonObject = measure(pages, new PageParser() {
+            @Override
+            public void parse(byte[] body) throws Exception {
+                parseWithJsonObject(body);
+                getTotalPagesWithJsonObject(body);
+            }
+        });
+        String streaming = measure(pages, new PageParser() {
+            @Override
+            public void parse(byte[] body) throws Exception {
+                TmdbJsonUtils.getMoviePageFromJson(new ByteArrayInputStream(body));
+            }
+        });
+
+        Log.i(TAG, "JSONObject: " + jsonObject);
+        Log.i(TAG, "JsonReader: " + streaming);
+    }
+
+    /* Average time and allocated bytes per page, after warm up rounds */
+    @SuppressWarnings("deprecation")
+    private static String measure(byte[][] pages, PageParser parser) throws Exception {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (byte[] body : pages) {
+                parser.parse(body);
+            }
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long startNanos = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (byte[] body : pages) {
+                parser.parse(body);
+            }
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        Debug.stopAllocCounting();
+
+        int parsedPages = ROUNDS * pages.length;
+        return String.format(Locale.US, "%.1f us/page, %d bytes allocated/page",
+                elapsedNanos / 1000.0 / parsedPages,
+                Debug.getThreadAllocSize() / parsedPages);
+    }
+
+    /*
+     * The parser before the streaming one: the body is read into a String and parsed into
+     * a JSONObject tree, then parsed once more for the total number of pages.
+     */
+    private static ContentValues[] parseWithJsonObject(byte[] body) throws JSONException {
+        JSONObject moviesJson = new JSONObject(new String(body, UTF_8));
+        JSONArray movieResultsArray = moviesJson.getJSONArray("results");
+
+        ContentValues[] movieContentValues = new ContentValues[movieResultsArray.length()];
+        for (int i = 0; i < movieResultsArray.length(); i++) {
+            JSONObject movie = movieResultsArray.getJSONObject(i);
+
+            Long releaseDate = null;
+            try {
+                releaseDate = TmdbDateUtils.convertReleaseDateStringToMillis(
+                        movie.getString("release_date"));
+            } catch (ParseException e) {
+                e.printStackTrace();
+            }
+
+            ContentValues movieValues = new ContentValues();
+            movieValues.put(MoviesContract.MovieEntry.COLUMN_MOVIE_ID, movie.getInt("id"));
+            movieValues.put(MoviesContract.MovieEntry.COLUMN_TITLE, movie.getString("title"));
+            movieValues.put(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE,
+                    movie.getDouble("vote_average"));
+            movieValues.put(MoviesContract.MovieEntry.COLUMN_POPULARITY,
+                    movie.getDouble("popularity"));
+            movieValues.put(MoviesContract.MovieEntry.COLUMN_POSTER_PATH,
+                    movie.getString("poster_path"));
+            movieValues.put(MoviesContract.MovieEntry.COLUMN_OVERVIEW, movie.getString("overview"));
+            movieValues.put(MoviesContract.MovieEntry.COLUMN_RELEASE_DATE, releaseDate);
+
+            movieContentValues[i] = movieValues;
+        }
+        return movieContentValues;
+    }
+
+    private static int getTotalPagesWithJsonObject(byte[] body) throws JSONException {
+        return new JSONObject(new String(body, UTF_8)).getInt("total_pages");
+    }
+
+}
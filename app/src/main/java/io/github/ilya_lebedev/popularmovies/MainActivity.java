@@ -34,6 +34,7 @@ import android.view.MenuItem;
 import io.github.ilya_lebedev.popularmovies.data.MoviesContract;
 import io.github.ilya_lebedev.popularmovies.data.MoviesPreferences;
 import io.github.ilya_lebedev.popularmovies.sync.MovieFetchUtils;
+import io.github.ilya_lebedev.popularmovies.sync.PosterPinUtils;
 
 /**
  * Main activity of the app.
@@ -41,6 +42,7 @@ import io.github.ilya_lebedev.popularmovies.sync.MovieFetchUtils;
 public class MainActivity extends AppCompatActivity
         implements SharedPreferences.OnSharedPreferenceChangeListener,
         LoaderManager.LoaderCallbacks<Cursor>,
+        MovieWindowSource.Callback,
         MoviesAdapter.MoviesAdapterOnClickHandler {
 
     private static final String TAG = MainActivity.class.getSimpleName();
@@ -75,8 +77,15 @@ public class MainActivity extends AppCompatActivity
 
     private static final int SCROLL_DIRECTION_DOWN = 1;
 
+    /* Number of items before the end of the list at which next pages are requested */
+    private static final int PREFETCH_DISTANCE = 20;
+
     private MoviesAdapter mMoviesAdapter;
 
+    private MovieWindowSource mWindowSource;
+
+    private PosterPrefetcher mPosterPrefetcher;
+
     private boolean mIsLoading;
 
     @Override
@@ -95,7 +104,27 @@ public class MainActivity extends AppCompatActivity
 
         mRecyclerView.setAdapter(mMoviesAdapter);
 
+        /* Posters of the rows ahead are cached before their cells are bound */
+        mPosterPrefetcher = new PosterPrefetcher(this, layoutManager, mMoviesAdapter);
+        mRecyclerView.addOnScrollListener(mPosterPrefetcher);
+
         mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                super.onScrolled(recyclerView, dx, dy);
+                /* Start fetching next pages before the user reaches the end of the list */
+                int lastVisiblePosition = layoutManager.findLastVisibleItemPosition();
+                if (dy > 0
+                        && lastVisiblePosition + PREFETCH_DISTANCE >= mMoviesAdapter.getItemCount()
+                        && !MoviesPreferences.isMoviesShowModeFavorite(MainActivity.this)
+                        && !mIsLoading) {
+                    mIsLoading = true;
+                    MovieFetchUtils.fetchNextPage(getApplicationContext());
+                    /* The user keeps scrolling, so there is no position to restore */
+                    mRecyclerViewState = null;
+                }
+            }
+
             @Override
             public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
                 super.onScrollStateChanged(recyclerView, newState);
@@ -113,9 +142,65 @@ public class MainActivity extends AppCompatActivity
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
         sp.registerOnSharedPreferenceChangeListener(this);
 
-        getSupportLoaderManager().initLoader(ID_MOVIE_LOADER, null, this);
+        loadMovies(false);
 
         MovieFetchUtils.initialize(this);
+
+        /* Favorites starred while their posters could not be pinned get them now */
+        PosterPinUtils.startPosterPinTask(this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .unregisterOnSharedPreferenceChangeListener(this);
+        mPosterPrefetcher.cancel();
+        if (mWindowSource != null) {
+            mWindowSource.close();
+            mWindowSource = null;
+        }
+    }
+
+    /*
+     * A list may grow long while the user scrolls, so it is read in windows.
+     * Favorites are few and are read with a single cursor.
+     */
+    private void loadMovies(boolean restart) {
+        mPosterPrefetcher.cancel();
+
+        if (mWindowSource != null) {
+            mWindowSource.close();
+            mWindowSource = null;
+        }
+
+        int showMode = MoviesPreferences.getMoviesShowMode(this);
+
+        if (showMode == MoviesPreferences.SHOW_MODE_FAVORITE) {
+            mMoviesAdapter.setWindowSource(null);
+            if (restart) {
+                getSupportLoaderManager().restartLoader(ID_MOVIE_LOADER, null, this);
+            } else {
+                getSupportLoaderManager().initLoader(ID_MOVIE_LOADER, null, this);
+            }
+            return;
+        }
+
+        getSupportLoaderManager().destroyLoader(ID_MOVIE_LOADER);
+        mMoviesAdapter.swapCursor(null);
+
+        Uri uri;
+        if (showMode == MoviesPreferences.SHOW_MODE_MOST_POPULAR) {
+            uri = MoviesContract.MovieEntry.CONTENT_URI_MOST_POPULAR;
+        } else {
+            uri = MoviesContract.MovieEntry.CONTENT_URI_TOP_RATED;
+        }
+
+        /* Lists are shown in the order the server ranked them, stable across reloads */
+        mWindowSource = new MovieWindowSource(this, uri, MoviesContract.ListEntry.COLUMN_RANK,
+                MAIN_MOVIE_PROJECTION, this);
+        mMoviesAdapter.setWindowSource(mWindowSource);
+        mWindowSource.start();
     }
 
     @Override
@@ -180,7 +265,7 @@ public class MainActivity extends AppCompatActivity
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         String showModeKey = getString(R.string.pref_show_mode_key);
         if (showModeKey.equals(key)) {
-            getSupportLoaderManager().restartLoader(ID_MOVIE_LOADER, null, this);
+            loadMovies(true);
             MovieFetchUtils.reinitialize(this);
             mPosition = RecyclerView.NO_POSITION;
         }
@@ -200,28 +285,12 @@ public class MainActivity extends AppCompatActivity
         switch (loaderId) {
 
             case ID_MOVIE_LOADER: {
-                Uri uri;
-                String sortOrder;
-
-                int showMode = MoviesPreferences.getMoviesShowMode(this);
-
-                if (showMode == MoviesPreferences.SHOW_MODE_MOST_POPULAR) {
-                    uri = MoviesContract.MovieEntry.CONTENT_URI_MOST_POPULAR;
-                    sortOrder = MoviesContract.MovieEntry.COLUMN_POPULARITY + " DESC";
-                } else if (showMode == MoviesPreferences.SHOW_MODE_TOP_RATED) {
-                    uri = MoviesContract.MovieEntry.CONTENT_URI_TOP_RATED;
-                    sortOrder = MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE + " DESC";
-                } else {
-                    uri = MoviesContract.MovieEntry.CONTENT_URI_FAVORITE;
-                    sortOrder = null;
-                }
-
                 return new CursorLoader(this,
-                        uri,
+                        MoviesContract.MovieEntry.CONTENT_URI_FAVORITE,
                         MAIN_MOVIE_PROJECTION,
                         null,
                         null,
-                        sortOrder);
+                        null);
             }
 
             default:
@@ -237,6 +306,27 @@ public class MainActivity extends AppCompatActivity
 
         mMoviesAdapter.swapCursor(cursor);
 
+        onMoviesLoaded();
+    }
+
+    @Override
+    public void onCountChanged(int previousCount, int count) {
+        /* Rows of resident windows are reported as changed when they are reloaded */
+        if (count > previousCount) {
+            mMoviesAdapter.notifyItemRangeInserted(previousCount, count - previousCount);
+        } else if (count < previousCount) {
+            mMoviesAdapter.notifyItemRangeRemoved(count, previousCount - count);
+        }
+
+        onMoviesLoaded();
+    }
+
+    @Override
+    public void onWindowLoaded(int positionStart, int itemCount) {
+        mMoviesAdapter.notifyItemRangeChanged(positionStart, itemCount);
+    }
+
+    private void onMoviesLoaded() {
         if (mPosition == RecyclerView.NO_POSITION) {
             mPosition = 0;
             mRecyclerView.scrollToPosition(mPosition);
@@ -247,7 +337,6 @@ public class MainActivity extends AppCompatActivity
         }
 
         mIsLoading = false;
-
     }
 
     @Override
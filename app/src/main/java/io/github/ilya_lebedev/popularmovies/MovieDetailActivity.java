@@ -16,9 +16,9 @@
 package io.github.ilya_lebedev.popularmovies;
 
 import android.content.AsyncQueryHandler;
-import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
@@ -35,11 +35,10 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.squareup.picasso.Picasso;
-
 import io.github.ilya_lebedev.popularmovies.data.MoviesContract;
 import io.github.ilya_lebedev.popularmovies.sync.MovieDetailFetchUtils;
-import io.github.ilya_lebedev.popularmovies.utilities.NetworkUtils;
+import io.github.ilya_lebedev.popularmovies.sync.PosterPinUtils;
+import io.github.ilya_lebedev.popularmovies.utilities.PosterUtils;
 import io.github.ilya_lebedev.popularmovies.utilities.TmdbDateUtils;
 
 /**
@@ -73,6 +72,11 @@ public class MovieDetailActivity extends AppCompatActivity implements
     public static final int INDEX_MOVIE_POPULARITY = 5;
     public static final int INDEX_MOVIE_OVERVIEW = 6;
 
+    /* The favorite flag needs only to know whether the favorite row exists */
+    public static final String[] IS_MOVIE_FAVORITE_PROJECTION = {
+            MoviesContract.MovieEntry.COLUMN_MOVIE_ID
+    };
+
     public static final String[] MOVIE_VIDEO_PROJECTION = {
             MoviesContract.VideoEntry.COLUMN_KEY,
             MoviesContract.VideoEntry.COLUMN_NAME
@@ -84,12 +88,12 @@ public class MovieDetailActivity extends AppCompatActivity implements
     public static final String[] MOVIE_REVIEW_PROJECTION = {
             MoviesContract.ReviewEntry._ID,
             MoviesContract.ReviewEntry.COLUMN_AUTHOR,
-            MoviesContract.ReviewEntry.COLUMN_CONTENT
+            MoviesContract.ReviewEntry.COLUMN_EXCERPT
     };
 
     public static final int INDEX_MOVIE_REVIEW_ID = 0;
     public static final int INDEX_MOVIE_REVIEW_AUTHOR = 1;
-    public static final int INDEX_MOVIE_REVIEW_CONTENT = 2;
+    public static final int INDEX_MOVIE_REVIEW_EXCERPT = 2;
 
     /* Loaders ids */
     private static final int ID_DETAIL_MOVIE_LOADER = 17;
@@ -186,9 +190,12 @@ public class MovieDetailActivity extends AppCompatActivity implements
         switch (loaderId) {
 
             case ID_DETAIL_MOVIE_LOADER: {
+                /* Observes changes of this movie only, not of the list it was opened from */
+                String id = mUri.getLastPathSegment();
+                Uri movieUri = MoviesContract.MovieEntry.buildMovieUri(Integer.parseInt(id));
                 return new CursorLoader(
                         this,
-                        mUri,
+                        movieUri,
                         DETAIL_MOVIE_PROJECTION,
                         null,
                         null,
@@ -203,7 +210,7 @@ public class MovieDetailActivity extends AppCompatActivity implements
                 return new CursorLoader(
                         this,
                         favoriteUri,
-                        null,
+                        IS_MOVIE_FAVORITE_PROJECTION,
                         null,
                         null,
                         null
@@ -263,7 +270,6 @@ public class MovieDetailActivity extends AppCompatActivity implements
                 mMovieTmdbId = cursor.getInt(INDEX_MOVIE_TMDB_ID);
                 mMovieTitle = cursor.getString(INDEX_MOVIE_TITLE);
                 mMoviePosterPath = cursor.getString(INDEX_MOVIE_POSTER_PATH);
-                String moviePosterUrl = NetworkUtils.getMoviePosterUrl(this, mMoviePosterPath);
                 mMovieReleaseDateMillis = cursor.getLong(INDEX_MOVIE_RELEASE_DATE);
                 String movieReleaseDate = TmdbDateUtils
                         .getFriendlyReleaseDateString(this, mMovieReleaseDateMillis);
@@ -274,14 +280,13 @@ public class MovieDetailActivity extends AppCompatActivity implements
                 mMovieOverview = cursor.getString(INDEX_MOVIE_OVERVIEW);
 
                 mTitleTv.setText(mMovieTitle);
-                Picasso.with(this).load(moviePosterUrl).into(mPosterIv);
+                PosterUtils.loadPoster(mPosterIv, mMoviePosterPath);
                 mReleaseDateTv.setText(movieReleaseDate);
                 mRatingTv.setText(movieRating);
                 mPopularityTv.setText(moviePopularityString);
                 mOverviewTv.setText(mMovieOverview);
 
-                MovieDetailFetchUtils.startMovieVideoFetchTask(this, mMovieTmdbId);
-                MovieDetailFetchUtils.startMovieReviewFetchTask(this, mMovieTmdbId);
+                MovieDetailFetchUtils.startMovieDetailFetchTask(this, mMovieTmdbId);
 
                 break;
             }
@@ -319,8 +324,17 @@ public class MovieDetailActivity extends AppCompatActivity implements
     public void onLoaderReset(Loader<Cursor> loader) {
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        /* Details are not needed anymore if they have not been fetched yet */
+        if (isFinishing()) {
+            MovieDetailFetchUtils.cancelMovieDetailFetchTask(this, mMovieTmdbId);
+        }
+    }
+
     private void saveMovieToFavorite() {
-        MovieAsyncHandler movieAsyncHandler = new MovieAsyncHandler(getContentResolver());
+        MovieAsyncHandler movieAsyncHandler = new MovieAsyncHandler(this);
 
         ContentValues values = new ContentValues();
         values.put(MoviesContract.MovieEntry.COLUMN_MOVIE_ID, mMovieTmdbId);
@@ -339,7 +353,7 @@ public class MovieDetailActivity extends AppCompatActivity implements
     }
 
     private void deleteMovieFromFavorite() {
-        MovieAsyncHandler movieAsyncHandler = new MovieAsyncHandler(getContentResolver());
+        MovieAsyncHandler movieAsyncHandler = new MovieAsyncHandler(this);
 
         Uri uri = ContentUris.withAppendedId(
                 MoviesContract.MovieEntry.CONTENT_URI_FAVORITE, mMovieTmdbId);
@@ -379,10 +393,24 @@ public class MovieDetailActivity extends AppCompatActivity implements
         startActivity(intent);
     }
 
+    /* Pins the poster of a new favorite, and unpins it, once the favorite row is written */
     private static class MovieAsyncHandler extends AsyncQueryHandler {
 
-        public MovieAsyncHandler(ContentResolver cr) {
-            super(cr);
+        private final Context mContext;
+
+        public MovieAsyncHandler(Context context) {
+            super(context.getContentResolver());
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        protected void onInsertComplete(int token, Object cookie, Uri uri) {
+            PosterPinUtils.startPosterPinTask(mContext);
+        }
+
+        @Override
+        protected void onDeleteComplete(int token, Object cookie, int result) {
+            PosterPinUtils.startPosterPinTask(mContext);
         }
 
     }
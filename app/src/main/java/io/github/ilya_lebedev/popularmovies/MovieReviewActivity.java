@@ -15,7 +15,9 @@
  */
 package io.github.ilya_lebedev.popularmovies;
 
+import android.content.Context;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.net.Uri;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
@@ -25,6 +27,7 @@ import android.os.Bundle;
 import android.widget.TextView;
 
 import io.github.ilya_lebedev.popularmovies.data.MoviesContract;
+import io.github.ilya_lebedev.popularmovies.utilities.CompressionUtils;
 
 /**
  * MovieReviewActivity
@@ -70,13 +73,7 @@ public class MovieReviewActivity extends AppCompatActivity implements
         switch (loaderId) {
 
             case ID_MOVIE_REVIEWS_LOADER: {
-                return new CursorLoader(
-                        this,
-                        mUri,
-                        MOVIE_REVIEW_PROJECTION,
-                        null,
-                        null,
-                        null);
+                return new ReviewLoader(this, mUri);
             }
 
             default:
@@ -104,6 +101,7 @@ public class MovieReviewActivity extends AppCompatActivity implements
                 }
 
                 String author = cursor.getString(INDEX_MOVIE_REVIEW_AUTHOR);
+                /* Inflated by the loader */
                 String content = cursor.getString(INDEX_MOVIE_REVIEW_CONTENT);
 
                 mAuthorTv.setText(author);
@@ -122,4 +120,57 @@ public class MovieReviewActivity extends AppCompatActivity implements
     public void onLoaderReset(Loader<Cursor> loader) {
     }
 
+    /**
+     * Loads the review and inflates its content on the loader thread. Only the review screen
+     * reads the whole review, which is stored deflated.
+     */
+    private static class ReviewLoader extends CursorLoader {
+
+        ReviewLoader(Context context, Uri uri) {
+            super(context, uri, MOVIE_REVIEW_PROJECTION, null, null, null);
+        }
+
+        @Override
+        public Cursor loadInBackground() {
+            Cursor cursor = super.loadInBackground();
+            if (cursor == null || !cursor.moveToFirst()) {
+                return cursor;
+            }
+            String content = CompressionUtils.inflate(cursor.getBlob(INDEX_MOVIE_REVIEW_CONTENT));
+            return new InflatedReviewCursor(cursor, content);
+        }
+
+    }
+
+    /**
+     * Cursor of a review which returns the inflated content instead of the stored one.
+     * Other calls, including change observers, go to the wrapped cursor.
+     */
+    private static class InflatedReviewCursor extends CursorWrapper {
+
+        private final String mContent;
+
+        InflatedReviewCursor(Cursor cursor, String content) {
+            super(cursor);
+            mContent = content;
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            if (columnIndex == INDEX_MOVIE_REVIEW_CONTENT) {
+                return mContent;
+            }
+            return super.getString(columnIndex);
+        }
+
+        @Override
+        public int getType(int columnIndex) {
+            if (columnIndex == INDEX_MOVIE_REVIEW_CONTENT) {
+                return mContent == null ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+            }
+            return super.getType(columnIndex);
+        }
+
+    }
+
 }
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies;
+
+import android.content.AsyncQueryHandler;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import io.github.ilya_lebedev.popularmovies.data.MoviesContract;
+
+/**
+ * Data source of a movies list which reads the list in fixed-size windows and keeps only
+ * a few of them in memory. Each window is queried with a keyset, i.e. it starts right after
+ * the last row of the previous window, so reading a window costs the same wherever it is
+ * in the list and a reload only re-reads the resident windows.
+ */
+public class MovieWindowSource {
+
+    /**
+     * The interface that receives data change messages.
+     */
+    public interface Callback {
+
+        /* The number of movies in the list has been loaded, rows are added or removed at the end */
+        void onCountChanged(int previousCount, int count);
+
+        /* Rows of a window have been loaded, only rows within the current count are reported */
+        void onWindowLoaded(int positionStart, int itemCount);
+    }
+
+    private static final int TOKEN_COUNT = 1;
+    private static final int TOKEN_WINDOW = 2;
+
+    private final Uri mListUri;
+    private final String mSortColumn;
+    private final String[] mProjection;
+    private final int mSortColumnIndex;
+    private final int mWindowSize;
+    private final int mMaxResidentWindows;
+    private final Callback mCallback;
+
+    private final ContentResolver mContentResolver;
+    private final QueryHandler mQueryHandler;
+    private final ContentObserver mObserver;
+
+    /* Resident windows by window index, and their indices from least to most recently used */
+    private final SparseArray<Cursor> mWindows = new SparseArray<>();
+    private final SparseIntArray mWindowVersions = new SparseIntArray();
+    private final Deque<Integer> mWindowUsage = new ArrayDeque<>();
+
+    /* Keyset of the row after which a window starts, known for every window reached so far */
+    private final SparseArray<Keyset> mWindowStarts = new SparseArray<>();
+
+    private final SparseArray<WindowRequest> mPendingWindows = new SparseArray<>();
+
+    /* Window the UI is waiting for, it may take loading of the windows before it */
+    private int mWantedWindow = -1;
+
+    /* Incremented on every reload, so results of older queries are dropped */
+    private int mVersion;
+
+    private int mCount;
+
+    private boolean mClosed;
+
+    /**
+     * Creates MovieWindowSource.
+     *
+     * @param context    Used to access the ContentResolver and app resources
+     * @param listUri    Content uri of the list
+     * @param sortColumn Column the list is sorted by, see
+     *                   {@link MoviesContract.MovieEntry#QUERY_PARAMETER_SORT}
+     * @param projection Columns of the rows
+     * @param callback   Receives data change messages
+     */
+    public MovieWindowSource(Context context, Uri listUri, String sortColumn,
+                             String[] projection, Callback callback) {
+        mListUri = listUri;
+        mSortColumn = sortColumn;
+        mCallback = callback;
+
+        /* The sort column and movie id of the last row make the keyset of the next window */
+        mProjection = Arrays.copyOf(projection, projection.length + 2);
+        mProjection[projection.length] = MoviesContract.MovieEntry.COLUMN_MOVIE_ID;
+        mProjection[projection.length + 1] = sortColumn;
+        mSortColumnIndex = projection.length + 1;
+
+        mWindowSize = context.getResources().getInteger(R.integer.movie_window_size);
+        mMaxResidentWindows = context.getResources().getInteger(R.integer.movie_resident_windows);
+
+        mContentResolver = context.getContentResolver();
+        mQueryHandler = new QueryHandler(this, mContentResolver);
+        mObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                reload();
+            }
+        };
+    }
+
+    /**
+     * Starts loading the list and observing its changes.
+     */
+    public void start() {
+        mContentResolver.registerContentObserver(mListUri, false, mObserver);
+        loadCount();
+        requestWindow(0);
+    }
+
+    /**
+     * Stops observing the list and releases resident windows.
+     */
+    public void close() {
+        mClosed = true;
+        mContentResolver.unregisterContentObserver(mObserver);
+        mQueryHandler.cancelOperation(TOKEN_COUNT);
+        mQueryHandler.cancelOperation(TOKEN_WINDOW);
+        for (int i = 0; i < mWindows.size(); i++) {
+            mWindows.valueAt(i).close();
+        }
+        mWindows.clear();
+        mWindowVersions.clear();
+        mWindowUsage.clear();
+    }
+
+    /**
+     * Returns the number of movies in the list.
+     *
+     * @return The number of movies
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns a cursor moved to the movie at a given position, if its window is resident.
+     * Otherwise the window is loaded and {@link Callback#onWindowLoaded(int, int)} is called.
+     *
+     * @param position Position of the movie in the list
+     * @return The cursor moved to the movie, or null if the window is not loaded yet
+     */
+    public Cursor getRow(int position) {
+        int window = position / mWindowSize;
+        Cursor cursor = mWindows.get(window);
+        if (cursor == null) {
+            mWantedWindow = window;
+            requestWindow(window);
+            return null;
+        }
+
+        mWindowUsage.remove(window);
+        mWindowUsage.addLast(window);
+
+        return cursor.moveToPosition(position % mWindowSize) ? cursor : null;
+    }
+
+    /**
+     * Returns a cursor moved to the movie at a given position if its window is resident,
+     * without loading the window or marking it as used.
+     *
+     * @param position Position of the movie in the list
+     * @return The cursor moved to the movie, or null if the window is not resident
+     */
+    public Cursor peekRow(int position) {
+        Cursor cursor = mWindows.get(position / mWindowSize);
+        if (cursor == null) {
+            return null;
+        }
+        return cursor.moveToPosition(position % mWindowSize) ? cursor : null;
+    }
+
+    /*
+     * Re-reads the count and the resident windows after the list has changed.
+     * Starts of windows past the resident ones are dropped, they are found again on scroll.
+     */
+    private void reload() {
+        if (mClosed) {
+            return;
+        }
+
+        mVersion++;
+        mPendingWindows.clear();
+
+        int lastResidentWindow = 0;
+        for (int i = 0; i < mWindows.size(); i++) {
+            lastResidentWindow = Math.max(lastResidentWindow, mWindows.keyAt(i));
+        }
+        for (int i = mWindowStarts.size() - 1; i >= 0; i--) {
+            if (mWindowStarts.keyAt(i) > lastResidentWindow) {
+                mWindowStarts.removeAt(i);
+            }
+        }
+
+        loadCount();
+        for (int i = 0; i < mWindows.size(); i++) {
+            requestWindow(mWindows.keyAt(i));
+        }
+    }
+
+    private void loadCount() {
+        mQueryHandler.startQuery(TOKEN_COUNT, mVersion, mListUri,
+                new String[] { MoviesContract.MovieEntry._COUNT }, null, null, null);
+    }
+
+    /*
+     * Loads a window if its start is known, otherwise the last window with a known start,
+     * which leads to the wanted one window by window.
+     */
+    private void requestWindow(int window) {
+        while (window > 0 && mWindowStarts.get(window) == null) {
+            window--;
+        }
+
+        /* Already loading, or loaded since the last change of the list */
+        if (mPendingWindows.get(window) != null
+                || (mWindows.get(window) != null && mWindowVersions.get(window) == mVersion)) {
+            return;
+        }
+
+        Uri windowUri;
+        Keyset start = mWindowStarts.get(window);
+        if (window == 0 || start == null) {
+            windowUri = MoviesContract.MovieEntry.buildListWindowUri(
+                    mListUri, mSortColumn, mWindowSize);
+        } else {
+            windowUri = MoviesContract.MovieEntry.buildListWindowUri(
+                    mListUri, mSortColumn, start.sortValue, start.movieId, mWindowSize);
+        }
+
+        WindowRequest request = new WindowRequest(window, mVersion);
+        mPendingWindows.put(window, request);
+        mQueryHandler.startQuery(TOKEN_WINDOW, request, windowUri, mProjection, null, null, null);
+    }
+
+    private void onCountLoaded(int version, Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        if (mClosed || version != mVersion) {
+            cursor.close();
+            return;
+        }
+
+        int previousCount = mCount;
+        mCount = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        cursor.close();
+        mCallback.onCountChanged(previousCount, mCount);
+    }
+
+    private void onWindowLoaded(WindowRequest request, Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        if (mClosed || request.version != mVersion) {
+            cursor.close();
+            return;
+        }
+
+        int window = request.window;
+        mPendingWindows.remove(window);
+
+        Cursor previous = mWindows.get(window);
+        if (previous != null) {
+            previous.close();
+        }
+        mWindows.put(window, cursor);
+        mWindowVersions.put(window, mVersion);
+        mWindowUsage.remove(window);
+        mWindowUsage.addLast(window);
+
+        /* A full window tells where the next one starts */
+        if (cursor.getCount() == mWindowSize && cursor.moveToLast()) {
+            mWindowStarts.put(window + 1, new Keyset(
+                    cursor.getDouble(mSortColumnIndex),
+                    cursor.getLong(mSortColumnIndex - 1)));
+        }
+
+        while (mWindowUsage.size() > mMaxResidentWindows) {
+            int evicted = mWindowUsage.removeFirst();
+            mWindows.get(evicted).close();
+            mWindows.remove(evicted);
+            mWindowVersions.delete(evicted);
+        }
+
+        /* Rows past the count are reported as inserted once the new count is loaded */
+        int positionStart = window * mWindowSize;
+        int itemCount = Math.min(cursor.getCount(), mCount - positionStart);
+        if (itemCount > 0) {
+            mCallback.onWindowLoaded(positionStart, itemCount);
+        }
+
+        if (mWantedWindow >= 0 && mWindows.get(mWantedWindow) == null) {
+            requestWindow(mWantedWindow);
+        } else {
+            mWantedWindow = -1;
+        }
+    }
+
+    /* Sort value and movie id of the row a window starts after */
+    private static class Keyset {
+        final double sortValue;
+        final long movieId;
+
+        Keyset(double sortValue, long movieId) {
+            this.sortValue = sortValue;
+            this.movieId = movieId;
+        }
+    }
+
+    private static class WindowRequest {
+        final int window;
+        final int version;
+
+        WindowRequest(int window, int version) {
+            this.window = window;
+            this.version = version;
+        }
+    }
+
+    private static class QueryHandler extends AsyncQueryHandler {
+
+        private final MovieWindowSource mSource;
+
+        QueryHandler(MovieWindowSource source, ContentResolver contentResolver) {
+            super(contentResolver);
+            mSource = source;
+        }
+
+        @Override
+        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+            if (token == TOKEN_COUNT) {
+                mSource.onCountLoaded((Integer) cookie, cursor);
+            } else {
+                mSource.onWindowLoaded((WindowRequest) cookie, cursor);
+            }
+        }
+
+    }
+
+}
@@ -24,9 +24,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
-import com.squareup.picasso.Picasso;
-
-import io.github.ilya_lebedev.popularmovies.utilities.NetworkUtils;
+import io.github.ilya_lebedev.popularmovies.utilities.PosterUtils;
 
 /**
  * {@link MoviesAdapter} exposes a list of movies
@@ -40,6 +38,9 @@ public class MoviesAdapter extends RecyclerView.Adapter<MoviesAdapter.MoviesAdap
     /* Movies list data source */
     private Cursor mCursor;
 
+    /* Windowed data source, used instead of the cursor for long lists */
+    private MovieWindowSource mWindowSource;
+
     final private MoviesAdapterOnClickHandler mClickHandler;
 
     /**
@@ -83,12 +84,18 @@ public class MoviesAdapter extends RecyclerView.Adapter<MoviesAdapter.MoviesAdap
      */
     @Override
     public void onBindViewHolder(MoviesAdapterViewHolder moviesAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
+        Cursor cursor = getMovieCursor(position);
 
-        String moviePosterPath = mCursor.getString(MainActivity.INDEX_MOVIE_POSTER_PATH);
-        String moviePosterUrl = NetworkUtils.getMoviePosterUrl(mContext, moviePosterPath);
+        /* The window of the movie is still loading, the item is bound again once it is loaded */
+        if (cursor == null) {
+            PosterUtils.loadThumbnail(moviesAdapterViewHolder.posterView, null);
+            return;
+        }
 
-        Picasso.with(mContext).load(moviePosterUrl).into(moviesAdapterViewHolder.posterView);
+        String moviePosterPath = cursor.getString(MainActivity.INDEX_MOVIE_POSTER_PATH);
+
+        /* Poster size follows the width of the grid cell */
+        PosterUtils.loadThumbnail(moviesAdapterViewHolder.posterView, moviePosterPath);
     }
 
     /**
@@ -98,6 +105,7 @@ public class MoviesAdapter extends RecyclerView.Adapter<MoviesAdapter.MoviesAdap
      */
     @Override
     public int getItemCount() {
+        if (mWindowSource != null) return mWindowSource.getCount();
         if (mCursor == null) return 0;
         return mCursor.getCount();
     }
@@ -112,6 +120,43 @@ public class MoviesAdapter extends RecyclerView.Adapter<MoviesAdapter.MoviesAdap
         notifyDataSetChanged();
     }
 
+    /**
+     * Set the windowed data source used by MoviesAdapter instead of a cursor.
+     *
+     * @param windowSource the windowed data source, or null to use the cursor
+     */
+    public void setWindowSource(MovieWindowSource windowSource) {
+        mWindowSource = windowSource;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Returns the poster path of the movie at a given position if it is already read,
+     * without reading more movies.
+     *
+     * @param position Position of the movie in the list
+     * @return The poster path, or null if the movie is not read yet
+     */
+    public String peekPosterPath(int position) {
+        Cursor cursor = null;
+        if (mWindowSource != null) {
+            cursor = mWindowSource.peekRow(position);
+        } else if (mCursor != null && mCursor.moveToPosition(position)) {
+            cursor = mCursor;
+        }
+        return cursor != null ? cursor.getString(MainActivity.INDEX_MOVIE_POSTER_PATH) : null;
+    }
+
+    private Cursor getMovieCursor(int position) {
+        if (mWindowSource != null) {
+            return mWindowSource.getRow(position);
+        }
+        if (mCursor != null && mCursor.moveToPosition(position)) {
+            return mCursor;
+        }
+        return null;
+    }
+
     class MoviesAdapterViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
         final ImageView posterView;
@@ -127,8 +172,11 @@ public class MoviesAdapter extends RecyclerView.Adapter<MoviesAdapter.MoviesAdap
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int movieTmdbId = mCursor.getInt(MainActivity.INDEX_MOVIE_THMBD_ID);
+            Cursor cursor = getMovieCursor(adapterPosition);
+            if (cursor == null) {
+                return;
+            }
+            int movieTmdbId = cursor.getInt(MainActivity.INDEX_MOVIE_THMBD_ID);
             mClickHandler.onClick(movieTmdbId);
         }
     }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies;
+
+import android.app.Application;
+
+import com.squareup.picasso.Picasso;
+
+import io.github.ilya_lebedev.popularmovies.utilities.PosterCache;
+import io.github.ilya_lebedev.popularmovies.utilities.PosterDownloader;
+import io.github.ilya_lebedev.popularmovies.utilities.PosterRequestHandler;
+
+/**
+ * Application class. Sets up app-wide singletons before any component starts.
+ */
+public class PopularMoviesApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        /*
+         * Posters share the pooled HTTP transport with TMDb API calls,
+         * are cached in memory and on disk by the poster cache
+         * and are decoded into pooled bitmaps
+         */
+        PosterDownloader downloader = new PosterDownloader(this);
+        Picasso picasso = new Picasso.Builder(this)
+                .memoryCache(PosterCache.getMemoryCache(this))
+                .downloader(downloader)
+                .addRequestHandler(new PosterRequestHandler(this, downloader,
+                        PosterCache.getBitmapPool(this)))
+                .build();
+        Picasso.setSingletonInstance(picasso);
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+
+import com.squareup.picasso.Callback;
+import com.squareup.picasso.Picasso;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import io.github.ilya_lebedev.popularmovies.utilities.PosterCache;
+import io.github.ilya_lebedev.popularmovies.utilities.PosterUtils;
+
+/**
+ * Warms the poster caches for the rows the movies grid is about to show. It watches the
+ * scroll direction and speed of the grid and prefetches posters of the next rows in that
+ * direction, more rows the faster the grid scrolls. Prefetches of posters which have left
+ * the window ahead are cancelled. Posters are downloaded and decoded by Picasso off
+ * the main thread, at the width of the grid cells, so binds find them in the memory cache.
+ */
+public class PosterPrefetcher extends RecyclerView.OnScrollListener {
+
+    private static final String TAG = PosterPrefetcher.class.getSimpleName();
+
+    private final Context mContext;
+    private final GridLayoutManager mLayoutManager;
+    private final MoviesAdapter mMoviesAdapter;
+
+    private final int mMinRows;
+    private final int mMaxRows;
+    private final int mLookaheadMillis;
+
+    /* Prefetches in flight by poster path, each tagged with its own tag */
+    private final Map<String, Object> mPrefetches = new HashMap<>();
+
+    /* Positions of the current window ahead, inclusive */
+    private int mWindowStart = RecyclerView.NO_POSITION;
+    private int mWindowEnd = RecyclerView.NO_POSITION;
+
+    private long mLastScrollTime;
+
+    /**
+     * Creates PosterPrefetcher.
+     *
+     * @param context       Used to access app resources and Picasso
+     * @param layoutManager Layout manager of the movies grid
+     * @param moviesAdapter Adapter of the movies grid
+     */
+    public PosterPrefetcher(Context context, GridLayoutManager layoutManager,
+                            MoviesAdapter moviesAdapter) {
+        mContext = context.getApplicationContext();
+        mLayoutManager = layoutManager;
+        mMoviesAdapter = moviesAdapter;
+        mMinRows = context.getResources().getInteger(R.integer.poster_prefetch_min_rows);
+        mMaxRows = context.getResources().getInteger(R.integer.poster_prefetch_max_rows);
+        mLookaheadMillis = context.getResources().getInteger(R.integer.poster_prefetch_lookahead_ms);
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        super.onScrolled(recyclerView, dx, dy);
+
+        long now = SystemClock.uptimeMillis();
+        long elapsed = Math.max(1, now - mLastScrollTime);
+        mLastScrollTime = now;
+
+        View cell = mLayoutManager.getChildAt(0);
+        if (dy == 0 || cell == null || cell.getHeight() == 0) {
+            return;
+        }
+
+        /* Rows the grid passes within the lookahead time at its current speed */
+        long speedRows = Math.abs(dy) * mLookaheadMillis / (elapsed * cell.getHeight());
+        int rows = (int) Math.max(mMinRows, Math.min(mMaxRows, speedRows));
+        int spanCount = mLayoutManager.getSpanCount();
+
+        int start;
+        int end;
+        if (dy > 0) {
+            start = mLayoutManager.findLastVisibleItemPosition() + 1;
+            end = Math.min(start + rows * spanCount, mMoviesAdapter.getItemCount()) - 1;
+        } else {
+            end = mLayoutManager.findFirstVisibleItemPosition() - 1;
+            start = Math.max(end - rows * spanCount + 1, 0);
+        }
+
+        if (start == mWindowStart && end == mWindowEnd) {
+            return;
+        }
+        mWindowStart = start;
+        mWindowEnd = end;
+
+        View posterView = cell.findViewById(R.id.im_movie_poster);
+        prefetch(start, end, posterView.getWidth());
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        super.onScrollStateChanged(recyclerView, newState);
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, PosterUtils.getWarmBindCount() + " of " + PosterUtils.getBindCount()
+                        + " poster binds were warm");
+            }
+            PosterCache.logStats(mContext);
+        }
+    }
+
+    /**
+     * Cancels all prefetches, e.g. when the grid shows another list.
+     */
+    public void cancel() {
+        Picasso picasso = Picasso.with(mContext);
+        for (Object tag : mPrefetches.values()) {
+            picasso.cancelTag(tag);
+        }
+        mPrefetches.clear();
+        mWindowStart = RecyclerView.NO_POSITION;
+        mWindowEnd = RecyclerView.NO_POSITION;
+    }
+
+    private void prefetch(int start, int end, int width) {
+        if (width <= 0) {
+            return;
+        }
+
+        /* Poster paths of the window, movies not read yet are skipped */
+        Map<String, Object> window = new HashMap<>();
+        for (int position = start; position <= end; position++) {
+            String posterPath = mMoviesAdapter.peekPosterPath(position);
+            if (posterPath != null) {
+                window.put(posterPath, mPrefetches.get(posterPath));
+            }
+        }
+
+        Picasso picasso = Picasso.with(mContext);
+        Iterator<Map.Entry<String, Object>> iterator = mPrefetches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Object> prefetch = iterator.next();
+            if (!window.containsKey(prefetch.getKey())) {
+                picasso.cancelTag(prefetch.getValue());
+                iterator.remove();
+            }
+        }
+
+        for (Map.Entry<String, Object> entry : window.entrySet()) {
+            if (entry.getValue() == null) {
+                startPrefetch(entry.getKey(), width);
+            }
+        }
+    }
+
+    private void startPrefetch(final String posterPath, int width) {
+        final Object tag = new Object();
+        mPrefetches.put(posterPath, tag);
+
+        /* Picasso calls back on the main thread, or at once if the poster is cached */
+        PosterUtils.prefetchThumbnail(mContext, posterPath, width, tag, new Callback() {
+            @Override
+            public void onSuccess() {
+                onPrefetchDone();
+            }
+
+            @Override
+            public void onError() {
+                onPrefetchDone();
+            }
+
+            private void onPrefetchDone() {
+                if (mPrefetches.get(posterPath) == tag) {
+                    mPrefetches.remove(posterPath);
+                }
+            }
+        });
+    }
+
+}
@@ -62,10 +62,10 @@ public class ReviewAdapter extends RecyclerView.Adapter<ReviewAdapter.ReviewAdap
         mCursor.moveToPosition(position);
 
         String author = mCursor.getString(MovieDetailActivity.INDEX_MOVIE_REVIEW_AUTHOR);
-        String content = mCursor.getString(MovieDetailActivity.INDEX_MOVIE_REVIEW_CONTENT);
+        String excerpt = mCursor.getString(MovieDetailActivity.INDEX_MOVIE_REVIEW_EXCERPT);
 
         holder.authorView.setText(author);
-        holder.previewView.setText(content);
+        holder.previewView.setText(excerpt);
     }
 
     @Override
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Set;
+
+/**
+ * INSERT statement for one table which is compiled once and executed for every row
+ * of a batch, instead of building and compiling SQL for each row as
+ * {@link SQLiteDatabase#insert(String, String, ContentValues)} does.
+ *
+ * Must be used inside a transaction on the database it was compiled for.
+ */
+class BulkInsertStatement {
+
+    /**
+     * Binds the fields of a typed row to the statement parameters,
+     * in order of the columns the statement was compiled for.
+     *
+     * @param <T> Row type
+     */
+    interface RowBinder<T> {
+        void bind(SQLiteStatement statement, T row);
+    }
+
+    private final SQLiteDatabase mDb;
+    private final String mTableName;
+    private final String[] mColumns;
+    private final SQLiteStatement mStatement;
+
+    /**
+     * Compiles an INSERT statement for given columns of the table.
+     *
+     * @param db        Writable database
+     * @param tableName Table to insert to
+     * @param columns   Columns bound for each row, parameter indices follow this order
+     */
+    BulkInsertStatement(SQLiteDatabase db, String tableName, String[] columns) {
+        mDb = db;
+        mTableName = tableName;
+        mColumns = columns;
+        mStatement = db.compileStatement(buildInsertSql(tableName, columns));
+    }
+
+    /**
+     * Compiles an INSERT statement for the columns of the first row of a batch.
+     *
+     * @param db        Writable database
+     * @param tableName Table to insert to
+     * @param values    Rows of the batch, must not be empty
+     * @return The compiled statement
+     */
+    static BulkInsertStatement forValues(SQLiteDatabase db, String tableName,
+                                         ContentValues[] values) {
+        Set<String> keys = values[0].keySet();
+        return new BulkInsertStatement(db, tableName, keys.toArray(new String[keys.size()]));
+    }
+
+    /**
+     * Inserts one row. A row with other columns than the statement was compiled for
+     * falls back to a regular insert.
+     *
+     * @param values Row to insert
+     * @return The row ID of the inserted row
+     * @throws SQLException If the row cannot be inserted, so the transaction is rolled back
+     */
+    long insert(ContentValues values) {
+        if (!hasSameColumns(values)) {
+            return mDb.insertOrThrow(mTableName, null, values);
+        }
+
+        mStatement.clearBindings();
+        for (int i = 0; i < mColumns.length; i++) {
+            bindValue(i + 1, values.get(mColumns[i]));
+        }
+        return mStatement.executeInsert();
+    }
+
+    /**
+     * Inserts a batch of typed rows.
+     *
+     * @param rows   Rows to insert
+     * @param binder Binds the fields of a row to the statement
+     * @param <T>    Row type
+     * @return The number of inserted rows
+     * @throws SQLException If a row cannot be inserted, so the transaction is rolled back
+     */
+    <T> int insertAll(Iterable<T> rows, RowBinder<T> binder) {
+        int rowInserted = 0;
+        for (T row : rows) {
+            mStatement.clearBindings();
+            binder.bind(mStatement, row);
+            mStatement.executeInsert();
+            rowInserted++;
+        }
+        return rowInserted;
+    }
+
+    /**
+     * Releases the compiled statement.
+     */
+    void close() {
+        mStatement.close();
+    }
+
+    private boolean hasSameColumns(ContentValues values) {
+        if (values.size() != mColumns.length) {
+            return false;
+        }
+        for (String column : mColumns) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void bindValue(int index, Object value) {
+        if (value == null) {
+            mStatement.bindNull(index);
+        } else if (value instanceof String) {
+            mStatement.bindString(index, (String) value);
+        } else if (value instanceof Float || value instanceof Double) {
+            mStatement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            mStatement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            mStatement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            mStatement.bindBlob(index, (byte[]) value);
+        } else {
+            mStatement.bindString(index, value.toString());
+        }
+    }
+
+    private static String buildInsertSql(String tableName, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(tableName).append(" (");
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                parameters.append(", ");
+            }
+            sql.append(columns[i]);
+            parameters.append('?');
+        }
+        return sql.append(") VALUES (").append(parameters).append(")").toString();
+    }
+
+}
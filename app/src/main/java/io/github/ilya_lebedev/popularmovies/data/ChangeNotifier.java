@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.ilya_lebedev.popularmovies.R;
+
+/**
+ * Sends change notifications of the provider in coalesced bursts. The first change schedules
+ * a flush after a short delay and changes arriving until then ride along with it, so a burst
+ * of writes, e.g. the pages of a list sync, makes observers requery once.
+ *
+ * When flushing, a uri is dropped if its parent is notified too, because a notification
+ * reaches the observers of all descendants anyway, and too many row uris of one parent
+ * are replaced by the parent.
+ */
+class ChangeNotifier {
+
+    private final ContentResolver mContentResolver;
+    private final Handler mHandler;
+    private final long mDelayMillis;
+    private final int mMaxRowUris;
+
+    /* Guarded by this */
+    private Set<Uri> mPendingUris = new LinkedHashSet<>();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Creates ChangeNotifier with its own background thread.
+     *
+     * @param context Used to access the ContentResolver and app resources
+     */
+    ChangeNotifier(Context context) {
+        mContentResolver = context.getContentResolver();
+        mDelayMillis = context.getResources().getInteger(R.integer.change_notification_delay_ms);
+        mMaxRowUris = context.getResources().getInteger(R.integer.change_notification_max_row_uris);
+
+        HandlerThread thread = new HandlerThread(
+                ChangeNotifier.class.getSimpleName(), Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Schedules a change notification of the uri.
+     *
+     * @param uri Changed uri, without query parameters
+     */
+    void notifyChange(Uri uri) {
+        synchronized (this) {
+            if (mPendingUris.isEmpty()) {
+                mHandler.postDelayed(mFlush, mDelayMillis);
+            }
+            mPendingUris.add(uri);
+        }
+    }
+
+    private void flush() {
+        Set<Uri> uris;
+        synchronized (this) {
+            uris = mPendingUris;
+            mPendingUris = new LinkedHashSet<>();
+        }
+
+        /* Row uris by their parent, unless the parent is notified itself */
+        Map<Uri, List<Uri>> rowUris = new HashMap<>();
+        Set<Uri> notifications = new LinkedHashSet<>();
+        for (Uri uri : uris) {
+            Uri parent = getParent(uri);
+            if (parent == null) {
+                notifications.add(uri);
+            } else if (!uris.contains(parent)) {
+                List<Uri> rows = rowUris.get(parent);
+                if (rows == null) {
+                    rows = new ArrayList<>();
+                    rowUris.put(parent, rows);
+                }
+                rows.add(uri);
+            }
+        }
+        for (Map.Entry<Uri, List<Uri>> entry : rowUris.entrySet()) {
+            if (entry.getValue().size() > mMaxRowUris) {
+                notifications.add(entry.getKey());
+            } else {
+                notifications.addAll(entry.getValue());
+            }
+        }
+
+        for (Uri uri : notifications) {
+            mContentResolver.notifyChange(uri, null);
+        }
+    }
+
+    /* Uri without its last path segment, or null for a uri of a whole table */
+    private static Uri getParent(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2) {
+            return null;
+        }
+
+        Uri.Builder builder = uri.buildUpon().path(null);
+        for (int i = 0; i < segments.size() - 1; i++) {
+            builder.appendPath(segments.get(i));
+        }
+        return builder.build();
+    }
+
+}
@@ -34,9 +34,27 @@ public class MoviesContract {
     public static final String PATH_TOP_RATED_MOVIE = "top_rated_movie";
     public static final String PATH_MOST_POPULAR_MOVIE = "most_popular_movie";
     public static final String PATH_FAVORITE_MOVIE = "favorite_movie";
+    public static final String PATH_MOVIE = "movie";
     public static final String PATH_MOVIE_TMDB_ID = "movie_tmdb_id";
     public static final String PATH_MOVIE_VIDEOS = "movie_videos";
     public static final String PATH_MOVIE_REVIEWS = "movie_reviews";
+    public static final String PATH_MOVIE_SEARCH = "movie_search";
+
+    /*
+     * Provider methods for atomic refresh of a movies list, called with the list uri
+     * as argument. Begin returns the pending generation in EXTRA_GENERATION, commit takes
+     * the generation to make visible in EXTRA_GENERATION.
+     */
+    public static final String METHOD_BEGIN_LIST_REFRESH = "begin_list_refresh";
+    public static final String METHOD_COMMIT_LIST_REFRESH = "commit_list_refresh";
+    public static final String EXTRA_GENERATION = "generation";
+
+    /*
+     * Provider method which evicts one batch of cached movie data once the database is over
+     * its storage budget. Returns in EXTRA_TRIM_PENDING whether the next batch may be evicted.
+     */
+    public static final String METHOD_TRIM_STORAGE = "trim_storage";
+    public static final String EXTRA_TRIM_PENDING = "trim_pending";
 
     /* This inner class defines the table content of the movie table */
     public static final class MovieEntry implements BaseColumns {
@@ -52,13 +70,24 @@ public class MoviesContract {
                 .appendPath(PATH_FAVORITE_MOVIE)
                 .build();
 
-        /* Name of movie table for top rated movies */
+        /*
+         * Content uri of single movies, whatever lists they are in. A movie uri is notified
+         * only when data of that movie changes, not when lists or favorites change.
+         */
+        public static final Uri CONTENT_URI_MOVIE = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_MOVIE)
+                .build();
+
+        /* Name of the table which stores every movie once, keyed by its TMDb id */
+        public static final String TABLE_NAME = "movie";
+
+        /* Name of the list of top rated movies in the list entry table */
         public static final String TABLE_NAME_TOP_RATED = "top_rated_movie";
 
-        /* Name of movie table for most popular movies */
+        /* Name of the list of most popular movies in the list entry table */
         public static final String TABLE_NAME_MOST_POPULAR = "most_popular_movie";
 
-        /* Name of movie table for favorites movies */
+        /* Name of the table of favorite movies, which references movies by TMDb id */
         public static final String TABLE_NAME_FAVORITE = "favorite_movie";
 
         /* Movie ID as returned by TMDb API, used to identify concrete movie */
@@ -85,6 +114,89 @@ public class MoviesContract {
         /* Time of last update (in milliseconds). Used only in favorite movie table */
         public static final String COLUMN_LAST_UPDATE_TIME = "last_update_time";
 
+        /* Generation of a list the row belongs to. Used only in lists */
+        public static final String COLUMN_GENERATION = "generation";
+
+        /*
+         * Query parameter of a list uri. Rows bulk inserted with it are written under
+         * the given generation instead of the visible one.
+         */
+        public static final String QUERY_PARAMETER_GENERATION = "generation";
+
+        /**
+         * Build uri for bulk insert of list rows under a pending generation.
+         *
+         * @param listUri    Content uri of the list
+         * @param generation Generation returned by {@link MoviesContract#METHOD_BEGIN_LIST_REFRESH}
+         * @return Uri to bulk insert the new list content with
+         */
+        public static Uri buildListUriWithGeneration(Uri listUri, long generation) {
+            return listUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_GENERATION, Long.toString(generation))
+                    .build();
+        }
+
+        /*
+         * Query parameters of a list uri for reading the list in windows. Rows come sorted
+         * by the sort column descending with the movie id as tie-breaker, starting right after
+         * the row with the given sort value and movie id. By ListEntry.COLUMN_RANK rows come
+         * in the order the server returned them, starting right after the given rank.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+        public static final String QUERY_PARAMETER_AFTER_VALUE = "after_value";
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Build uri to query the first window of a list.
+         *
+         * @param listUri    Content uri of the list
+         * @param sortColumn {@link ListEntry#COLUMN_RANK}, {@link #COLUMN_POPULARITY}
+         *                   or {@link #COLUMN_VOTE_AVERAGE}
+         * @param limit      Maximum number of rows in the window
+         * @return Uri to query the window with
+         */
+        public static Uri buildListWindowUri(Uri listUri, String sortColumn, int limit) {
+            return listUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sortColumn)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        /**
+         * Build uri to query the window of a list which follows a given row.
+         *
+         * @param listUri      Content uri of the list
+         * @param sortColumn   {@link ListEntry#COLUMN_RANK}, {@link #COLUMN_POPULARITY}
+         *                     or {@link #COLUMN_VOTE_AVERAGE}
+         * @param afterValue   Sort column value of the last row of the previous window
+         * @param afterMovieId Movie id of the last row of the previous window
+         * @param limit        Maximum number of rows in the window
+         * @return Uri to query the window with
+         */
+        public static Uri buildListWindowUri(Uri listUri, String sortColumn,
+                                             double afterValue, long afterMovieId, int limit) {
+            /* Ranks are integers, the provider parses them as such */
+            String value = ListEntry.COLUMN_RANK.equals(sortColumn)
+                    ? Long.toString((long) afterValue) : Double.toString(afterValue);
+            return buildListWindowUri(listUri, sortColumn, limit).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_VALUE, value)
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, Long.toString(afterMovieId))
+                    .build();
+        }
+
+        /**
+         * Build uri to query data of a single movie.
+         *
+         * @param id TMDb id of the movie
+         * @return Uri to query the movie with
+         */
+        public static Uri buildMovieUri(int id) {
+            return CONTENT_URI_MOVIE.buildUpon()
+                    .appendPath(Integer.toString(id))
+                    .build();
+        }
+
         public static Uri buildMovieUriWithTmdbId(Context context, int id) {
 
             Uri contentUri;
@@ -110,6 +222,89 @@ public class MoviesContract {
 
     }
 
+    /* Defines the full-text search table over movies and their reviews */
+    public static final class SearchEntry {
+
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_MOVIE_SEARCH)
+                .build();
+
+        public static final String TABLE_NAME = "movie_search";
+
+        public static final String COLUMN_TITLE = "title";
+
+        public static final String COLUMN_OVERVIEW = "overview";
+
+        /* Text of all reviews of the movie */
+        public static final String COLUMN_REVIEWS = "reviews";
+
+        /* Excerpt of the matched text with matches enclosed in <b></b>. Only in query results */
+        public static final String COLUMN_SNIPPET = "snippet";
+
+        /* Query parameter of the search uri holding the text to search for */
+        public static final String QUERY_PARAMETER_QUERY = "q";
+
+        /**
+         * Build uri for search of cached movies. A query of the uri returns movies whose
+         * title, overview or reviews contain words starting with every word of the text,
+         * best matches first. Besides movie columns the rows contain {@link #COLUMN_SNIPPET}.
+         *
+         * @param text Text to search for
+         * @return Uri to query for search results
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_QUERY, text)
+                    .build();
+        }
+
+    }
+
+    /* Defines the table content of the list entry table, which makes up movies lists */
+    public static final class ListEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "list_entry";
+
+        /* Name of the list, e.g. {@link MovieEntry#TABLE_NAME_TOP_RATED} */
+        public static final String COLUMN_LIST = "list";
+
+        /* Position of the movie in the list */
+        public static final String COLUMN_RANK = "rank";
+
+        /* TMDb id of the movie in the movie table */
+        public static final String COLUMN_MOVIE_ID = "movie_id";
+
+        /* Generation of the list the entry belongs to */
+        public static final String COLUMN_GENERATION = "generation";
+
+    }
+
+    /* Defines the table content of the list generation table */
+    public static final class ListGenerationEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "list_generation";
+
+        /* Name of the list */
+        public static final String COLUMN_LIST_NAME = "list_name";
+
+        /* Generation of the list rows which are visible to queries */
+        public static final String COLUMN_VISIBLE_GENERATION = "visible_generation";
+
+    }
+
+    /* Defines the table content of the movie access table, used for eviction of cached data */
+    public static final class MovieAccessEntry {
+
+        public static final String TABLE_NAME = "movie_access";
+
+        /* TMDb id of the movie */
+        public static final String COLUMN_MOVIE_ID = "movie_id";
+
+        /* Time the detail of the movie was last shown (in milliseconds) */
+        public static final String COLUMN_LAST_ACCESS_TIME = "last_access_time";
+
+    }
+
     /* Defines the table content of the movie video table */
     public static final class VideoEntry implements BaseColumns {
 
@@ -165,8 +360,15 @@ public class MoviesContract {
 
         public static final String COLUMN_AUTHOR = "author";
 
+        /*
+         * Review body is stored as BLOB of the deflated UTF-8 text, decompressed with
+         * CompressionUtils.inflate. Inserts take the plain text, the provider compresses it.
+         */
         public static final String COLUMN_CONTENT = "content";
 
+        /* Excerpt is stored as String with the beginning of the review body, for lists */
+        public static final String COLUMN_EXCERPT = "excerpt";
+
         public static Uri buildMovieReviewUriWithId(int reviewId) {
 
             return CONTENT_URI_REVIEWS.buildUpon()
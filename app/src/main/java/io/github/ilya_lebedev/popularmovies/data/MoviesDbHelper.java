@@ -15,9 +15,17 @@
  */
 package io.github.ilya_lebedev.popularmovies.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+
+import java.io.File;
+
+import io.github.ilya_lebedev.popularmovies.utilities.CompressionUtils;
 
 /**
  * Manages a local database for movies data.
@@ -26,7 +34,27 @@ public class MoviesDbHelper extends SQLiteOpenHelper {
 
     public static final String DATABASE_NAME = "movies.db";
 
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 8;
+
+    /* First version with incremental vacuum */
+    private static final int INCREMENTAL_VACUUM_VERSION = 8;
+
+    /*
+     * Pages written to the log before the writer checkpoints it on its own. It is larger
+     * than the default, so big sync batches are checkpointed by the sync thread instead.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 2000;
+
+    /* Log size after which the sync thread checkpoints the log when a write ends */
+    private static final long WAL_CHECKPOINT_THRESHOLD_BYTES = 1024 * 1024;
+
+    private static final String WAL_FILE_SUFFIX = "-wal";
+
+    /* Length of review excerpts, enough to fill a review card of the detail screen */
+    private static final int REVIEW_EXCERPT_LENGTH = 400;
+
+    /* Set by an upgrade to incremental vacuum, which needs one full vacuum outside of it */
+    private boolean mVacuumOnOpen;
 
     /**
      * Creates MoviesDbHelper.
@@ -38,57 +66,96 @@ public class MoviesDbHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Called when the database is created for the first time.
+     * Configures database connection before it is created or upgraded. The database is
+     * opened in write-ahead log mode, so the loaders keep reading the last committed data
+     * while sync writes to the database.
      *
      * @param sqLiteDatabase The database.
      */
     @Override
-    public void onCreate(SQLiteDatabase sqLiteDatabase) {
-
-        final String SQL_BASE_PART =
-
-                MoviesContract.MovieEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-
-                        MoviesContract.MovieEntry.COLUMN_MOVIE_ID + " INTEGER NOT NULL, " +
-
-                        MoviesContract.MovieEntry.COLUMN_TITLE + " TEXT NOT NULL, " +
-
-                        MoviesContract.MovieEntry.COLUMN_OVERVIEW + " TEXT NOT NULL, " +
-
-                        MoviesContract.MovieEntry.COLUMN_POSTER_PATH + " TEXT NOT NULL, " +
-
-                        MoviesContract.MovieEntry.COLUMN_RELEASE_DATE + " INTEGER NOT NULL, " +
-
-                        MoviesContract.MovieEntry.COLUMN_POPULARITY + " REAL NOT NULL, " +
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        /*
+         * Takes effect only on a new database, before its first table is created and
+         * before it is switched to the log. An existing one is vacuumed once to switch.
+         */
+        sqLiteDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        sqLiteDatabase.enableWriteAheadLogging();
+        /* With the log, NORMAL keeps the database consistent and skips most fsyncs */
+        sqLiteDatabase.execSQL("PRAGMA synchronous = NORMAL");
+        DatabaseUtils.longForQuery(sqLiteDatabase,
+                "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES, null);
+    }
 
-                        MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE + " REAL NOT NULL, ";
+    /**
+     * Copies the write-ahead log back to the database if it has grown large.
+     * Passive checkpoint neither waits for nor blocks readers and writers.
+     * Must not be called on the main thread.
+     *
+     * @param sqLiteDatabase Writable database
+     */
+    static void checkpointIfNeeded(SQLiteDatabase sqLiteDatabase) {
+        File walFile = new File(sqLiteDatabase.getPath() + WAL_FILE_SUFFIX);
+        if (walFile.length() < WAL_CHECKPOINT_THRESHOLD_BYTES) {
+            return;
+        }
+
+        Cursor cursor = sqLiteDatabase.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
 
+    /* Movie columns, shared by all movie tables before version 4 */
+    private static final String SQL_BASE_PART =
 
-        final String SQL_CREATE_TOP_RATED_MOVIE_TABLE =
-                "CREATE TABLE " + MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED + "(" +
+            MoviesContract.MovieEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
 
-                        SQL_BASE_PART +
+                    MoviesContract.MovieEntry.COLUMN_MOVIE_ID + " INTEGER NOT NULL, " +
 
-                        " UNIQUE (" + MoviesContract.MovieEntry.COLUMN_MOVIE_ID + ") ON CONFLICT REPLACE);";
+                    MoviesContract.MovieEntry.COLUMN_TITLE + " TEXT NOT NULL, " +
 
+                    MoviesContract.MovieEntry.COLUMN_OVERVIEW + " TEXT NOT NULL, " +
 
-        final String SQL_CREATE_MOST_POPULAR_MOVIE_TABLE =
-                "CREATE TABLE " + MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR + "(" +
+                    MoviesContract.MovieEntry.COLUMN_POSTER_PATH + " TEXT NOT NULL, " +
 
-                        SQL_BASE_PART +
+                    MoviesContract.MovieEntry.COLUMN_RELEASE_DATE + " INTEGER NOT NULL, " +
 
-                        " UNIQUE (" + MoviesContract.MovieEntry.COLUMN_MOVIE_ID + ") ON CONFLICT REPLACE);";
+                    MoviesContract.MovieEntry.COLUMN_POPULARITY + " REAL NOT NULL, " +
 
+                    MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE + " REAL NOT NULL, ";
 
-        final String SQL_CREATE_FAVORITE_MOVIE_TABLE =
-                "CREATE TABLE " + MoviesContract.MovieEntry.TABLE_NAME_FAVORITE + "(" +
+    /* Columns copied when a list table is rebuilt */
+    private static final String SQL_BASE_COLUMNS =
 
-                        SQL_BASE_PART +
+            MoviesContract.MovieEntry._ID + ", " +
+                    MoviesContract.MovieEntry.COLUMN_MOVIE_ID + ", " +
+                    MoviesContract.MovieEntry.COLUMN_TITLE + ", " +
+                    MoviesContract.MovieEntry.COLUMN_OVERVIEW + ", " +
+                    MoviesContract.MovieEntry.COLUMN_POSTER_PATH + ", " +
+                    MoviesContract.MovieEntry.COLUMN_RELEASE_DATE + ", " +
+                    MoviesContract.MovieEntry.COLUMN_POPULARITY + ", " +
+                    MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE;
 
-                        MoviesContract.MovieEntry.COLUMN_LAST_UPDATE_TIME + " INTEGER NOT NULL" +
+    /* Columns of the canonical movie table */
+    private static final String SQL_MOVIE_COLUMNS =
 
-                        ");";
+            MoviesContract.MovieEntry.COLUMN_MOVIE_ID + ", " +
+                    MoviesContract.MovieEntry.COLUMN_TITLE + ", " +
+                    MoviesContract.MovieEntry.COLUMN_OVERVIEW + ", " +
+                    MoviesContract.MovieEntry.COLUMN_POSTER_PATH + ", " +
+                    MoviesContract.MovieEntry.COLUMN_RELEASE_DATE + ", " +
+                    MoviesContract.MovieEntry.COLUMN_POPULARITY + ", " +
+                    MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE;
 
+    /**
+     * Called when the database is created for the first time.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
 
         final String SQL_CREATE_VIDEO_TABLE =
 
@@ -111,6 +178,312 @@ public class MoviesDbHelper extends SQLiteOpenHelper {
                         " UNIQUE (" + MoviesContract.VideoEntry.COLUMN_TMDB_ID + ") ON CONFLICT REPLACE);";
 
 
+        createMovieTables(sqLiteDatabase);
+        sqLiteDatabase.execSQL(SQL_CREATE_VIDEO_TABLE);
+        createReviewTable(sqLiteDatabase);
+        createListGenerationTable(sqLiteDatabase);
+        createIndexes(sqLiteDatabase);
+        createSearchTable(sqLiteDatabase);
+        createMovieAccessTable(sqLiteDatabase);
+    }
+
+    /**
+     * Upgrades the database one version at a time, running the migration to every
+     * version after the old one. Each migration runs inside the upgrade transaction,
+     * so a failed upgrade leaves the database at the old version with all its data.
+     *
+     *
+     * @param sqLiteDatabase Database that is being upgraded
+     * @param oldVersion     The old database version
+     * @param newVersion     The new database version
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            MIGRATIONS[version].migrate(sqLiteDatabase);
+        }
+        mVacuumOnOpen = oldVersion < INCREMENTAL_VACUUM_VERSION;
+    }
+
+    /**
+     * Called when the database has been opened, after it is created or upgraded.
+     * Finishes the switch to incremental vacuum, which can not run in the upgrade transaction.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        if (mVacuumOnOpen && !sqLiteDatabase.isReadOnly()) {
+            mVacuumOnOpen = false;
+            sqLiteDatabase.execSQL("VACUUM");
+        }
+    }
+
+    /**
+     * Migration of the database from the previous version to a certain one.
+     */
+    private interface Migration {
+        void migrate(SQLiteDatabase sqLiteDatabase);
+    }
+
+    /* Migrations indexed by the version they upgrade to, versions 0 and 1 have none */
+    private static final Migration[] MIGRATIONS = {
+            null,
+            null,
+            new Migration() {
+                /* Version 2 adds list generations, cached list rows become generation 0 */
+                @Override
+                public void migrate(SQLiteDatabase sqLiteDatabase) {
+                    createListGenerationTable(sqLiteDatabase);
+                    rebuildListTable(sqLiteDatabase, MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED);
+                    rebuildListTable(sqLiteDatabase, MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR);
+                }
+            },
+            new Migration() {
+                /* Version 3 adds indexes for detail screen lookups and list sort orders */
+                @Override
+                public void migrate(SQLiteDatabase sqLiteDatabase) {
+                    createIndex(sqLiteDatabase, MoviesContract.VideoEntry.TABLE_NAME,
+                            MoviesContract.VideoEntry.COLUMN_MOVIE_TMDB_ID);
+                    createIndex(sqLiteDatabase, MoviesContract.ReviewEntry.TABLE_NAME,
+                            MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID);
+                    createIndex(sqLiteDatabase, MoviesContract.MovieEntry.TABLE_NAME_FAVORITE,
+                            MoviesContract.MovieEntry.COLUMN_MOVIE_ID);
+                    createIndex(sqLiteDatabase, MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR,
+                            MoviesContract.MovieEntry.COLUMN_GENERATION,
+                            MoviesContract.MovieEntry.COLUMN_POPULARITY + " DESC");
+                    createIndex(sqLiteDatabase, MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED,
+                            MoviesContract.MovieEntry.COLUMN_GENERATION,
+                            MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE + " DESC");
+                }
+            },
+            new Migration() {
+                /*
+                 * Version 4 stores every movie once and keeps lists and favorites as
+                 * references to it. Cached lists keep their order through the old row ids,
+                 * renumbered from zero like ranks of fetched pages.
+                 */
+                @Override
+                public void migrate(SQLiteDatabase sqLiteDatabase) {
+                    String oldFavoriteTableName = MoviesContract.MovieEntry.TABLE_NAME_FAVORITE + "_old";
+                    sqLiteDatabase.execSQL("ALTER TABLE " + MoviesContract.MovieEntry.TABLE_NAME_FAVORITE +
+                            " RENAME TO " + oldFavoriteTableName);
+                    sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " +
+                            MoviesContract.MovieEntry.TABLE_NAME_FAVORITE + "_idx_" +
+                            MoviesContract.MovieEntry.COLUMN_MOVIE_ID);
+
+                    createMovieTables(sqLiteDatabase);
+
+                    /*
+                     * Rows of a movie replace each other, favorites are copied first
+                     * so the metadata of a list, which is synced more often, wins.
+                     */
+                    for (String listName : new String[] {
+                            oldFavoriteTableName,
+                            MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED,
+                            MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR }) {
+                        sqLiteDatabase.execSQL("INSERT INTO " + MoviesContract.MovieEntry.TABLE_NAME +
+                                " (" + SQL_MOVIE_COLUMNS + ") " +
+                                "SELECT " + SQL_MOVIE_COLUMNS + " FROM " + listName);
+                    }
+
+                    for (String listName : new String[] {
+                            MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED,
+                            MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR }) {
+                        sqLiteDatabase.execSQL("INSERT INTO " + MoviesContract.ListEntry.TABLE_NAME + " (" +
+                                MoviesContract.ListEntry.COLUMN_LIST + ", " +
+                                MoviesContract.ListEntry.COLUMN_RANK + ", " +
+                                MoviesContract.ListEntry.COLUMN_MOVIE_ID + ", " +
+                                MoviesContract.ListEntry.COLUMN_GENERATION + ") " +
+                                "SELECT '" + listName + "', " +
+                                buildRowNumberSql(listName) + ", " +
+                                MoviesContract.MovieEntry.COLUMN_MOVIE_ID + ", " +
+                                MoviesContract.MovieEntry.COLUMN_GENERATION +
+                                " FROM " + listName + " AS entry");
+                        sqLiteDatabase.execSQL("DROP TABLE " + listName);
+                    }
+
+                    sqLiteDatabase.execSQL("INSERT INTO " + MoviesContract.MovieEntry.TABLE_NAME_FAVORITE + " (" +
+                            MoviesContract.MovieEntry.COLUMN_MOVIE_ID + ", " +
+                            MoviesContract.MovieEntry.COLUMN_LAST_UPDATE_TIME + ") " +
+                            "SELECT " + MoviesContract.MovieEntry.COLUMN_MOVIE_ID + ", " +
+                            MoviesContract.MovieEntry.COLUMN_LAST_UPDATE_TIME +
+                            " FROM " + oldFavoriteTableName);
+                    sqLiteDatabase.execSQL("DROP TABLE " + oldFavoriteTableName);
+
+                    createIndexes(sqLiteDatabase);
+                }
+            },
+            new Migration() {
+                /* Version 5 adds full-text search over cached movies and their reviews */
+                @Override
+                public void migrate(SQLiteDatabase sqLiteDatabase) {
+                    createSearchTable(sqLiteDatabase);
+                    sqLiteDatabase.execSQL("INSERT INTO " + MoviesContract.SearchEntry.TABLE_NAME + " (" +
+                            SQL_SEARCH_COLUMNS + ") " +
+                            "SELECT " + MoviesContract.MovieEntry.COLUMN_MOVIE_ID + ", " +
+                            MoviesContract.MovieEntry.COLUMN_TITLE + ", " +
+                            MoviesContract.MovieEntry.COLUMN_OVERVIEW + ", " +
+                            buildReviewsSelectSql(MoviesContract.MovieEntry.TABLE_NAME + "." +
+                                    MoviesContract.MovieEntry.COLUMN_MOVIE_ID) +
+                            " FROM " + MoviesContract.MovieEntry.TABLE_NAME);
+                }
+            },
+            new Migration() {
+                /* Version 6 tracks access to movies, cached movies are evicted by it */
+                @Override
+                public void migrate(SQLiteDatabase sqLiteDatabase) {
+                    createMovieAccessTable(sqLiteDatabase);
+                }
+            },
+            new Migration() {
+                /*
+                 * Version 7 stores review bodies deflated with a plain excerpt. Triggers can not
+                 * read deflated reviews, so the provider indexes them for search from now on.
+                 */
+                @Override
+                public void migrate(SQLiteDatabase sqLiteDatabase) {
+                    String oldReviewTableName = MoviesContract.ReviewEntry.TABLE_NAME + "_old";
+
+                    sqLiteDatabase.execSQL("DROP TRIGGER IF EXISTS " +
+                            MoviesContract.MovieEntry.TABLE_NAME + "_search_insert");
+                    sqLiteDatabase.execSQL("DROP TRIGGER IF EXISTS " +
+                            MoviesContract.MovieEntry.TABLE_NAME + "_search_delete");
+                    sqLiteDatabase.execSQL("DROP TRIGGER IF EXISTS " +
+                            MoviesContract.ReviewEntry.TABLE_NAME + "_search_insert");
+                    sqLiteDatabase.execSQL("DROP TRIGGER IF EXISTS " +
+                            MoviesContract.ReviewEntry.TABLE_NAME + "_search_delete");
+
+                    sqLiteDatabase.execSQL("ALTER TABLE " + MoviesContract.ReviewEntry.TABLE_NAME +
+                            " RENAME TO " + oldReviewTableName);
+                    sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " +
+                            MoviesContract.ReviewEntry.TABLE_NAME + "_idx_" +
+                            MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID);
+                    createReviewTable(sqLiteDatabase);
+
+                    Cursor cursor = sqLiteDatabase.query(oldReviewTableName,
+                            null, null, null, null, null, null);
+                    try {
+                        while (cursor.moveToNext()) {
+                            ContentValues values = new ContentValues();
+                            DatabaseUtils.cursorRowToContentValues(cursor, values);
+                            sqLiteDatabase.insert(MoviesContract.ReviewEntry.TABLE_NAME,
+                                    null, compressReview(values));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+
+                    sqLiteDatabase.execSQL("DROP TABLE " + oldReviewTableName);
+                    createIndex(sqLiteDatabase, MoviesContract.ReviewEntry.TABLE_NAME,
+                            MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID);
+                    createSearchTriggers(sqLiteDatabase);
+                }
+            },
+            new Migration() {
+                /*
+                 * Version 8 releases free pages by incremental vacuum. The mode is set on every
+                 * connection and applied by a full vacuum when the database is opened.
+                 */
+                @Override
+                public void migrate(SQLiteDatabase sqLiteDatabase) {
+                    sqLiteDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                }
+            }
+    };
+
+    /* Columns written to the search table, its docid is the TMDb id of the movie */
+    private static final String SQL_SEARCH_COLUMNS =
+
+            "docid, " +
+                    MoviesContract.SearchEntry.COLUMN_TITLE + ", " +
+                    MoviesContract.SearchEntry.COLUMN_OVERVIEW + ", " +
+                    MoviesContract.SearchEntry.COLUMN_REVIEWS;
+
+    /*
+     * The search table keeps one document per cached movie with the text of all its reviews.
+     * Triggers keep titles and overviews in sync with the movie table, whichever way it is
+     * written. Reviews are stored deflated, so the provider writes their text when they change.
+     */
+    private static void createSearchTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_SEARCH_TABLE =
+
+                "CREATE VIRTUAL TABLE " + MoviesContract.SearchEntry.TABLE_NAME + " USING fts4(" +
+
+                        MoviesContract.SearchEntry.COLUMN_TITLE + ", " +
+
+                        MoviesContract.SearchEntry.COLUMN_OVERVIEW + ", " +
+
+                        MoviesContract.SearchEntry.COLUMN_REVIEWS + ");";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_SEARCH_TABLE);
+        createSearchTriggers(sqLiteDatabase);
+    }
+
+    private static void createSearchTriggers(SQLiteDatabase sqLiteDatabase) {
+        /*
+         * Movie rows are replaced on conflict, which does not fire delete triggers.
+         * The document of a replaced movie is updated, so it keeps the text of the reviews.
+         */
+        final String SQL_CREATE_MOVIE_INSERT_TRIGGER =
+
+                "CREATE TRIGGER " + MoviesContract.MovieEntry.TABLE_NAME + "_search_insert" +
+                        " AFTER INSERT ON " + MoviesContract.MovieEntry.TABLE_NAME + " BEGIN " +
+
+                        "UPDATE " + MoviesContract.SearchEntry.TABLE_NAME +
+                        " SET " + MoviesContract.SearchEntry.COLUMN_TITLE +
+                        " = new." + MoviesContract.MovieEntry.COLUMN_TITLE + ", " +
+                        MoviesContract.SearchEntry.COLUMN_OVERVIEW +
+                        " = new." + MoviesContract.MovieEntry.COLUMN_OVERVIEW +
+                        " WHERE docid = new." + MoviesContract.MovieEntry.COLUMN_MOVIE_ID + "; " +
+
+                        "INSERT INTO " + MoviesContract.SearchEntry.TABLE_NAME +
+                        " (" + SQL_SEARCH_COLUMNS + ") SELECT " +
+                        "new." + MoviesContract.MovieEntry.COLUMN_MOVIE_ID + ", " +
+                        "new." + MoviesContract.MovieEntry.COLUMN_TITLE + ", " +
+                        "new." + MoviesContract.MovieEntry.COLUMN_OVERVIEW + ", NULL" +
+                        " WHERE NOT EXISTS (SELECT 1 FROM " + MoviesContract.SearchEntry.TABLE_NAME +
+                        " WHERE docid = new." + MoviesContract.MovieEntry.COLUMN_MOVIE_ID + "); " +
+
+                        "END;";
+
+        final String SQL_CREATE_MOVIE_DELETE_TRIGGER =
+
+                "CREATE TRIGGER " + MoviesContract.MovieEntry.TABLE_NAME + "_search_delete" +
+                        " AFTER DELETE ON " + MoviesContract.MovieEntry.TABLE_NAME + " BEGIN " +
+
+                        "DELETE FROM " + MoviesContract.SearchEntry.TABLE_NAME +
+                        " WHERE docid = old." + MoviesContract.MovieEntry.COLUMN_MOVIE_ID + "; " +
+
+                        "END;";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_MOVIE_INSERT_TRIGGER);
+        sqLiteDatabase.execSQL(SQL_CREATE_MOVIE_DELETE_TRIGGER);
+    }
+
+    /*
+     * Position of a row of an old list table within its generation, counted from zero in
+     * the order the rows were inserted. Fresh pages are ranked the same way, by position
+     * on the server, so migrated and fetched rows share one numbering.
+     */
+    private static String buildRowNumberSql(String listName) {
+        return "(SELECT COUNT(*) FROM " + listName + " AS previous" +
+                " WHERE previous." + MoviesContract.MovieEntry.COLUMN_GENERATION +
+                " = entry." + MoviesContract.MovieEntry.COLUMN_GENERATION +
+                " AND previous." + MoviesContract.MovieEntry._ID +
+                " < entry." + MoviesContract.MovieEntry._ID + ")";
+    }
+
+    /* Reviews of a movie as plain text, only for databases before version 7 */
+    private static String buildReviewsSelectSql(String movieIdExpression) {
+        return "(SELECT group_concat(" + MoviesContract.ReviewEntry.COLUMN_CONTENT + ", ' ')" +
+                " FROM " + MoviesContract.ReviewEntry.TABLE_NAME +
+                " WHERE " + MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID + " = " +
+                movieIdExpression + ")";
+    }
+
+    /* Review bodies are stored deflated, lists of reviews read the excerpt */
+    private static void createReviewTable(SQLiteDatabase sqLiteDatabase) {
         final String SQL_CREATE_REVIEW_TABLE =
 
                 "CREATE TABLE " + MoviesContract.ReviewEntry.TABLE_NAME + "(" +
@@ -123,27 +496,194 @@ public class MoviesDbHelper extends SQLiteOpenHelper {
 
                         MoviesContract.ReviewEntry.COLUMN_AUTHOR + " TEXT NOT NULL, " +
 
-                        MoviesContract.ReviewEntry.COLUMN_CONTENT + " TEXT NOT NULL, " +
+                        MoviesContract.ReviewEntry.COLUMN_EXCERPT + " TEXT NOT NULL, " +
+
+                        MoviesContract.ReviewEntry.COLUMN_CONTENT + " BLOB NOT NULL, " +
 
                         " UNIQUE (" + MoviesContract.ReviewEntry.COLUMN_TMDB_ID + ") ON CONFLICT REPLACE);";
 
-        sqLiteDatabase.execSQL(SQL_CREATE_TOP_RATED_MOVIE_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_MOST_POPULAR_MOVIE_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_FAVORITE_MOVIE_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_VIDEO_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_REVIEW_TABLE);
     }
 
     /**
-     * This method defines upgrade policy of database.
+     * Converts a review row with plain text content to the stored form:
+     * deflated content and a plain excerpt of it. Rows without plain content are kept as is.
      *
-     * @param sqLiteDatabase Database that is being upgraded
-     * @param oldVersion     The old database version
-     * @param newVersion     The new database version
+     * @param values Review row
+     * @return The review row to store
      */
-    @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // Here nothing to do right now
+    static ContentValues compressReview(ContentValues values) {
+        Object content = values.get(MoviesContract.ReviewEntry.COLUMN_CONTENT);
+        if (!(content instanceof String)) {
+            return values;
+        }
+
+        ContentValues review = new ContentValues(values);
+        review.put(MoviesContract.ReviewEntry.COLUMN_CONTENT,
+                CompressionUtils.deflate((String) content));
+        review.put(MoviesContract.ReviewEntry.COLUMN_EXCERPT,
+                CompressionUtils.getExcerpt((String) content, REVIEW_EXCERPT_LENGTH));
+        return review;
+    }
+
+    /*
+     * A movie is stored once, keyed by its TMDb id. Lists and favorites only reference it,
+     * so every screen shows the freshest metadata fetched by any list.
+     */
+    private static void createMovieTables(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_MOVIE_TABLE =
+
+                "CREATE TABLE " + MoviesContract.MovieEntry.TABLE_NAME + "(" +
+
+                        MoviesContract.MovieEntry.COLUMN_MOVIE_ID + " INTEGER PRIMARY KEY ON CONFLICT REPLACE, " +
+
+                        MoviesContract.MovieEntry.COLUMN_TITLE + " TEXT NOT NULL, " +
+
+                        MoviesContract.MovieEntry.COLUMN_OVERVIEW + " TEXT NOT NULL, " +
+
+                        MoviesContract.MovieEntry.COLUMN_POSTER_PATH + " TEXT NOT NULL, " +
+
+                        MoviesContract.MovieEntry.COLUMN_RELEASE_DATE + " INTEGER NOT NULL, " +
+
+                        MoviesContract.MovieEntry.COLUMN_POPULARITY + " REAL NOT NULL, " +
+
+                        MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE + " REAL NOT NULL);";
+
+        /*
+         * A list keeps entries of several generations during a refresh,
+         * so a movie is unique only within a generation of a list.
+         */
+        final String SQL_CREATE_LIST_ENTRY_TABLE =
+
+                "CREATE TABLE " + MoviesContract.ListEntry.TABLE_NAME + "(" +
+
+                        MoviesContract.ListEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                        MoviesContract.ListEntry.COLUMN_LIST + " TEXT NOT NULL, " +
+
+                        MoviesContract.ListEntry.COLUMN_RANK + " INTEGER NOT NULL, " +
+
+                        MoviesContract.ListEntry.COLUMN_MOVIE_ID + " INTEGER NOT NULL, " +
+
+                        MoviesContract.ListEntry.COLUMN_GENERATION + " INTEGER NOT NULL DEFAULT 0, " +
+
+                        " UNIQUE (" + MoviesContract.ListEntry.COLUMN_LIST + ", " +
+                        MoviesContract.ListEntry.COLUMN_GENERATION + ", " +
+                        MoviesContract.ListEntry.COLUMN_MOVIE_ID + ") ON CONFLICT REPLACE);";
+
+        final String SQL_CREATE_FAVORITE_MOVIE_TABLE =
+
+                "CREATE TABLE " + MoviesContract.MovieEntry.TABLE_NAME_FAVORITE + "(" +
+
+                        MoviesContract.MovieEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                        MoviesContract.MovieEntry.COLUMN_MOVIE_ID + " INTEGER NOT NULL, " +
+
+                        MoviesContract.MovieEntry.COLUMN_LAST_UPDATE_TIME + " INTEGER NOT NULL, " +
+
+                        " UNIQUE (" + MoviesContract.MovieEntry.COLUMN_MOVIE_ID + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_MOVIE_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LIST_ENTRY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_FAVORITE_MOVIE_TABLE);
+    }
+
+    /*
+     * Videos and reviews are always read by movie. List queries filter on the visible
+     * generation of a list and read it in rank order, the unique constraint of list entries
+     * serves the sweep of old generations. Favorites and movies are looked up by their keys.
+     */
+    private static void createIndexes(SQLiteDatabase sqLiteDatabase) {
+        createIndex(sqLiteDatabase, MoviesContract.VideoEntry.TABLE_NAME,
+                MoviesContract.VideoEntry.COLUMN_MOVIE_TMDB_ID);
+        createIndex(sqLiteDatabase, MoviesContract.ReviewEntry.TABLE_NAME,
+                MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID);
+        createIndex(sqLiteDatabase, MoviesContract.ListEntry.TABLE_NAME,
+                MoviesContract.ListEntry.COLUMN_LIST,
+                MoviesContract.ListEntry.COLUMN_GENERATION,
+                MoviesContract.ListEntry.COLUMN_RANK);
+        createIndex(sqLiteDatabase, MoviesContract.ListEntry.TABLE_NAME,
+                MoviesContract.ListEntry.COLUMN_MOVIE_ID);
+    }
+
+    private static void createIndex(SQLiteDatabase sqLiteDatabase, String tableName,
+                                    String... columns) {
+        StringBuilder indexName = new StringBuilder(tableName).append("_idx");
+        for (String column : columns) {
+            indexName.append('_').append(column.split(" ")[0]);
+        }
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + indexName +
+                " ON " + tableName + " (" + TextUtils.join(", ", columns) + ")");
+    }
+
+    /*
+     * A list table of version 2 keeps rows of several generations of the list during
+     * a refresh, so a movie is unique only within a generation.
+     */
+    private static String buildCreateListTableSql(String tableName) {
+        return "CREATE TABLE " + tableName + "(" +
+
+                SQL_BASE_PART +
+
+                MoviesContract.MovieEntry.COLUMN_GENERATION + " INTEGER NOT NULL DEFAULT 0, " +
+
+                " UNIQUE (" + MoviesContract.MovieEntry.COLUMN_MOVIE_ID + ", " +
+                MoviesContract.MovieEntry.COLUMN_GENERATION + ") ON CONFLICT REPLACE);";
+    }
+
+    /*
+     * Movies without an access row have not been shown since version 6 and are evicted first.
+     * Eviction reads the least recently accessed movies first.
+     */
+    private static void createMovieAccessTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_MOVIE_ACCESS_TABLE =
+
+                "CREATE TABLE " + MoviesContract.MovieAccessEntry.TABLE_NAME + "(" +
+
+                        MoviesContract.MovieAccessEntry.COLUMN_MOVIE_ID + " INTEGER PRIMARY KEY ON CONFLICT REPLACE, " +
+
+                        MoviesContract.MovieAccessEntry.COLUMN_LAST_ACCESS_TIME + " INTEGER NOT NULL);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_MOVIE_ACCESS_TABLE);
+        createIndex(sqLiteDatabase, MoviesContract.MovieAccessEntry.TABLE_NAME,
+                MoviesContract.MovieAccessEntry.COLUMN_LAST_ACCESS_TIME);
+    }
+
+    private static void createListGenerationTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_LIST_GENERATION_TABLE =
+
+                "CREATE TABLE " + MoviesContract.ListGenerationEntry.TABLE_NAME + "(" +
+
+                        MoviesContract.ListGenerationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                        MoviesContract.ListGenerationEntry.COLUMN_LIST_NAME + " TEXT NOT NULL, " +
+
+                        MoviesContract.ListGenerationEntry.COLUMN_VISIBLE_GENERATION + " INTEGER NOT NULL, " +
+
+                        " UNIQUE (" + MoviesContract.ListGenerationEntry.COLUMN_LIST_NAME + "));";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LIST_GENERATION_TABLE);
+
+        for (String listName : new String[] {
+                MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED,
+                MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR }) {
+            ContentValues values = new ContentValues();
+            values.put(MoviesContract.ListGenerationEntry.COLUMN_LIST_NAME, listName);
+            values.put(MoviesContract.ListGenerationEntry.COLUMN_VISIBLE_GENERATION, 0);
+            sqLiteDatabase.insert(MoviesContract.ListGenerationEntry.TABLE_NAME, null, values);
+        }
+    }
+
+    /*
+     * SQLite cannot change a table constraint, so the table is recreated and rows copied.
+     */
+    private static void rebuildListTable(SQLiteDatabase sqLiteDatabase, String tableName) {
+        String oldTableName = tableName + "_old";
+        sqLiteDatabase.execSQL("ALTER TABLE " + tableName + " RENAME TO " + oldTableName);
+        sqLiteDatabase.execSQL(buildCreateListTableSql(tableName));
+        sqLiteDatabase.execSQL("INSERT INTO " + tableName + " (" + SQL_BASE_COLUMNS + ") " +
+                "SELECT " + SQL_BASE_COLUMNS + " FROM " + oldTableName);
+        sqLiteDatabase.execSQL("DROP TABLE " + oldTableName);
     }
 
 }
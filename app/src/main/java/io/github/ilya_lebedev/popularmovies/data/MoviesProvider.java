@@ -16,15 +16,32 @@
 package io.github.ilya_lebedev.popularmovies.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.ilya_lebedev.popularmovies.utilities.CompressionUtils;
 
 /**
  * This class is for bulkInsert movies data, query movies data and delete movies data.
@@ -49,9 +66,72 @@ public class MoviesProvider extends ContentProvider {
     public static final int CODE_MOVIE_REVIEW = 500;
     public static final int CODE_MOVIE_REVIEW_WITH_ID = 501;
     public static final int CODE_MOVIE_REVIEW_WITH_MOVIE_TMDB_ID = 502;
+    public static final int CODE_MOVIE_SEARCH = 600;
+    public static final int CODE_MOVIE_WITH_TMDB_ID = 700;
+
+    /* Columns of a list or favorite row which are stored in the movie table */
+    private static final String[] MOVIE_COLUMNS = {
+            MoviesContract.MovieEntry.COLUMN_MOVIE_ID,
+            MoviesContract.MovieEntry.COLUMN_TITLE,
+            MoviesContract.MovieEntry.COLUMN_OVERVIEW,
+            MoviesContract.MovieEntry.COLUMN_POSTER_PATH,
+            MoviesContract.MovieEntry.COLUMN_RELEASE_DATE,
+            MoviesContract.MovieEntry.COLUMN_POPULARITY,
+            MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE
+    };
+
+    private static final String[] LIST_ENTRY_COLUMNS = {
+            MoviesContract.ListEntry.COLUMN_LIST,
+            MoviesContract.ListEntry.COLUMN_RANK,
+            MoviesContract.ListEntry.COLUMN_MOVIE_ID,
+            MoviesContract.ListEntry.COLUMN_GENERATION
+    };
+
+    /* Selection of a movie by TMDb id in a join with the movie table */
+    @VisibleForTesting
+    static final String MOVIE_ID_SELECTION = MoviesContract.MovieEntry.TABLE_NAME + "." +
+            MoviesContract.MovieEntry.COLUMN_MOVIE_ID + " = ?";
+
+    private static final Map<String, String> sListProjectionMap = buildMovieProjectionMap(
+            MoviesContract.ListEntry.TABLE_NAME, MoviesContract.ListEntry.COLUMN_GENERATION,
+            MoviesContract.ListEntry.COLUMN_RANK);
+
+    private static final Map<String, String> sFavoriteProjectionMap = buildMovieProjectionMap(
+            MoviesContract.MovieEntry.TABLE_NAME_FAVORITE,
+            MoviesContract.MovieEntry.COLUMN_LAST_UPDATE_TIME);
+
+    /*
+     * Offsets of matches come ordered by column, so the first number is the best column
+     * that matched: title, then overview, then reviews. Each match takes four numbers.
+     */
+    private static final String SEARCH_RANK_ORDER =
+            "CAST(offsets(" + MoviesContract.SearchEntry.TABLE_NAME + ") AS INTEGER), " +
+                    "LENGTH(offsets(" + MoviesContract.SearchEntry.TABLE_NAME + ")) - " +
+                    "LENGTH(REPLACE(offsets(" + MoviesContract.SearchEntry.TABLE_NAME + "), ' ', '')) DESC";
+
+    private static final String SEARCH_SNIPPET =
+            "snippet(" + MoviesContract.SearchEntry.TABLE_NAME + ", '<b>', '</b>', '\u2026', -1, 12)";
+
+    private static final Map<String, String> sSearchProjectionMap = buildSearchProjectionMap();
 
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private MoviesDbHelper mOpenHelper;
+    private ChangeNotifier mChangeNotifier;
+    private StorageBudget mStorageBudget;
+
+    /* Movies whose reviews changed in the batch applied on the current thread */
+    private final ThreadLocal<Set<Long>> mBatchSearchUpdates = new ThreadLocal<>();
+
+    /* Uris changed by the batch applied on the current thread, notified once it commits */
+    private final ThreadLocal<Set<Uri>> mBatchNotifications = new ThreadLocal<>();
+
+    /* Number of change notifications requested from each thread */
+    private static final ThreadLocal<long[]> sNotificationCount = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
 
     /**
      * Creates the UriMatcher that match each URI to the CODEs constants defined above.
@@ -89,6 +169,10 @@ public class MoviesProvider extends ContentProvider {
                 MoviesContract.PATH_MOVIE_REVIEWS + "/" + MoviesContract.PATH_MOVIE_TMDB_ID + "/#",
                 CODE_MOVIE_REVIEW_WITH_MOVIE_TMDB_ID);
 
+        matcher.addURI(authority, MoviesContract.PATH_MOVIE_SEARCH, CODE_MOVIE_SEARCH);
+
+        matcher.addURI(authority, MoviesContract.PATH_MOVIE + "/#", CODE_MOVIE_WITH_TMDB_ID);
+
         return matcher;
     }
 
@@ -100,6 +184,8 @@ public class MoviesProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new MoviesDbHelper(getContext());
+        mChangeNotifier = new ChangeNotifier(getContext());
+        mStorageBudget = new StorageBudget(getContext());
         return true;
     }
 
@@ -113,23 +199,18 @@ public class MoviesProvider extends ContentProvider {
      */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-
         String tableName;
 
         switch (sUriMatcher.match(uri)) {
 
             case CODE_TOP_RATED_MOVIE:
-                tableName = MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED;
-                break;
+                return bulkInsertListEntries(uri, MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED, values);
 
             case  CODE_MOST_POPULAR_MOVIE:
-                tableName = MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR;
-                break;
+                return bulkInsertListEntries(uri, MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR, values);
 
             case CODE_FAVORITE_MOVIE:
-                tableName = MoviesContract.MovieEntry.TABLE_NAME_FAVORITE;
-                break;
+                return bulkInsertFavorites(uri, values);
 
             case CODE_MOVIE_VIDEO_WITH_MOVIE_TMDB_ID:
                 tableName = MoviesContract.VideoEntry.TABLE_NAME;
@@ -137,19 +218,142 @@ public class MoviesProvider extends ContentProvider {
 
             case CODE_MOVIE_REVIEW_WITH_MOVIE_TMDB_ID:
                 tableName = MoviesContract.ReviewEntry.TABLE_NAME;
+                values = compressReviews(values);
                 break;
 
             default:
                 return super.bulkInsert(uri, values);
         }
 
+        if (values.length == 0) {
+            return 0;
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        db.beginTransactionNonExclusive();
+        int rowInserted = 0;
+        /* One statement is compiled for the table and reused for every row */
+        BulkInsertStatement statement = BulkInsertStatement.forValues(db, tableName, values);
+        try {
+            /* A failing row throws, so the whole batch is rolled back */
+            for (ContentValues value : values) {
+                statement.insert(value);
+                rowInserted++;
+            }
+            if (MoviesContract.ReviewEntry.TABLE_NAME.equals(tableName)) {
+                updateSearchReviews(db, Long.parseLong(uri.getLastPathSegment()));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            statement.close();
+            db.endTransaction();
+        }
+
+        /* Bulk inserts come from the sync threads, a good place to checkpoint the log */
+        MoviesDbHelper.checkpointIfNeeded(db);
+
+        if (rowInserted > 0) {
+            notifyChange(uri);
+        }
+
+        return rowInserted;
+    }
+
+    /*
+     * Stores movies of a list page and appends them to the end of the list.
+     * List rows go to the generation given in the uri, by default to the visible one.
+     * Rows of a pending generation are invisible until the refresh is committed.
+     */
+    private int bulkInsertListEntries(Uri uri, String listName, ContentValues[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        String generationParameter =
+                uri.getQueryParameter(MoviesContract.MovieEntry.QUERY_PARAMETER_GENERATION);
+
+        ContentValues[] movieValues = getMovieValues(values);
 
-        db.beginTransaction();
+        db.beginTransactionNonExclusive();
+        long visibleGeneration;
+        long generation;
+        int rowInserted = 0;
+        List<Long> movieIds = new ArrayList<>();
+        BulkInsertStatement movieStatement =
+                BulkInsertStatement.forValues(db, MoviesContract.MovieEntry.TABLE_NAME, movieValues);
+        BulkInsertStatement entryStatement =
+                new BulkInsertStatement(db, MoviesContract.ListEntry.TABLE_NAME, LIST_ENTRY_COLUMNS);
+        try {
+            /* Read in the transaction, so a commit of a refresh can not slip in between */
+            visibleGeneration = getVisibleGeneration(db, listName);
+            generation = generationParameter == null
+                    ? visibleGeneration : Long.parseLong(generationParameter);
+
+            long rank = DatabaseUtils.longForQuery(db,
+                    "SELECT IFNULL(MAX(" + MoviesContract.ListEntry.COLUMN_RANK + ") + 1, 0)" +
+                            " FROM " + MoviesContract.ListEntry.TABLE_NAME +
+                            " WHERE " + MoviesContract.ListEntry.COLUMN_LIST + " = ?" +
+                            " AND " + MoviesContract.ListEntry.COLUMN_GENERATION + " = ?",
+                    new String[] { listName, Long.toString(generation) });
+
+            for (int i = 0; i < movieValues.length; i++) {
+                ContentValues movie = movieValues[i];
+                movieStatement.insert(movie);
+                long movieId = movie.getAsLong(MoviesContract.MovieEntry.COLUMN_MOVIE_ID);
+                movieIds.add(movieId);
+
+                ContentValues entry = new ContentValues();
+                entry.put(MoviesContract.ListEntry.COLUMN_LIST, listName);
+                /* Rank given by the server, otherwise the movie goes to the end of the list */
+                Long serverRank = values[i].getAsLong(MoviesContract.ListEntry.COLUMN_RANK);
+                entry.put(MoviesContract.ListEntry.COLUMN_RANK,
+                        serverRank != null ? serverRank : rank++);
+                entry.put(MoviesContract.ListEntry.COLUMN_MOVIE_ID, movieId);
+                entry.put(MoviesContract.ListEntry.COLUMN_GENERATION, generation);
+                entryStatement.insert(entry);
+                rowInserted++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            movieStatement.close();
+            entryStatement.close();
+            db.endTransaction();
+        }
+
+        /* Bulk inserts come from the sync threads, a good place to checkpoint the log */
+        MoviesDbHelper.checkpointIfNeeded(db);
+
+        /*
+         * Movies of a pending generation are notified once when the refresh is committed,
+         * so a refresh of many pages makes observers requery once.
+         */
+        if (generation == visibleGeneration) {
+            for (long movieId : movieIds) {
+                notifyChange(ContentUris.withAppendedId(
+                        MoviesContract.MovieEntry.CONTENT_URI_MOVIE, movieId));
+            }
+
+            if (rowInserted > 0) {
+                /* Observers are registered on uris without query parameters */
+                Uri notificationUri = uri.buildUpon().clearQuery().build();
+                notifyChange(notificationUri);
+            }
+        }
+
+        return rowInserted;
+    }
+
+    private int bulkInsertFavorites(Uri uri, ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        db.beginTransactionNonExclusive();
         int rowInserted = 0;
         try {
             for (ContentValues value : values) {
-                long _id = db.insert(tableName, null, value);
-                if (_id != -1) {
+                if (insertFavorite(db, value) != -1) {
                     rowInserted++;
                 }
             }
@@ -159,12 +363,363 @@ public class MoviesProvider extends ContentProvider {
         }
 
         if (rowInserted > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return rowInserted;
     }
 
+    /*
+     * Stores the movie and references it from the favorite table.
+     * Must be called inside a transaction.
+     */
+    private static long insertFavorite(SQLiteDatabase db, ContentValues values) {
+        ContentValues movie = getMovieValues(values);
+        if (db.insert(MoviesContract.MovieEntry.TABLE_NAME, null, movie) == -1) {
+            return -1;
+        }
+
+        ContentValues favorite = new ContentValues();
+        favorite.put(MoviesContract.MovieEntry.COLUMN_MOVIE_ID,
+                movie.getAsLong(MoviesContract.MovieEntry.COLUMN_MOVIE_ID));
+        favorite.put(MoviesContract.MovieEntry.COLUMN_LAST_UPDATE_TIME,
+                values.getAsLong(MoviesContract.MovieEntry.COLUMN_LAST_UPDATE_TIME));
+        return db.insert(MoviesContract.MovieEntry.TABLE_NAME_FAVORITE, null, favorite);
+    }
+
+    private static ContentValues[] getMovieValues(ContentValues[] values) {
+        ContentValues[] movieValues = new ContentValues[values.length];
+        for (int i = 0; i < values.length; i++) {
+            movieValues[i] = getMovieValues(values[i]);
+        }
+        return movieValues;
+    }
+
+    private static ContentValues[] compressReviews(ContentValues[] values) {
+        ContentValues[] reviews = new ContentValues[values.length];
+        for (int i = 0; i < values.length; i++) {
+            reviews[i] = MoviesDbHelper.compressReview(values[i]);
+        }
+        return reviews;
+    }
+
+    /* Picks the columns stored in the movie table out of a list or favorite row */
+    private static ContentValues getMovieValues(ContentValues values) {
+        ContentValues movie = new ContentValues(values);
+        for (String column : values.keySet()) {
+            if (!Arrays.asList(MOVIE_COLUMNS).contains(column)) {
+                movie.remove(column);
+            }
+        }
+        return movie;
+    }
+
+    /**
+     * Handles provider specific calls. Used to refresh a movies list atomically:
+     * {@link MoviesContract#METHOD_BEGIN_LIST_REFRESH} returns a pending generation which
+     * new rows are bulk inserted under, {@link MoviesContract#METHOD_COMMIT_LIST_REFRESH}
+     * makes that generation visible and sweeps rows of older ones in one transaction.
+     * {@link MoviesContract#METHOD_TRIM_STORAGE} evicts one batch of cached movies
+     * if the database is over its storage budget.
+     *
+     * @param method The method name
+     * @param arg    Content uri of the list, not used by trim
+     * @param extras For commit, the generation to make visible
+     *
+     * @return For begin, the pending generation, for trim, whether to call it again
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (MoviesContract.METHOD_TRIM_STORAGE.equals(method)) {
+            return trimStorage();
+        }
+
+        if (arg == null) {
+            throw new IllegalArgumentException("List uri is required for " + method);
+        }
+
+        Uri listUri = Uri.parse(arg);
+        String listName = getListName(listUri);
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        switch (method) {
+
+            case MoviesContract.METHOD_BEGIN_LIST_REFRESH: {
+                long pendingGeneration;
+                db.beginTransactionNonExclusive();
+                try {
+                    long visibleGeneration = getVisibleGeneration(db, listName);
+                    pendingGeneration = visibleGeneration + 1;
+                    /* Sweep rows left by a refresh which was never committed */
+                    db.delete(MoviesContract.ListEntry.TABLE_NAME,
+                            MoviesContract.ListEntry.COLUMN_LIST + " = ? AND " +
+                                    MoviesContract.ListEntry.COLUMN_GENERATION + " > ?",
+                            new String[] { listName, Long.toString(visibleGeneration) });
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                Bundle result = new Bundle();
+                result.putLong(MoviesContract.EXTRA_GENERATION, pendingGeneration);
+                return result;
+            }
+
+            case MoviesContract.METHOD_COMMIT_LIST_REFRESH: {
+                if (extras == null || !extras.containsKey(MoviesContract.EXTRA_GENERATION)) {
+                    throw new IllegalArgumentException("Generation is required for " + method);
+                }
+                long generation = extras.getLong(MoviesContract.EXTRA_GENERATION);
+
+                db.beginTransactionNonExclusive();
+                try {
+                    ContentValues values = new ContentValues();
+                    values.put(MoviesContract.ListGenerationEntry.COLUMN_VISIBLE_GENERATION,
+                            generation);
+                    db.update(MoviesContract.ListGenerationEntry.TABLE_NAME,
+                            values,
+                            MoviesContract.ListGenerationEntry.COLUMN_LIST_NAME + " = ?",
+                            new String[] { listName });
+                    db.delete(MoviesContract.ListEntry.TABLE_NAME,
+                            MoviesContract.ListEntry.COLUMN_LIST + " = ? AND " +
+                                    MoviesContract.ListEntry.COLUMN_GENERATION + " != ?",
+                            new String[] { listName, Long.toString(generation) });
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                MoviesDbHelper.checkpointIfNeeded(db);
+                /* Movies written by the refresh were not notified one by one */
+                notifyChange(MoviesContract.MovieEntry.CONTENT_URI_MOVIE);
+                notifyChange(listUri);
+                return null;
+            }
+
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /*
+     * Movies which dropped out of every list and are not favorites stay cached
+     * until the storage budget evicts them, least recently shown first.
+     */
+    private Bundle trimStorage() {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long[] movieIds = mStorageBudget.trim(db);
+
+        MoviesDbHelper.checkpointIfNeeded(db);
+
+        for (long movieId : movieIds) {
+            notifyChange(ContentUris.withAppendedId(
+                    MoviesContract.MovieEntry.CONTENT_URI_MOVIE, movieId));
+            notifyChange(MoviesContract.VideoEntry.buildMovieVideosUriWithMovieTmdbId((int) movieId));
+            notifyChange(MoviesContract.ReviewEntry.buildMovieReviewsUriWithMovieTmdbId((int) movieId));
+        }
+
+        Bundle result = new Bundle();
+        result.putBoolean(MoviesContract.EXTRA_TRIM_PENDING, movieIds.length > 0);
+        return result;
+    }
+
+    private static String getListName(Uri listUri) {
+        switch (sUriMatcher.match(listUri)) {
+            case CODE_TOP_RATED_MOVIE:
+                return MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED;
+            case CODE_MOST_POPULAR_MOVIE:
+                return MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR;
+            default:
+                throw new IllegalArgumentException("Not a movies list uri: " + listUri);
+        }
+    }
+
+    private static long getVisibleGeneration(SQLiteDatabase db, String listName) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT " + MoviesContract.ListGenerationEntry.COLUMN_VISIBLE_GENERATION +
+                        " FROM " + MoviesContract.ListGenerationEntry.TABLE_NAME +
+                        " WHERE " + MoviesContract.ListGenerationEntry.COLUMN_LIST_NAME + " = ?",
+                new String[] { listName });
+    }
+
+    /*
+     * Builds a query over the movies of a list. It is restricted to entries of the visible
+     * generation, so readers only ever see a complete snapshot of the list.
+     */
+    private static SQLiteQueryBuilder buildListQuery(String listName) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(MoviesContract.ListEntry.TABLE_NAME + " INNER JOIN " +
+                MoviesContract.MovieEntry.TABLE_NAME + " ON " +
+                MoviesContract.ListEntry.TABLE_NAME + "." + MoviesContract.ListEntry.COLUMN_MOVIE_ID +
+                " = " +
+                MoviesContract.MovieEntry.TABLE_NAME + "." + MoviesContract.MovieEntry.COLUMN_MOVIE_ID);
+        builder.setProjectionMap(sListProjectionMap);
+        builder.appendWhere(MoviesContract.ListEntry.TABLE_NAME + "." +
+                MoviesContract.ListEntry.COLUMN_LIST + " = ");
+        builder.appendWhereEscapeString(listName);
+        builder.appendWhere(" AND " + MoviesContract.ListEntry.TABLE_NAME + "." +
+                MoviesContract.ListEntry.COLUMN_GENERATION + " = (" +
+                "SELECT " + MoviesContract.ListGenerationEntry.COLUMN_VISIBLE_GENERATION +
+                " FROM " + MoviesContract.ListGenerationEntry.TABLE_NAME +
+                " WHERE " + MoviesContract.ListGenerationEntry.COLUMN_LIST_NAME + " = ");
+        builder.appendWhereEscapeString(listName);
+        builder.appendWhere(")");
+        return builder;
+    }
+
+    private Cursor queryList(String listName, Uri uri, String[] projection, String selection,
+                             String[] selectionArgs, String sortOrder) {
+        String sql = buildListQuerySql(listName, uri, projection, selection, sortOrder);
+        return mOpenHelper.getReadableDatabase().rawQuery(sql, selectionArgs);
+    }
+
+    /**
+     * Builds the query of a list, or of a window of it if the uri has a sort column. A window
+     * starts right after a given row of the sort order, so its cost does not grow with its
+     * position. In rank order rows are read straight from the list index, without a sort step.
+     *
+     * @param listName   Name of the list
+     * @param uri        Content uri of the list, with window parameters if any
+     * @param projection Columns to return
+     * @param selection  Additional filter, may contain ? parameters
+     * @param sortOrder  Sort order, replaced by the one of the window if the uri has one
+     * @return The SQL of the query
+     */
+    @VisibleForTesting
+    static String buildListQuerySql(String listName, Uri uri, String[] projection,
+                                    String selection, String sortOrder) {
+        SQLiteQueryBuilder builder = buildListQuery(listName);
+        String limit = null;
+
+        String sortColumn = uri.getQueryParameter(MoviesContract.MovieEntry.QUERY_PARAMETER_SORT);
+        if (MoviesContract.ListEntry.COLUMN_RANK.equals(sortColumn)) {
+            String rankKey = MoviesContract.ListEntry.TABLE_NAME + "." +
+                    MoviesContract.ListEntry.COLUMN_RANK;
+            sortOrder = rankKey + " ASC";
+
+            /* Ranks are unique within a list, so the rank alone is the keyset */
+            String afterValue =
+                    uri.getQueryParameter(MoviesContract.MovieEntry.QUERY_PARAMETER_AFTER_VALUE);
+            if (afterValue != null) {
+                long rank = Long.parseLong(afterValue);
+                builder.appendWhere(" AND " + rankKey + " > " + rank);
+            }
+
+            limit = getLimit(uri);
+        } else if (sortColumn != null) {
+            if (!MoviesContract.MovieEntry.COLUMN_POPULARITY.equals(sortColumn)
+                    && !MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE.equals(sortColumn)) {
+                throw new IllegalArgumentException("Unsupported sort column: " + sortColumn);
+            }
+            String sortKey = MoviesContract.MovieEntry.TABLE_NAME + "." + sortColumn;
+            String idKey = MoviesContract.MovieEntry.TABLE_NAME + "." +
+                    MoviesContract.MovieEntry.COLUMN_MOVIE_ID;
+            sortOrder = sortKey + " DESC, " + idKey + " ASC";
+
+            String afterValue =
+                    uri.getQueryParameter(MoviesContract.MovieEntry.QUERY_PARAMETER_AFTER_VALUE);
+            String afterId =
+                    uri.getQueryParameter(MoviesContract.MovieEntry.QUERY_PARAMETER_AFTER_ID);
+            if (afterValue != null && afterId != null) {
+                /* Parsed, so only numbers end up in the query */
+                double value = Double.parseDouble(afterValue);
+                long id = Long.parseLong(afterId);
+                builder.appendWhere(" AND (" + sortKey + " < " + value +
+                        " OR (" + sortKey + " = " + value + " AND " + idKey + " > " + id + "))");
+            }
+
+            limit = getLimit(uri);
+        }
+
+        return builder.buildQuery(projection, selection, null, null, sortOrder, limit);
+    }
+
+    /* Parsed, so only a number ends up in the query */
+    private static String getLimit(Uri uri) {
+        String limitParameter = uri.getQueryParameter(MoviesContract.MovieEntry.QUERY_PARAMETER_LIMIT);
+        return limitParameter == null ? null : Integer.toString(Integer.parseInt(limitParameter));
+    }
+
+    @VisibleForTesting
+    static SQLiteQueryBuilder buildFavoriteQuery() {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(MoviesContract.MovieEntry.TABLE_NAME_FAVORITE + " INNER JOIN " +
+                MoviesContract.MovieEntry.TABLE_NAME + " ON " +
+                MoviesContract.MovieEntry.TABLE_NAME_FAVORITE + "." +
+                MoviesContract.MovieEntry.COLUMN_MOVIE_ID + " = " +
+                MoviesContract.MovieEntry.TABLE_NAME + "." + MoviesContract.MovieEntry.COLUMN_MOVIE_ID);
+        builder.setProjectionMap(sFavoriteProjectionMap);
+        return builder;
+    }
+
+    /*
+     * Builds a full-text query over cached movies. Every word of the text matches
+     * as a prefix, so results show up while the user is still typing.
+     */
+    private static SQLiteQueryBuilder buildSearchQuery(String text) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(MoviesContract.SearchEntry.TABLE_NAME + " INNER JOIN " +
+                MoviesContract.MovieEntry.TABLE_NAME + " ON " +
+                MoviesContract.SearchEntry.TABLE_NAME + ".docid = " +
+                MoviesContract.MovieEntry.TABLE_NAME + "." + MoviesContract.MovieEntry.COLUMN_MOVIE_ID);
+        builder.setProjectionMap(sSearchProjectionMap);
+
+        StringBuilder matchExpression = new StringBuilder();
+        if (text != null) {
+            /* Words only, so user input never breaks the full-text query syntax */
+            for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) {
+                    matchExpression.append(word).append("* ");
+                }
+            }
+        }
+
+        if (matchExpression.length() == 0) {
+            builder.appendWhere("0");
+        } else {
+            builder.appendWhere(MoviesContract.SearchEntry.TABLE_NAME + " MATCH ");
+            builder.appendWhereEscapeString(matchExpression.toString().trim());
+        }
+        return builder;
+    }
+
+    private static Map<String, String> buildSearchProjectionMap() {
+        Map<String, String> projectionMap = new HashMap<>();
+        projectionMap.put(MoviesContract.MovieEntry._ID,
+                MoviesContract.MovieEntry.TABLE_NAME + "." + MoviesContract.MovieEntry.COLUMN_MOVIE_ID +
+                        " AS " + MoviesContract.MovieEntry._ID);
+        for (String column : MOVIE_COLUMNS) {
+            projectionMap.put(column,
+                    MoviesContract.MovieEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        projectionMap.put(MoviesContract.SearchEntry.COLUMN_SNIPPET,
+                SEARCH_SNIPPET + " AS " + MoviesContract.SearchEntry.COLUMN_SNIPPET);
+        return projectionMap;
+    }
+
+    /*
+     * Maps the columns of the former movie tables onto a join of the movie table with
+     * the table holding list or favorite rows, so existing projections keep working.
+     */
+    private static Map<String, String> buildMovieProjectionMap(String rowTableName,
+                                                               String... rowColumns) {
+        Map<String, String> projectionMap = new HashMap<>();
+        projectionMap.put(MoviesContract.MovieEntry._ID,
+                rowTableName + "." + MoviesContract.MovieEntry._ID +
+                        " AS " + MoviesContract.MovieEntry._ID);
+        for (String column : MOVIE_COLUMNS) {
+            projectionMap.put(column,
+                    MoviesContract.MovieEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        for (String column : rowColumns) {
+            projectionMap.put(column, rowTableName + "." + column + " AS " + column);
+        }
+        projectionMap.put(MoviesContract.MovieEntry._COUNT,
+                "COUNT(*) AS " + MoviesContract.MovieEntry._COUNT);
+        return projectionMap;
+    }
+
     /**
      * Handles query requests.
      *
@@ -189,8 +744,17 @@ public class MoviesProvider extends ContentProvider {
         switch (sUriMatcher.match(uri)) {
 
             case CODE_TOP_RATED_MOVIE: {
-                cursor = mOpenHelper.getReadableDatabase().query(
-                        MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED,
+                cursor = queryList(MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED, uri,
+                        projection, selection, selectionArgs, sortOrder);
+                break;
+            }
+
+            case CODE_TOP_RATED_MOVIE_WITH_TMDB_ID: {
+                String id = uri.getLastPathSegment();
+                selection = MOVIE_ID_SELECTION;
+                selectionArgs = new String[] {id};
+                cursor = buildListQuery(MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED).query(
+                        mOpenHelper.getReadableDatabase(),
                         projection,
                         selection,
                         selectionArgs,
@@ -201,12 +765,18 @@ public class MoviesProvider extends ContentProvider {
                 break;
             }
 
-            case CODE_TOP_RATED_MOVIE_WITH_TMDB_ID: {
+            case CODE_MOST_POPULAR_MOVIE: {
+                cursor = queryList(MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR, uri,
+                        projection, selection, selectionArgs, sortOrder);
+                break;
+            }
+
+            case CODE_MOST_POPULAR_MOVIE_WITH_TMDB_ID: {
                 String id = uri.getLastPathSegment();
-                selection = MoviesContract.MovieEntry.COLUMN_MOVIE_ID + " = ?";
+                selection = MOVIE_ID_SELECTION;
                 selectionArgs = new String[] {id};
-                cursor = mOpenHelper.getReadableDatabase().query(
-                        MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED,
+                cursor = buildListQuery(MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR).query(
+                        mOpenHelper.getReadableDatabase(),
                         projection,
                         selection,
                         selectionArgs,
@@ -217,9 +787,9 @@ public class MoviesProvider extends ContentProvider {
                 break;
             }
 
-            case CODE_MOST_POPULAR_MOVIE: {
-                cursor = mOpenHelper.getReadableDatabase().query(
-                        MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR,
+            case CODE_FAVORITE_MOVIE: {
+                cursor = buildFavoriteQuery().query(
+                        mOpenHelper.getReadableDatabase(),
                         projection,
                         selection,
                         selectionArgs,
@@ -230,12 +800,12 @@ public class MoviesProvider extends ContentProvider {
                 break;
             }
 
-            case CODE_MOST_POPULAR_MOVIE_WITH_TMDB_ID: {
+            case CODE_FAVORITE_MOVIE_WITH_TMDB_ID: {
                 String id = uri.getLastPathSegment();
-                selection = MoviesContract.MovieEntry.COLUMN_MOVIE_ID + " = ?";
+                selection = MOVIE_ID_SELECTION;
                 selectionArgs = new String[] {id};
-                cursor = mOpenHelper.getReadableDatabase().query(
-                        MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR,
+                cursor = buildFavoriteQuery().query(
+                        mOpenHelper.getReadableDatabase(),
                         projection,
                         selection,
                         selectionArgs,
@@ -246,9 +816,14 @@ public class MoviesProvider extends ContentProvider {
                 break;
             }
 
-            case CODE_FAVORITE_MOVIE: {
+            case CODE_MOVIE_WITH_TMDB_ID: {
+                String id = uri.getLastPathSegment();
+                /* Movie uris are read by the detail screen, which counts as an access */
+                mStorageBudget.recordAccess(Long.parseLong(id));
+                selection = MoviesContract.MovieEntry.COLUMN_MOVIE_ID + " = ?";
+                selectionArgs = new String[] {id};
                 cursor = mOpenHelper.getReadableDatabase().query(
-                        MoviesContract.MovieEntry.TABLE_NAME_FAVORITE,
+                        MoviesContract.MovieEntry.TABLE_NAME,
                         projection,
                         selection,
                         selectionArgs,
@@ -259,18 +834,16 @@ public class MoviesProvider extends ContentProvider {
                 break;
             }
 
-            case CODE_FAVORITE_MOVIE_WITH_TMDB_ID: {
-                String id = uri.getLastPathSegment();
-                selection = MoviesContract.MovieEntry.COLUMN_MOVIE_ID + " = ?";
-                selectionArgs = new String[] {id};
-                cursor = mOpenHelper.getReadableDatabase().query(
-                        MoviesContract.MovieEntry.TABLE_NAME_FAVORITE,
+            case CODE_MOVIE_SEARCH: {
+                String text = uri.getQueryParameter(MoviesContract.SearchEntry.QUERY_PARAMETER_QUERY);
+                cursor = buildSearchQuery(text).query(
+                        mOpenHelper.getReadableDatabase(),
                         projection,
                         selection,
                         selectionArgs,
                         null,
                         null,
-                        sortOrder
+                        sortOrder == null ? SEARCH_RANK_ORDER : sortOrder
                 );
                 break;
             }
@@ -327,7 +900,7 @@ public class MoviesProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), getNotificationUri(uri));
         return cursor;
     }
 
@@ -355,15 +928,15 @@ public class MoviesProvider extends ContentProvider {
 
             case CODE_TOP_RATED_MOVIE:
                 rowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED,
-                        selection,
+                        MoviesContract.ListEntry.TABLE_NAME,
+                        withListName(MoviesContract.MovieEntry.TABLE_NAME_TOP_RATED, selection),
                         selectionArgs);
                 break;
 
             case CODE_MOST_POPULAR_MOVIE:
                 rowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR,
-                        selection,
+                        MoviesContract.ListEntry.TABLE_NAME,
+                        withListName(MoviesContract.MovieEntry.TABLE_NAME_MOST_POPULAR, selection),
                         selectionArgs);
                 break;
 
@@ -404,10 +977,7 @@ public class MoviesProvider extends ContentProvider {
             }
 
             case CODE_MOVIE_REVIEW: {
-                rowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        MoviesContract.ReviewEntry.TABLE_NAME,
-                        selection,
-                        selectionArgs);
+                rowsDeleted = deleteReviews(selection, selectionArgs);
                 break;
             }
 
@@ -415,10 +985,7 @@ public class MoviesProvider extends ContentProvider {
                 String movieId = uri.getLastPathSegment();
                 selection = MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID + " = ?";
                 selectionArgs = new String[] { movieId };
-                rowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        MoviesContract.ReviewEntry.TABLE_NAME,
-                        selection,
-                        selectionArgs);
+                rowsDeleted = deleteReviews(selection, selectionArgs);
                 break;
             }
 
@@ -427,12 +994,64 @@ public class MoviesProvider extends ContentProvider {
         }
 
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return rowsDeleted;
     }
 
+    /*
+     * A list row carries only data of its movie, so it is observed on the movie uri.
+     * Otherwise it would be requeried on every page appended to the list.
+     */
+    private static Uri getNotificationUri(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case CODE_TOP_RATED_MOVIE_WITH_TMDB_ID:
+            case CODE_MOST_POPULAR_MOVIE_WITH_TMDB_ID:
+                return Uri.withAppendedPath(MoviesContract.MovieEntry.CONTENT_URI_MOVIE,
+                        uri.getLastPathSegment());
+            default:
+                return uri.buildUpon().clearQuery().build();
+        }
+    }
+
+    /* Deletes reviews and removes their text from the search documents of their movies */
+    private int deleteReviews(String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        int rowsDeleted;
+        db.beginTransactionNonExclusive();
+        try {
+            List<Long> movieIds = new ArrayList<>();
+            Cursor cursor = db.query(true, MoviesContract.ReviewEntry.TABLE_NAME,
+                    new String[] { MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID },
+                    selection, selectionArgs, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    movieIds.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            rowsDeleted = db.delete(MoviesContract.ReviewEntry.TABLE_NAME, selection, selectionArgs);
+            for (long movieId : movieIds) {
+                updateSearchReviews(db, movieId);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return rowsDeleted;
+    }
+
+    /* Restricts a delete of list entries to one list */
+    private static String withListName(String listName, String selection) {
+        return DatabaseUtils.concatenateWhere(selection,
+                MoviesContract.ListEntry.COLUMN_LIST + " = " + DatabaseUtils.sqlEscapeString(listName));
+    }
+
     @Nullable
     @Override
     public String getType(@NonNull Uri uri) {
@@ -448,14 +1067,60 @@ public class MoviesProvider extends ContentProvider {
         switch (sUriMatcher.match(uri)) {
 
             case CODE_FAVORITE_MOVIE_WITH_TMDB_ID: {
+                long resultId;
+                db.beginTransactionNonExclusive();
+                try {
+                    resultId = insertFavorite(db, values);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (resultId > 0) {
+                    resultUri = ContentUris.withAppendedId(
+                            MoviesContract.MovieEntry.CONTENT_URI_FAVORITE,
+                            resultId);
+                } else {
+                    throw new SQLException("Failed to insert row into: " + uri);
+                }
+
+                break;
+            }
+
+            case CODE_MOVIE_VIDEO_WITH_MOVIE_TMDB_ID: {
                 long resultId = db.insert(
-                        MoviesContract.MovieEntry.TABLE_NAME_FAVORITE,
+                        MoviesContract.VideoEntry.TABLE_NAME,
                         null,
                         values);
 
                 if (resultId > 0) {
                     resultUri = ContentUris.withAppendedId(
-                            MoviesContract.MovieEntry.CONTENT_URI_FAVORITE,
+                            MoviesContract.VideoEntry.CONTENT_URI_VIDEOS,
+                            resultId);
+                } else {
+                    throw new SQLException("Failed to insert row into: " + uri);
+                }
+
+                break;
+            }
+
+            case CODE_MOVIE_REVIEW_WITH_MOVIE_TMDB_ID: {
+                long resultId;
+                db.beginTransactionNonExclusive();
+                try {
+                    resultId = db.insert(
+                            MoviesContract.ReviewEntry.TABLE_NAME,
+                            null,
+                            MoviesDbHelper.compressReview(values));
+                    updateSearchReviews(db, Long.parseLong(uri.getLastPathSegment()));
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (resultId > 0) {
+                    resultUri = ContentUris.withAppendedId(
+                            MoviesContract.ReviewEntry.CONTENT_URI_REVIEWS,
                             resultId);
                 } else {
                     throw new SQLException("Failed to insert row into: " + uri);
@@ -468,11 +1133,131 @@ public class MoviesProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         return resultUri;
     }
 
+    /**
+     * Applies a batch of operations inside a single database transaction,
+     * so either all of them are applied or none. Change notifications of the operations
+     * are collected and sent once the batch is committed.
+     *
+     * @param operations The operations to apply
+     *
+     * @return The results of the applications
+     *
+     * @throws OperationApplicationException If any operation fails
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        ContentProviderResult[] results;
+        Set<Uri> notifications = new LinkedHashSet<>();
+        Set<Long> searchUpdates = new LinkedHashSet<>();
+        mBatchNotifications.set(notifications);
+        mBatchSearchUpdates.set(searchUpdates);
+        db.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            for (long movieId : searchUpdates) {
+                writeSearchReviews(db, movieId);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchNotifications.remove();
+            mBatchSearchUpdates.remove();
+        }
+
+        MoviesDbHelper.checkpointIfNeeded(db);
+
+        /* Observers requery once per changed uri, not once per operation */
+        for (Uri uri : notifications) {
+            notifyChange(uri);
+        }
+
+        return results;
+    }
+
+    /*
+     * Rewrites the text of the reviews in the search document of a movie, or defers it
+     * to the end of the batch being applied on this thread, so it is done once per movie.
+     */
+    private void updateSearchReviews(SQLiteDatabase db, long movieId) {
+        Set<Long> batchSearchUpdates = mBatchSearchUpdates.get();
+        if (batchSearchUpdates != null) {
+            batchSearchUpdates.add(movieId);
+            return;
+        }
+
+        writeSearchReviews(db, movieId);
+    }
+
+    /* Reviews are stored deflated, so their text is put together here instead of in a trigger */
+    private static void writeSearchReviews(SQLiteDatabase db, long movieId) {
+        String[] selectionArgs = new String[] { Long.toString(movieId) };
+
+        StringBuilder reviews = new StringBuilder();
+        Cursor cursor = db.query(MoviesContract.ReviewEntry.TABLE_NAME,
+                new String[] { MoviesContract.ReviewEntry.COLUMN_CONTENT },
+                MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID + " = ?", selectionArgs,
+                null, null, MoviesContract.ReviewEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                String content = CompressionUtils.inflate(cursor.getBlob(0));
+                if (content == null) {
+                    continue;
+                }
+                if (reviews.length() > 0) {
+                    reviews.append(' ');
+                }
+                reviews.append(content);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues values = new ContentValues();
+        if (reviews.length() > 0) {
+            values.put(MoviesContract.SearchEntry.COLUMN_REVIEWS, reviews.toString());
+        } else {
+            values.putNull(MoviesContract.SearchEntry.COLUMN_REVIEWS);
+        }
+        db.update(MoviesContract.SearchEntry.TABLE_NAME, values, "docid = ?", selectionArgs);
+    }
+
+    /*
+     * Notifies observers of a changed uri, or defers the notification to the end
+     * of the batch being applied on this thread. Notifications are coalesced with
+     * other changes arriving shortly before they are sent.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchNotifications = mBatchNotifications.get();
+        if (batchNotifications != null) {
+            batchNotifications.add(uri);
+            return;
+        }
+
+        sNotificationCount.get()[0]++;
+        mChangeNotifier.notifyChange(uri);
+    }
+
+    /**
+     * Returns the number of change notifications requested so far from the calling thread.
+     * Sync tasks write from their own thread, so the difference before and after a task
+     * tells how many changes it reported. Bursts of them are coalesced before they are sent.
+     *
+     * @return The number of change notifications
+     */
+    public static long getNotificationCount() {
+        return sNotificationCount.get()[0];
+    }
+
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
         return 0;
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.ilya_lebedev.popularmovies.R;
+
+/**
+ * Keeps cached movie data within a storage budget. Accesses to movies are recorded in memory
+ * and written with the next trim, so queries never wait for a write. A trim evicts videos,
+ * reviews and the movie row of the least recently accessed movies which are neither in
+ * a list nor favorites, one small batch per call, while the database is over its budget.
+ */
+class StorageBudget {
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /* Movies that may be evicted, by last access */
+    private static final String SQL_SELECT_EVICTABLE_MOVIES =
+            "SELECT candidate.id FROM (" +
+                    "SELECT " + MoviesContract.VideoEntry.COLUMN_MOVIE_TMDB_ID + " AS id" +
+                    " FROM " + MoviesContract.VideoEntry.TABLE_NAME +
+                    " UNION SELECT " + MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID +
+                    " FROM " + MoviesContract.ReviewEntry.TABLE_NAME +
+                    " UNION SELECT " + MoviesContract.MovieEntry.COLUMN_MOVIE_ID +
+                    " FROM " + MoviesContract.MovieEntry.TABLE_NAME + ") AS candidate" +
+                    " LEFT JOIN " + MoviesContract.MovieAccessEntry.TABLE_NAME +
+                    " ON " + MoviesContract.MovieAccessEntry.TABLE_NAME + "." +
+                    MoviesContract.MovieAccessEntry.COLUMN_MOVIE_ID + " = candidate.id" +
+                    " WHERE candidate.id NOT IN (SELECT " + MoviesContract.ListEntry.COLUMN_MOVIE_ID +
+                    " FROM " + MoviesContract.ListEntry.TABLE_NAME + ")" +
+                    " AND candidate.id NOT IN (SELECT " + MoviesContract.MovieEntry.COLUMN_MOVIE_ID +
+                    " FROM " + MoviesContract.MovieEntry.TABLE_NAME_FAVORITE + ")" +
+                    " ORDER BY IFNULL(" + MoviesContract.MovieAccessEntry.COLUMN_LAST_ACCESS_TIME +
+                    ", 0) LIMIT ?";
+
+    private static final String SQL_COUNT_DETAIL_ROWS =
+            "SELECT (SELECT COUNT(*) FROM " + MoviesContract.VideoEntry.TABLE_NAME + ")" +
+                    " + (SELECT COUNT(*) FROM " + MoviesContract.ReviewEntry.TABLE_NAME + ")";
+
+    private final long mMaxBytes;
+    private final long mMaxDetailRows;
+    private final int mBatchSize;
+    private final int mFreePagesPercent;
+    private final int mMaxVacuumPages;
+
+    /* Last access time by movie id, not written yet */
+    private final Map<Long, Long> mPendingAccesses = new ConcurrentHashMap<>();
+
+    /**
+     * Creates StorageBudget.
+     *
+     * @param context Used to access app resources
+     */
+    StorageBudget(Context context) {
+        mMaxBytes = context.getResources().getInteger(R.integer.storage_budget_max_kb) * 1024L;
+        mMaxDetailRows = context.getResources().getInteger(R.integer.storage_budget_max_detail_rows);
+        mBatchSize = context.getResources().getInteger(R.integer.storage_trim_batch_size);
+        mFreePagesPercent = context.getResources().getInteger(R.integer.storage_vacuum_free_percent);
+        mMaxVacuumPages = context.getResources().getInteger(R.integer.storage_vacuum_max_pages);
+    }
+
+    /**
+     * Records that the movie has just been shown.
+     *
+     * @param movieId TMDb id of the movie
+     */
+    void recordAccess(long movieId) {
+        mPendingAccesses.put(movieId, System.currentTimeMillis());
+    }
+
+    /**
+     * Writes recorded accesses and evicts one batch of movies if the database is over budget.
+     * Once it is within budget, free pages are returned to the file system.
+     * Must not be called on the main thread or inside a transaction.
+     *
+     * @param db Writable database
+     * @return TMDb ids of the evicted movies, empty when nothing more is to be evicted
+     */
+    long[] trim(SQLiteDatabase db) {
+        long[] movieIds = new long[0];
+
+        db.beginTransactionNonExclusive();
+        try {
+            writeAccesses(db);
+            if (isOverBudget(db)) {
+                movieIds = findEvictableMovies(db);
+                evict(db, movieIds);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (movieIds.length == 0) {
+            reclaimFreePages(db);
+        }
+
+        return movieIds;
+    }
+
+    private void writeAccesses(SQLiteDatabase db) {
+        if (mPendingAccesses.isEmpty()) {
+            return;
+        }
+
+        List<Map.Entry<Long, Long>> accesses = new ArrayList<>(mPendingAccesses.entrySet());
+        BulkInsertStatement statement = new BulkInsertStatement(db,
+                MoviesContract.MovieAccessEntry.TABLE_NAME,
+                new String[] {
+                        MoviesContract.MovieAccessEntry.COLUMN_MOVIE_ID,
+                        MoviesContract.MovieAccessEntry.COLUMN_LAST_ACCESS_TIME });
+        try {
+            statement.insertAll(accesses,
+                    new BulkInsertStatement.RowBinder<Map.Entry<Long, Long>>() {
+                        @Override
+                        public void bind(SQLiteStatement statement, Map.Entry<Long, Long> row) {
+                            statement.bindLong(1, row.getKey());
+                            statement.bindLong(2, row.getValue());
+                        }
+                    });
+        } finally {
+            statement.close();
+        }
+
+        /* Keeps accesses recorded meanwhile for the next trim */
+        for (Map.Entry<Long, Long> access : accesses) {
+            mPendingAccesses.remove(access.getKey(), access.getValue());
+        }
+    }
+
+    private boolean isOverBudget(SQLiteDatabase db) {
+        long usedPages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        return usedPages * pageSize > mMaxBytes
+                || DatabaseUtils.longForQuery(db, SQL_COUNT_DETAIL_ROWS, null) > mMaxDetailRows;
+    }
+
+    private long[] findEvictableMovies(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(SQL_SELECT_EVICTABLE_MOVIES,
+                new String[] { Integer.toString(mBatchSize) });
+        try {
+            long[] movieIds = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                movieIds[i] = cursor.getLong(0);
+            }
+            return movieIds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /* The search document of a movie is deleted with its row by a trigger */
+    private static void evict(SQLiteDatabase db, long[] movieIds) {
+        if (movieIds.length == 0) {
+            return;
+        }
+
+        List<Long> ids = new ArrayList<>(movieIds.length);
+        for (long movieId : movieIds) {
+            ids.add(movieId);
+        }
+        String inIds = " IN (" + TextUtils.join(", ", ids) + ")";
+
+        db.delete(MoviesContract.VideoEntry.TABLE_NAME,
+                MoviesContract.VideoEntry.COLUMN_MOVIE_TMDB_ID + inIds, null);
+        db.delete(MoviesContract.ReviewEntry.TABLE_NAME,
+                MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID + inIds, null);
+        db.delete(MoviesContract.MovieEntry.TABLE_NAME,
+                MoviesContract.MovieEntry.COLUMN_MOVIE_ID + inIds, null);
+        db.delete(MoviesContract.MovieAccessEntry.TABLE_NAME,
+                MoviesContract.MovieAccessEntry.COLUMN_MOVIE_ID + inIds, null);
+    }
+
+    /*
+     * Releases a bounded number of free pages once they make up a large part of the file.
+     * Incremental vacuum only moves pages from the end of the file, so unlike a full vacuum
+     * it never rewrites the whole database. The database is switched to it by MoviesDbHelper.
+     */
+    private void reclaimFreePages(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            return;
+        }
+
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        if (freePages * 100 < pageCount * mFreePagesPercent) {
+            return;
+        }
+
+        /* The cursor steps the pragma to the end, one free page per step */
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + mMaxVacuumPages + ")", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+}
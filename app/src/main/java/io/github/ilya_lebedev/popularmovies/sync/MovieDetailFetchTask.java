@@ -15,16 +15,21 @@
  */
 package io.github.ilya_lebedev.popularmovies.sync;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.net.Uri;
-
-import org.json.JSONException;
+import android.os.RemoteException;
+import android.util.Log;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
 
 import io.github.ilya_lebedev.popularmovies.data.MoviesContract;
+import io.github.ilya_lebedev.popularmovies.data.MoviesProvider;
 import io.github.ilya_lebedev.popularmovies.utilities.NetworkUtils;
 import io.github.ilya_lebedev.popularmovies.utilities.TmdbJsonUtils;
 
@@ -34,63 +39,82 @@ import io.github.ilya_lebedev.popularmovies.utilities.TmdbJsonUtils;
 public class MovieDetailFetchTask {
 
     /* Actions constants */
-    public static final String ACTION_FETCH_MOVIE_VIDEO = "fetch_movie_video";
-    public static final String ACTION_FETCH_MOVIE_REVIEW = "fetch_movie_review";
+    public static final String ACTION_FETCH_MOVIE_DETAIL = "fetch_movie_detail";
+
+    private static final String TAG = MovieDetailFetchTask.class.getSimpleName();
+
+    private static final NetworkUtils.ResponseParser<TmdbJsonUtils.MovieDetail> DETAIL_PARSER =
+            new NetworkUtils.ResponseParser<TmdbJsonUtils.MovieDetail>() {
+                @Override
+                public TmdbJsonUtils.MovieDetail parse(InputStream in) throws IOException {
+                    return TmdbJsonUtils.getMovieDetailFromJson(in);
+                }
+            };
 
     public static void executeTask(Context context, String action, int movieTmdbId) {
 
-        if (ACTION_FETCH_MOVIE_VIDEO.equals(action)) {
-            fetchMovieVideo(context, movieTmdbId);
-        } else if (ACTION_FETCH_MOVIE_REVIEW.equals(action)) {
-            fetchMovieReview(context, movieTmdbId);
+        if (ACTION_FETCH_MOVIE_DETAIL.equals(action)) {
+            long notificationCount = MoviesProvider.getNotificationCount();
+            fetchMovieDetail(context, movieTmdbId);
+            Log.v(TAG, "Fetch of movie " + movieTmdbId + " detail requested "
+                    + (MoviesProvider.getNotificationCount() - notificationCount)
+                    + " change notifications");
+            /* New rows may have pushed the database over its storage budget */
+            StorageTrimUtils.startStorageTrimTask(context);
         } else {
             throw new IllegalArgumentException("Unsupported action: " + action);
         }
 
     }
 
-    private static void fetchMovieVideo(Context context, int movieTmdbId) {
-        URL url = NetworkUtils.getMovieVideoListUrl(movieTmdbId);
-        Uri uri = MoviesContract.VideoEntry.buildMovieVideosUriWithMovieTmdbId(movieTmdbId);
+    /**
+     * Fetches videos and reviews of a movie with one request and writes both
+     * into ContentProvider in a single batch.
+     *
+     * @param context     Used to access utility methods and the ContentResolver
+     * @param movieTmdbId Movie ID as returned by TMDb API
+     */
+    private static void fetchMovieDetail(Context context, int movieTmdbId) {
+        URL url = NetworkUtils.getMovieDetailUrl(movieTmdbId);
+        Uri videosUri = MoviesContract.VideoEntry.buildMovieVideosUriWithMovieTmdbId(movieTmdbId);
+        Uri reviewsUri = MoviesContract.ReviewEntry.buildMovieReviewsUriWithMovieTmdbId(movieTmdbId);
 
-        ContentValues[] videoContentValues = null;
+        TmdbJsonUtils.MovieDetail movieDetail = null;
 
         try {
-            String response = NetworkUtils.getResponseFromHttpUrl(url);
-            videoContentValues = TmdbJsonUtils.getVideoContentValueFromJsonString(response);
+            movieDetail = NetworkUtils.getResponseFromHttpUrl(context, url, DETAIL_PARSER);
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (JSONException e) {
-            e.printStackTrace();
         }
 
-        if (videoContentValues == null) {
+        if (movieDetail == null) {
             return;
         }
 
-        context.getContentResolver().bulkInsert(uri, videoContentValues);
-    }
-
-    private static void fetchMovieReview(Context context, int movieTmdbId) {
-        URL url = NetworkUtils.getMovieReviewListUrl(movieTmdbId);
-        Uri uri = MoviesContract.ReviewEntry.buildMovieReviewsUriWithMovieTmdbId(movieTmdbId);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues videoValues : movieDetail.videos) {
+            operations.add(ContentProviderOperation.newInsert(videosUri)
+                    .withValues(videoValues)
+                    .build());
+        }
+        for (ContentValues reviewValues : movieDetail.reviews) {
+            operations.add(ContentProviderOperation.newInsert(reviewsUri)
+                    .withValues(reviewValues)
+                    .build());
+        }
 
-        ContentValues[] reviewContentValues = null;
+        if (operations.isEmpty()) {
+            return;
+        }
 
         try {
-            String response = NetworkUtils.getResponseFromHttpUrl(url);
-            reviewContentValues = TmdbJsonUtils.getReviewContentValueFromJsonString(response);
-        } catch (JSONException e) {
+            context.getContentResolver()
+                    .applyBatch(MoviesContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException e) {
             e.printStackTrace();
-        } catch (IOException e) {
+        } catch (OperationApplicationException e) {
             e.printStackTrace();
         }
-
-        if (reviewContentValues == null) {
-            return;
-        }
-
-        context.getContentResolver().bulkInsert(uri, reviewContentValues);
     }
 
 }
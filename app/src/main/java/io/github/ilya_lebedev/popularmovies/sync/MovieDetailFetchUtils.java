@@ -16,27 +16,32 @@
 package io.github.ilya_lebedev.popularmovies.sync;
 
 import android.content.Context;
-import android.content.Intent;
 
 /**
  * MovieDetailFetchUtils
  */
 public class MovieDetailFetchUtils {
 
-    public static final String EXTRA_MOVIE_TMDB_ID = "movie_tmdb_id";
+    public static void startMovieDetailFetchTask(Context context, final int movieTmdbId) {
+        final Context appContext = context.getApplicationContext();
+        SyncScheduler.getInstance(appContext).schedule(
+                getTaskKey(movieTmdbId),
+                SyncScheduler.PRIORITY_USER_VISIBLE_DETAIL,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        MovieDetailFetchTask.executeTask(appContext,
+                                MovieDetailFetchTask.ACTION_FETCH_MOVIE_DETAIL, movieTmdbId);
+                    }
+                });
+    }
 
-    public static void startMovieVideoFetchTask(Context context, int movieTmdbId) {
-        Intent intent = new Intent(context, MovieVideoFetchIntentService.class);
-        intent.setAction(MovieDetailFetchTask.ACTION_FETCH_MOVIE_VIDEO);
-        intent.putExtra(EXTRA_MOVIE_TMDB_ID, movieTmdbId);
-        context.startService(intent);
+    public static void cancelMovieDetailFetchTask(Context context, int movieTmdbId) {
+        SyncScheduler.getInstance(context).cancel(getTaskKey(movieTmdbId));
     }
 
-    public static void startMovieReviewFetchTask(Context context, int movieTmdbId) {
-        Intent intent = new Intent(context, MovieReviewFetchIntentService.class);
-        intent.setAction(MovieDetailFetchTask.ACTION_FETCH_MOVIE_REVIEW);
-        intent.putExtra(EXTRA_MOVIE_TMDB_ID, movieTmdbId);
-        context.startService(intent);
+    private static String getTaskKey(int movieTmdbId) {
+        return MovieDetailFetchTask.ACTION_FETCH_MOVIE_DETAIL + ":" + movieTmdbId;
     }
 
 }
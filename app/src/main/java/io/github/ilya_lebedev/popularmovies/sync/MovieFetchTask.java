@@ -15,17 +15,26 @@
  */
 package io.github.ilya_lebedev.popularmovies.sync;
 
-import android.content.ContentValues;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.net.Uri;
-
-import org.json.JSONException;
+import android.os.Bundle;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import io.github.ilya_lebedev.popularmovies.R;
 import io.github.ilya_lebedev.popularmovies.data.MoviesContract;
 import io.github.ilya_lebedev.popularmovies.data.MoviesPreferences;
+import io.github.ilya_lebedev.popularmovies.data.MoviesProvider;
 import io.github.ilya_lebedev.popularmovies.utilities.DateUtils;
 import io.github.ilya_lebedev.popularmovies.utilities.NetworkUtils;
 import io.github.ilya_lebedev.popularmovies.utilities.PageUtils;
@@ -41,6 +50,14 @@ public class MovieFetchTask {
 
     private static final String TAG = MovieFetchTask.class.getSimpleName();
 
+    private static final NetworkUtils.ResponseParser<TmdbJsonUtils.MoviePage> MOVIE_PAGE_PARSER =
+            new NetworkUtils.ResponseParser<TmdbJsonUtils.MoviePage>() {
+                @Override
+                public TmdbJsonUtils.MoviePage parse(InputStream in) throws IOException {
+                    return TmdbJsonUtils.getMoviePageFromJson(in);
+                }
+            };
+
     /**
      * Select task to execute.
      *
@@ -49,17 +66,26 @@ public class MovieFetchTask {
      */
     public static void executeTask(Context context, String action) {
         if (ACTION_FETCH_NEXT_PAGE.equals(action)) {
+            long notificationCount = MoviesProvider.getNotificationCount();
             fetchNextPage(context);
+            Log.v(TAG, "Fetch of next page requested "
+                    + (MoviesProvider.getNotificationCount() - notificationCount)
+                    + " change notifications");
+            /* New rows may have pushed the database over its storage budget */
+            StorageTrimUtils.startStorageTrimTask(context);
         }
     }
 
     /**
-     * Performs the network request for fetch movie data, parse the JSON
-     * from that request and inserts the new movie information into ContentProvider.
+     * Performs the network requests for fetch movie data, parse the JSON
+     * from that requests and inserts the new movie information into ContentProvider.
+     * Several next pages are fetched and parsed in parallel, but they are committed to
+     * ContentProvider strictly in page order, and the current page is advanced only
+     * after each ordered commit.
      *
      * @param context Used to access utility methods and the ContentResolver
      */
-    private static void fetchNextPage(Context context) {
+    private static void fetchNextPage(final Context context) {
 
         /* Get pages info */
         int currentPage = PageUtils.getCurrentPage(context);
@@ -74,12 +100,17 @@ public class MovieFetchTask {
             uri = MoviesContract.MovieEntry.CONTENT_URI_TOP_RATED;
         }
 
-        /* If last update time expired, set current page to 0 and clean cache table */
+        /*
+         * If last update time expired, keep serving the cached list and replace it
+         * once fresh pages are fetched.
+         */
         boolean isDataActual = DateUtils.isMoviesListLastUpdateActual(context);
-        if (!isDataActual) {
-            context.getContentResolver().delete(uri, null, null);
-            currentPage = 0;
-            PageUtils.setCurrentPage(context, currentPage);
+        if (!isDataActual && currentPage > 0) {
+            if (!refreshList(context, uri, currentPage)) {
+                return;
+            }
+            currentPage = PageUtils.getCurrentPage(context);
+            totalPages = PageUtils.getTotalPages(context);
         }
 
         /* If all pages already loaded, we don't need to do anything */
@@ -87,36 +118,247 @@ public class MovieFetchTask {
             return;
         }
 
-        URL moviesListUrl = NetworkUtils.getMoviesListUrl(context, currentPage + 1);
-        ContentValues[] movieContentValues = null;
-        int requestedTotalPages = 1;
+        final int pagesAhead =
+                context.getResources().getInteger(R.integer.movie_list_pages_ahead);
+        final ContentResolver resolver = context.getContentResolver();
+        final Uri listUri = uri;
+
+        fetchPagesInOrder(SyncScheduler.getInstance(context),
+                currentPage + 1, Math.min(currentPage + pagesAhead, totalPages),
+                new PageFetcherFactory<TmdbJsonUtils.MoviePage>() {
+                    @Override
+                    public Callable<TmdbJsonUtils.MoviePage> create(int page) {
+                        return new PageFetchCallable(context, page);
+                    }
+                },
+                new PageCommitter<TmdbJsonUtils.MoviePage>() {
+                    @Override
+                    public int commit(int page, TmdbJsonUtils.MoviePage moviePage,
+                                      int lastPage) {
+                        if (resolver.bulkInsert(listUri, moviePage.movies) <= 0) {
+                            return -1;
+                        }
+
+                        PageUtils.setCurrentPage(context, page);
+
+                        if (page == 1) {
+                            PageUtils.setTotalPages(context, moviePage.totalPages);
+                            long currentTime = System.currentTimeMillis();
+                            DateUtils.setMoviesListLastUpdateTime(context, currentTime);
+
+                            /* Total pages is known only now, so the window may be widened */
+                            return Math.min(pagesAhead, moviePage.totalPages);
+                        }
+                        return lastPage;
+                    }
+                });
+
+    }
+
+    /**
+     * Fetches a range of pages in parallel and commits them strictly in page order.
+     * The first page is fetched first, the pages after it are prefetched. Pages after
+     * a failed fetch or commit are cancelled.
+     *
+     * @param scheduler Runs the fetches
+     * @param firstPage First page to fetch
+     * @param lastPage  Last page to fetch, the committer may change it
+     * @param fetchers  Creates the fetch of a page
+     * @param committer Commits the fetched pages
+     * @param <T>       Type of a fetched page
+     */
+    @VisibleForTesting
+    static <T> void fetchPagesInOrder(SyncScheduler scheduler, int firstPage, int lastPage,
+                                      PageFetcherFactory<T> fetchers,
+                                      PageCommitter<T> committer) {
+        int nextPage = firstPage;
+        int committedPage = firstPage - 1;
+        Deque<Future<T>> pagesInFlight = new ArrayDeque<>();
 
         try {
-            String response = NetworkUtils.getResponseFromHttpUrl(moviesListUrl);
-            movieContentValues = TmdbJsonUtils.getMovieContentValuesFromJson(response);
-            requestedTotalPages = TmdbJsonUtils.getTotalPagesFromJson(response);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
+            while (nextPage <= lastPage) {
+                pagesInFlight.add(
+                        schedulePageFetch(scheduler, fetchers, nextPage, firstPage));
+                nextPage++;
+            }
 
-        if (movieContentValues == null) {
-            return;
+            while (!pagesInFlight.isEmpty()) {
+                T page = awaitPage(pagesInFlight.poll());
+
+                if (page == null) {
+                    return;
+                }
+
+                committedPage++;
+                lastPage = committer.commit(committedPage, page, lastPage);
+
+                if (lastPage < 0) {
+                    return;
+                }
+
+                while (nextPage <= lastPage) {
+                    pagesInFlight.add(
+                            schedulePageFetch(scheduler, fetchers, nextPage, firstPage));
+                    nextPage++;
+                }
+            }
+        } finally {
+            /* Pages after a failed one cannot be committed in order */
+            for (Future<T> future : pagesInFlight) {
+                future.cancel(true);
+            }
         }
+    }
+
+    /**
+     * Fetches fresh copies of all loaded pages of a list into a pending generation of the
+     * list and makes it visible in one step, so readers see either the old list or the new
+     * one, and the user keeps the position scrolled to. Each page is written as soon as it
+     * arrives, the pending rows stay hidden until commit. At most pages ahead pages are
+     * in flight at a time.
+     *
+     * @param context     Used to access utility methods and the ContentResolver
+     * @param uri         Uri of the list
+     * @param loadedPages Number of pages in the cached list
+     * @return true if the list was replaced
+     */
+    private static boolean refreshList(Context context, Uri uri, int loadedPages) {
+
+        int pagesAhead = context.getResources().getInteger(R.integer.movie_list_pages_ahead);
+        int lastPage = loadedPages;
+        int nextPage = 1;
+
+        ContentResolver resolver = context.getContentResolver();
+        SyncScheduler scheduler = SyncScheduler.getInstance(context);
+        Deque<Future<TmdbJsonUtils.MoviePage>> pagesInFlight = new ArrayDeque<>();
+
+        try {
+            while (nextPage <= Math.min(pagesAhead, lastPage)) {
+                pagesInFlight.add(scheduler.scheduleFetch(SyncScheduler.PRIORITY_NEXT_PAGE,
+                        new PageFetchCallable(context, nextPage)));
+                nextPage++;
+            }
+
+            Bundle result = resolver.call(MoviesContract.BASE_CONTENT_URI,
+                    MoviesContract.METHOD_BEGIN_LIST_REFRESH, uri.toString(), null);
+            if (result == null) {
+                return false;
+            }
+            long generation = result.getLong(MoviesContract.EXTRA_GENERATION);
+            Uri pendingUri = MoviesContract.MovieEntry.buildListUriWithGeneration(uri, generation);
 
-        int insertedRows = context.getContentResolver()
-                .bulkInsert(uri, movieContentValues);
+            int totalPages = 1;
+            int fetchedPages = 0;
 
-        if (insertedRows > 0) {
-            currentPage++;
-            PageUtils.setCurrentPage(context, currentPage);
+            while (!pagesInFlight.isEmpty() && fetchedPages < lastPage) {
+                TmdbJsonUtils.MoviePage moviePage = awaitPage(pagesInFlight.poll());
 
-            if (currentPage == 1) {
-                PageUtils.setTotalPages(context, requestedTotalPages);
-                long currentTime = System.currentTimeMillis();
-                DateUtils.setMoviesListLastUpdateTime(context, currentTime);
+                /* Stale list stays visible, pending rows are swept by the next refresh */
+                if (moviePage == null || moviePage.movies.length == 0) {
+                    return false;
+                }
+
+                if (resolver.bulkInsert(pendingUri, moviePage.movies) <= 0) {
+                    return false;
+                }
+
+                totalPages = moviePage.totalPages;
+                fetchedPages++;
+
+                /* The list may have shrunk on the server since it was loaded */
+                lastPage = Math.min(loadedPages, totalPages);
+                if (nextPage <= lastPage) {
+                    pagesInFlight.add(scheduler.scheduleFetch(SyncScheduler.PRIORITY_NEXT_PAGE,
+                            new PageFetchCallable(context, nextPage)));
+                    nextPage++;
+                }
             }
+
+            Bundle extras = new Bundle();
+            extras.putLong(MoviesContract.EXTRA_GENERATION, generation);
+            resolver.call(MoviesContract.BASE_CONTENT_URI,
+                    MoviesContract.METHOD_COMMIT_LIST_REFRESH, uri.toString(), extras);
+
+            PageUtils.setCurrentPage(context, fetchedPages);
+            PageUtils.setTotalPages(context, totalPages);
+            DateUtils.setMoviesListLastUpdateTime(context, System.currentTimeMillis());
+
+            return true;
+        } finally {
+            for (Future<TmdbJsonUtils.MoviePage> future : pagesInFlight) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <T> T awaitPage(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+        return null;
+    }
+
+    /*
+     * The page right after the loaded ones is what the user is waiting for,
+     * pages after it are prefetched in background.
+     */
+    private static <T> Future<T> schedulePageFetch(SyncScheduler scheduler,
+                                                   PageFetcherFactory<T> fetchers,
+                                                   int page, int firstPage) {
+        int priority = page == firstPage
+                ? SyncScheduler.PRIORITY_NEXT_PAGE
+                : SyncScheduler.PRIORITY_BACKGROUND_PREFETCH;
+        return scheduler.scheduleFetch(priority, fetchers.create(page));
+    }
+
+    /**
+     * Creates the fetch of a page.
+     *
+     * @param <T> Type of a fetched page
+     */
+    interface PageFetcherFactory<T> {
+        Callable<T> create(int page);
+    }
+
+    /**
+     * Commits fetched pages, which come in page order.
+     *
+     * @param <T> Type of a fetched page
+     */
+    interface PageCommitter<T> {
+
+        /**
+         * Commits a page.
+         *
+         * @param page     Number of the page
+         * @param result   The fetched page
+         * @param lastPage Last page to fetch so far
+         * @return Last page to fetch from now on, or -1 to stop
+         */
+        int commit(int page, T result, int lastPage);
+    }
+
+    /**
+     * Fetches and parses one page of the movies list.
+     */
+    private static class PageFetchCallable implements Callable<TmdbJsonUtils.MoviePage> {
+
+        private final Context mContext;
+        private final URL mUrl;
+
+        PageFetchCallable(Context context, int page) {
+            mContext = context.getApplicationContext();
+            /* URL is built on the calling thread to keep the show mode consistent */
+            mUrl = NetworkUtils.getMoviesListUrl(context, page);
+        }
+
+        @Override
+        public TmdbJsonUtils.MoviePage call() throws IOException {
+            return NetworkUtils.getResponseFromHttpUrl(mContext, mUrl, MOVIE_PAGE_PARSER);
         }
 
     }
@@ -16,10 +16,10 @@
 package io.github.ilya_lebedev.popularmovies.sync;
 
 import android.content.Context;
-import android.content.Intent;
 import android.support.annotation.NonNull;
 
 import io.github.ilya_lebedev.popularmovies.data.MoviesPreferences;
+import io.github.ilya_lebedev.popularmovies.utilities.DateUtils;
 import io.github.ilya_lebedev.popularmovies.utilities.PageUtils;
 
 /**
@@ -50,7 +50,8 @@ public class MovieFetchUtils {
 
         int currentPage = PageUtils.getCurrentPage(context);
 
-        if (currentPage == 0) {
+        /* A stale list is shown as is and refreshed in background */
+        if (currentPage == 0 || !DateUtils.isMoviesListLastUpdateActual(context)) {
             startMovieFetchTask(context);
         }
     }
@@ -60,9 +61,17 @@ public class MovieFetchUtils {
     }
 
     private static void startMovieFetchTask(Context context) {
-        Intent intent = new Intent(context, MovieFetchIntentService.class);
-        intent.setAction(MovieFetchTask.ACTION_FETCH_NEXT_PAGE);
-        context.startService(intent);
+        final Context appContext = context.getApplicationContext();
+        /* Action doubles as the key, so a fetch is never queued behind another one */
+        SyncScheduler.getInstance(appContext).schedule(
+                MovieFetchTask.ACTION_FETCH_NEXT_PAGE,
+                SyncScheduler.PRIORITY_NEXT_PAGE,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        MovieFetchTask.executeTask(appContext, MovieFetchTask.ACTION_FETCH_NEXT_PAGE);
+                    }
+                });
     }
 
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.github.ilya_lebedev.popularmovies.R;
+import io.github.ilya_lebedev.popularmovies.data.MoviesContract;
+import io.github.ilya_lebedev.popularmovies.utilities.NetworkUtils;
+import io.github.ilya_lebedev.popularmovies.utilities.PinnedPosters;
+import io.github.ilya_lebedev.popularmovies.utilities.PosterCache;
+import io.github.ilya_lebedev.popularmovies.utilities.PosterDownloader;
+
+/**
+ * PosterPinTask
+ */
+public class PosterPinTask {
+
+    /* Actions constants */
+    public static final String ACTION_PIN_FAVORITE_POSTERS = "pin_favorite_posters";
+
+    private static final String TAG = PosterPinTask.class.getSimpleName();
+
+    private static final String[] FAVORITE_POSTER_PROJECTION = {
+            MoviesContract.MovieEntry.COLUMN_POSTER_PATH
+    };
+
+    public static void executeTask(Context context, String action) {
+
+        if (ACTION_PIN_FAVORITE_POSTERS.equals(action)) {
+            pinFavoritePosters(context);
+        } else {
+            throw new IllegalArgumentException("Unsupported action: " + action);
+        }
+
+    }
+
+    /**
+     * Brings the pinned posters in line with the favorites. Posters of movies which are no
+     * longer favorites are deleted and posters of favorites which are not pinned yet are
+     * loaded, from the poster cache if they are there, and pinned.
+     *
+     * @param context Used to access the ContentResolver and the pinned posters
+     */
+    private static void pinFavoritePosters(Context context) {
+        Set<String> posterPaths = new HashSet<>();
+        Cursor cursor = context.getContentResolver().query(
+                MoviesContract.MovieEntry.CONTENT_URI_FAVORITE,
+                FAVORITE_POSTER_PROJECTION,
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String posterPath = cursor.getString(0);
+                if (posterPath != null) {
+                    posterPaths.add(posterPath);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        PinnedPosters pinnedPosters = PosterCache.getPinnedPosters(context);
+        int unpinnedCount = pinnedPosters.unpinAllExcept(posterPaths);
+
+        int pinnedWidth = context.getResources().getInteger(R.integer.pinned_poster_width);
+        PosterDownloader downloader = new PosterDownloader(context);
+        int pinnedCount = 0;
+
+        for (String posterPath : posterPaths) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            if (pinnedPosters.isPinned(posterPath)) {
+                continue;
+            }
+
+            Uri posterUri = Uri.parse(NetworkUtils.getMoviePosterUrl(posterPath, pinnedWidth));
+            try {
+                pinnedPosters.pin(posterPath, downloader.loadPoster(posterUri, 0).bytes);
+                pinnedCount++;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (pinnedCount > 0 || unpinnedCount > 0) {
+            Log.v(TAG, "Pinned " + pinnedCount + " and unpinned " + unpinnedCount
+                    + " favorite posters");
+        }
+    }
+
+}
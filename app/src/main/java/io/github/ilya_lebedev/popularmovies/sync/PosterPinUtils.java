@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.sync;
+
+import android.content.Context;
+
+/**
+ * PosterPinUtils
+ */
+public class PosterPinUtils {
+
+    public static void startPosterPinTask(Context context) {
+        final Context appContext = context.getApplicationContext();
+        /*
+         * Action doubles as the key, so favorites changed in a row queue a single pass.
+         * A pass already running may have read the favorites before the change, so
+         * another one follows it.
+         */
+        SyncScheduler.getInstance(appContext).scheduleRerun(
+                PosterPinTask.ACTION_PIN_FAVORITE_POSTERS,
+                SyncScheduler.PRIORITY_BACKGROUND_PREFETCH,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        PosterPinTask.executeTask(appContext,
+                                PosterPinTask.ACTION_PIN_FAVORITE_POSTERS);
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import io.github.ilya_lebedev.popularmovies.data.MoviesContract;
+
+/**
+ * StorageTrimTask
+ */
+public class StorageTrimTask {
+
+    /* Actions constants */
+    public static final String ACTION_TRIM_STORAGE = "trim_storage";
+
+    private static final String TAG = StorageTrimTask.class.getSimpleName();
+
+    public static void executeTask(Context context, String action) {
+
+        if (ACTION_TRIM_STORAGE.equals(action)) {
+            trimStorage(context);
+        } else {
+            throw new IllegalArgumentException("Unsupported action: " + action);
+        }
+
+    }
+
+    /**
+     * Evicts cached movies batch by batch while the database is over its storage budget.
+     * Every batch is a transaction of its own, so other writes interleave with the trim.
+     *
+     * @param context Used to access the ContentResolver
+     */
+    private static void trimStorage(Context context) {
+        int batchCount = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            Bundle result = context.getContentResolver().call(MoviesContract.BASE_CONTENT_URI,
+                    MoviesContract.METHOD_TRIM_STORAGE, null, null);
+            if (result == null || !result.getBoolean(MoviesContract.EXTRA_TRIM_PENDING)) {
+                break;
+            }
+            batchCount++;
+        }
+
+        if (batchCount > 0) {
+            Log.v(TAG, "Storage trim evicted " + batchCount + " batches of movies");
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.sync;
+
+import android.content.Context;
+
+/**
+ * StorageTrimUtils
+ */
+public class StorageTrimUtils {
+
+    public static void startStorageTrimTask(Context context) {
+        final Context appContext = context.getApplicationContext();
+        /* Action doubles as the key, so writes in a row queue a single trim */
+        SyncScheduler.getInstance(appContext).schedule(
+                StorageTrimTask.ACTION_TRIM_STORAGE,
+                SyncScheduler.PRIORITY_BACKGROUND_PREFETCH,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        StorageTrimTask.executeTask(appContext, StorageTrimTask.ACTION_TRIM_STORAGE);
+                    }
+                });
+    }
+
+}
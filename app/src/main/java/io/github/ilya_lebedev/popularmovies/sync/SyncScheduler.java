@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.sync;
+
+import android.content.Context;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.ilya_lebedev.popularmovies.R;
+
+/**
+ * Runs all sync work of the app on a bounded pool of background workers.
+ * Queued tasks are started by priority class and then in the order they were scheduled.
+ * A task scheduled with a key is not queued twice while it is pending or running,
+ * and can be cancelled by that key.
+ *
+ * Network fetches that sync tasks wait for run on a separate pool of fetch workers.
+ * A sync task blocked on its fetches then never holds the worker a fetch needs,
+ * so any number of sync tasks may wait at once without starving the pool.
+ */
+public class SyncScheduler {
+
+    private static final String TAG = SyncScheduler.class.getSimpleName();
+
+    /* Priority classes, lower value is started first */
+    public static final int PRIORITY_USER_VISIBLE_DETAIL = 0;
+    public static final int PRIORITY_NEXT_PAGE = 1;
+    public static final int PRIORITY_BACKGROUND_PREFETCH = 2;
+
+    private static final int PRIORITY_CLASS_COUNT = 3;
+
+    private static final Object LOCK = new Object();
+
+    private static SyncScheduler sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /* Runs fetches only, which never wait for other tasks */
+    private final ThreadPoolExecutor mFetchExecutor;
+
+    private final AtomicLong mSequenceCounter = new AtomicLong();
+
+    private final ConcurrentHashMap<String, ScheduledTask<?>> mTasksByKey =
+            new ConcurrentHashMap<>();
+
+    /* Wait time metrics per priority class */
+    private final AtomicLong[] mStartedCount = new AtomicLong[PRIORITY_CLASS_COUNT];
+    private final AtomicLong[] mTotalWaitMillis = new AtomicLong[PRIORITY_CLASS_COUNT];
+    private final AtomicLong[] mMaxWaitMillis = new AtomicLong[PRIORITY_CLASS_COUNT];
+
+    @VisibleForTesting
+    SyncScheduler(int workerCount, int fetchWorkerCount) {
+        mExecutor = new ThreadPoolExecutor(workerCount, workerCount,
+                0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new WorkerThreadFactory("SyncWorker-"));
+        mFetchExecutor = new ThreadPoolExecutor(fetchWorkerCount, fetchWorkerCount,
+                0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new WorkerThreadFactory("FetchWorker-"));
+
+        for (int i = 0; i < PRIORITY_CLASS_COUNT; i++) {
+            mStartedCount[i] = new AtomicLong();
+            mTotalWaitMillis[i] = new AtomicLong();
+            mMaxWaitMillis[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Return the scheduler, creating it on first use.
+     *
+     * @param context Used to access app resources
+     * @return The app sync scheduler
+     */
+    public static SyncScheduler getInstance(Context context) {
+        synchronized (LOCK) {
+            if (sInstance == null) {
+                int workerCount = context.getResources().getInteger(R.integer.sync_worker_count);
+                int fetchWorkerCount =
+                        context.getResources().getInteger(R.integer.movie_list_pages_ahead);
+                sInstance = new SyncScheduler(workerCount, fetchWorkerCount);
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Schedule a task.
+     *
+     * @param key      Identifies the task for deduplication and cancellation, may be null
+     * @param priority Priority class of the task
+     * @param callable The work to do
+     * @return The scheduled task, or the already scheduled one with the same key
+     */
+    public <T> ScheduledTask<T> schedule(String key, int priority, Callable<T> callable) {
+        if (priority < 0 || priority >= PRIORITY_CLASS_COUNT) {
+            throw new IllegalArgumentException("Unknown priority: " + priority);
+        }
+
+        ScheduledTask<T> task = new ScheduledTask<>(mExecutor, key, priority, callable);
+
+        if (key != null) {
+            ScheduledTask<?> existingTask = mTasksByKey.putIfAbsent(key, task);
+            if (existingTask != null) {
+                @SuppressWarnings("unchecked")
+                ScheduledTask<T> result = (ScheduledTask<T>) existingTask;
+                return result;
+            }
+        }
+
+        mExecutor.execute(task);
+
+        return task;
+    }
+
+    /**
+     * Schedule a fetch on the fetch workers. A fetch must not wait for other tasks,
+     * so sync tasks may wait for their fetches.
+     *
+     * @param priority Priority class of the fetch
+     * @param callable The fetch to do
+     * @return The scheduled fetch
+     */
+    public <T> ScheduledTask<T> scheduleFetch(int priority, Callable<T> callable) {
+        if (priority < 0 || priority >= PRIORITY_CLASS_COUNT) {
+            throw new IllegalArgumentException("Unknown priority: " + priority);
+        }
+
+        ScheduledTask<T> task = new ScheduledTask<>(mFetchExecutor, null, priority, callable);
+        mFetchExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * Schedule a task.
+     *
+     * @param key      Identifies the task for deduplication and cancellation, may be null
+     * @param priority Priority class of the task
+     * @param runnable The work to do
+     * @return The scheduled task, or the already scheduled one with the same key
+     */
+    public ScheduledTask<Object> schedule(String key, int priority, Runnable runnable) {
+        return schedule(key, priority, Executors.callable(runnable));
+    }
+
+    /**
+     * Schedule a task which must see all changes made before it is scheduled. It is
+     * coalesced with a queued task of the same key, but a task of the key which is already
+     * running may have read the data before the changes, so one more task is queued to run
+     * once it is done.
+     *
+     * @param key      Identifies the task for deduplication and cancellation
+     * @param priority Priority class of the task
+     * @param runnable The work to do
+     * @return The scheduled task, or the queued one with the same key
+     */
+    public ScheduledTask<?> scheduleRerun(String key, int priority, Runnable runnable) {
+        synchronized (mTasksByKey) {
+            ScheduledTask<?> existingTask = mTasksByKey.get(key);
+            if (existingTask == null || !existingTask.mIsStarted) {
+                return schedule(key, priority, runnable);
+            }
+            if (existingTask.mNextTask == null) {
+                existingTask.mNextTask = new ScheduledTask<>(mExecutor, key, priority,
+                        Executors.callable(runnable));
+            }
+            return existingTask.mNextTask;
+        }
+    }
+
+    /**
+     * Cancel a pending or running task.
+     *
+     * @param key Key the task was scheduled with
+     * @return true if a task was cancelled
+     */
+    public boolean cancel(String key) {
+        ScheduledTask<?> task = mTasksByKey.get(key);
+        return task != null && task.cancel(true);
+    }
+
+    /**
+     * Return the number of tasks waiting for a worker.
+     *
+     * @return Queue depth
+     */
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * Return the average time tasks of a priority class waited for a worker.
+     *
+     * @param priority Priority class
+     * @return Average wait time in milliseconds
+     */
+    public long getAverageWaitMillis(int priority) {
+        long startedCount = mStartedCount[priority].get();
+        return startedCount == 0 ? 0 : mTotalWaitMillis[priority].get() / startedCount;
+    }
+
+    /**
+     * Return the longest time a task of a priority class waited for a worker.
+     *
+     * @param priority Priority class
+     * @return Maximum wait time in milliseconds
+     */
+    public long getMaxWaitMillis(int priority) {
+        return mMaxWaitMillis[priority].get();
+    }
+
+    private void recordWaitTime(int priority, long waitMillis) {
+        mStartedCount[priority].incrementAndGet();
+        mTotalWaitMillis[priority].addAndGet(waitMillis);
+
+        AtomicLong maxWaitMillis = mMaxWaitMillis[priority];
+        long currentMax = maxWaitMillis.get();
+        while (waitMillis > currentMax && !maxWaitMillis.compareAndSet(currentMax, waitMillis)) {
+            currentMax = maxWaitMillis.get();
+        }
+
+        /* Runs for every task, so it is traced only when verbose logging is on for the tag */
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "Priority " + priority + " waited " + waitMillis + " ms, queue depth "
+                    + getQueueDepth());
+        }
+    }
+
+    /**
+     * A task queued on the scheduler. Can be waited for and cancelled as any Future.
+     */
+    public class ScheduledTask<T> extends FutureTask<T>
+            implements Comparable<ScheduledTask<?>> {
+
+        private final ThreadPoolExecutor mTaskExecutor;
+        private final String mKey;
+        private final int mPriority;
+        private final long mSequence;
+        private final long mScheduledTime;
+
+        /* Guarded by mTasksByKey, only for tasks scheduled with scheduleRerun */
+        private boolean mIsStarted;
+        private ScheduledTask<?> mNextTask;
+
+        ScheduledTask(ThreadPoolExecutor executor, String key, int priority,
+                      Callable<T> callable) {
+            super(callable);
+            mTaskExecutor = executor;
+            mKey = key;
+            mPriority = priority;
+            mSequence = mSequenceCounter.getAndIncrement();
+            mScheduledTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void run() {
+            recordWaitTime(mPriority, System.currentTimeMillis() - mScheduledTime);
+            synchronized (mTasksByKey) {
+                mIsStarted = true;
+            }
+            super.run();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                mTaskExecutor.remove(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            if (mKey == null) {
+                return;
+            }
+            synchronized (mTasksByKey) {
+                mTasksByKey.remove(mKey, this);
+                /* Changes made while this task was running are picked up by the next one */
+                if (mNextTask != null) {
+                    mTasksByKey.put(mKey, mNextTask);
+                    mTaskExecutor.execute(mNextTask);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull ScheduledTask<?> other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final String mNamePrefix;
+        private final AtomicInteger mThreadNumber = new AtomicInteger(1);
+
+        WorkerThreadFactory(String namePrefix) {
+            mNamePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, mNamePrefix + mThreadNumber.getAndIncrement());
+        }
+
+    }
+
+}
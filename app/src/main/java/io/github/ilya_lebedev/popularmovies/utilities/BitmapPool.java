@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of decoded posters which are no longer used, to be decoded into again through
+ * inBitmap instead of allocating a new bitmap for every poster. Bitmaps are pooled by
+ * dimensions and config, within a byte budget, the oldest ones are dropped first.
+ *
+ * A bitmap may be reused only when nothing can draw it anymore, so the pool follows
+ * which posters are in the memory cache, which were taken out of it and are on their way
+ * to a view, and how many views show each of them. Only a bitmap which has been shown and
+ * is then neither cached, on its way nor shown is pooled, a bitmap which has never been
+ * shown may still be on its way to a view. All of it is checked and changed under the lock
+ * of the pool, which the memory cache also holds while it takes a poster out.
+ */
+public class BitmapPool {
+
+    private final long mMaxBytes;
+
+    /* Pooled bitmaps by dimensions and config, and all of them from oldest to newest */
+    private final Map<String, ArrayDeque<Bitmap>> mBitmapsByKey = new HashMap<>();
+    private final LinkedHashSet<Bitmap> mBitmaps = new LinkedHashSet<>();
+    private long mSize;
+
+    /* Bitmaps in the memory cache, and number of views showing each bitmap shown so far */
+    private final WeakHashMap<Bitmap, Boolean> mCachedBitmaps = new WeakHashMap<>();
+    private final WeakHashMap<Bitmap, Integer> mShownBitmaps = new WeakHashMap<>();
+
+    /* Number of cache hits of each bitmap not shown yet */
+    private final WeakHashMap<Bitmap, Integer> mTakenBitmaps = new WeakHashMap<>();
+
+    private final AtomicLong mReuseCount = new AtomicLong();
+    private final AtomicLong mAllocationCount = new AtomicLong();
+    private final AtomicLong mAllocatedBytes = new AtomicLong();
+
+    /**
+     * Creates BitmapPool.
+     *
+     * @param maxBytes Budget of the pooled bitmaps in bytes
+     */
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Takes a bitmap of given dimensions and config out of the pool.
+     *
+     * @param width  Width of the bitmap
+     * @param height Height of the bitmap
+     * @param config Config of the bitmap
+     * @return The bitmap to decode into, or null if there is none
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bitmaps = mBitmapsByKey.get(getKey(width, height, config));
+        Bitmap bitmap = bitmaps != null ? bitmaps.pollLast() : null;
+        if (bitmap != null) {
+            mBitmaps.remove(bitmap);
+            mSize -= bitmap.getByteCount();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns a bitmap taken by {@link #get(int, int, Bitmap.Config)} which was not used.
+     *
+     * @param bitmap The bitmap
+     */
+    public void putBack(Bitmap bitmap) {
+        put(bitmap);
+    }
+
+    /**
+     * Records a decoded poster, counting it as a reuse or as a new allocation.
+     *
+     * @param bitmap   The decoded poster
+     * @param isReused True if it was decoded into a pooled bitmap
+     */
+    public void recordDecode(Bitmap bitmap, boolean isReused) {
+        if (isReused) {
+            mReuseCount.incrementAndGet();
+        } else {
+            mAllocationCount.incrementAndGet();
+            mAllocatedBytes.addAndGet(bitmap.getByteCount());
+        }
+    }
+
+    /**
+     * Records that a bitmap was put into the memory cache.
+     *
+     * @param bitmap The cached bitmap
+     */
+    public synchronized void onCached(Bitmap bitmap) {
+        mCachedBitmaps.put(bitmap, Boolean.TRUE);
+    }
+
+    /**
+     * Records that a bitmap was found in the memory cache and is on its way to a view.
+     * The cache calls it under the lock of the pool, together with the lookup, so the
+     * bitmap can not be evicted and pooled in between.
+     *
+     * @param bitmap The bitmap found in the cache
+     */
+    public synchronized void onTaken(Bitmap bitmap) {
+        Integer takenCount = mTakenBitmaps.get(bitmap);
+        mTakenBitmaps.put(bitmap, takenCount != null ? takenCount + 1 : 1);
+    }
+
+    /**
+     * Records that a bitmap left the memory cache, and pools it if no view shows it.
+     *
+     * @param bitmap The bitmap removed from the cache
+     */
+    public synchronized void onUncached(Bitmap bitmap) {
+        mCachedBitmaps.remove(bitmap);
+        Integer viewCount = mShownBitmaps.get(bitmap);
+        if (viewCount != null && viewCount == 0 && !mTakenBitmaps.containsKey(bitmap)) {
+            mShownBitmaps.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    /**
+     * Records that a view started showing a bitmap.
+     *
+     * @param bitmap The shown bitmap
+     */
+    public synchronized void onShown(Bitmap bitmap) {
+        /* A bitmap delivered other than through the cache must not be decoded into either */
+        if (mBitmaps.remove(bitmap)) {
+            removeFromKey(bitmap);
+        }
+
+        Integer takenCount = mTakenBitmaps.get(bitmap);
+        if (takenCount != null && takenCount > 1) {
+            mTakenBitmaps.put(bitmap, takenCount - 1);
+        } else {
+            mTakenBitmaps.remove(bitmap);
+        }
+
+        Integer viewCount = mShownBitmaps.get(bitmap);
+        mShownBitmaps.put(bitmap, viewCount != null ? viewCount + 1 : 1);
+    }
+
+    /**
+     * Records that a view stopped showing a bitmap, and pools it if it is not cached
+     * and no other view shows it.
+     *
+     * @param bitmap The bitmap no longer shown
+     */
+    public synchronized void onHidden(Bitmap bitmap) {
+        Integer viewCount = mShownBitmaps.get(bitmap);
+        if (viewCount == null) {
+            return;
+        }
+        if (viewCount > 1) {
+            mShownBitmaps.put(bitmap, viewCount - 1);
+        } else if (mCachedBitmaps.containsKey(bitmap) || mTakenBitmaps.containsKey(bitmap)) {
+            mShownBitmaps.put(bitmap, 0);
+        } else {
+            mShownBitmaps.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    /**
+     * Return the number of posters decoded into a pooled bitmap.
+     *
+     * @return Number of reuses
+     */
+    public long getReuseCount() {
+        return mReuseCount.get();
+    }
+
+    /**
+     * Return the number of posters decoded into a new bitmap.
+     *
+     * @return Number of allocations
+     */
+    public long getAllocationCount() {
+        return mAllocationCount.get();
+    }
+
+    /**
+     * Return the bytes of the new bitmaps posters were decoded into.
+     *
+     * @return Allocated bytes
+     */
+    public long getAllocatedBytes() {
+        return mAllocatedBytes.get();
+    }
+
+    /* Only bitmaps decoded by the pool users are mutable and may be decoded into */
+    private synchronized void put(Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.isRecycled() || bitmap.getByteCount() > mMaxBytes
+                || !mBitmaps.add(bitmap)) {
+            return;
+        }
+
+        String key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bitmaps = mBitmapsByKey.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            mBitmapsByKey.put(key, bitmaps);
+        }
+        bitmaps.addLast(bitmap);
+        mSize += bitmap.getByteCount();
+
+        Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while (mSize > mMaxBytes && iterator.hasNext()) {
+            Bitmap oldest = iterator.next();
+            iterator.remove();
+            removeFromKey(oldest);
+        }
+    }
+
+    /* Must be called while holding the lock, after the bitmap is removed from mBitmaps */
+    private void removeFromKey(Bitmap bitmap) {
+        mBitmapsByKey.get(getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig()))
+                .remove(bitmap);
+        mSize -= bitmap.getByteCount();
+    }
+
+    private static String getKey(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + "-" + config;
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+/**
+ * Circuit breaker for one host. After a number of consecutive failures requests are
+ * rejected without touching the network for a while, then a single trial request is let
+ * through to check whether the host has recovered.
+ */
+class CircuitBreaker {
+
+    private static final int STATE_CLOSED = 0;
+    private static final int STATE_OPEN = 1;
+    private static final int STATE_HALF_OPEN = 2;
+
+    private final int mFailureThreshold;
+    private final long mOpenDurationMillis;
+
+    private int mState = STATE_CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedAt;
+    private boolean mIsTrialInFlight;
+
+    /**
+     * Creates CircuitBreaker.
+     *
+     * @param failureThreshold   Consecutive failures which open the circuit
+     * @param openDurationMillis Time the circuit stays open before a trial request
+     */
+    CircuitBreaker(int failureThreshold, long openDurationMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenDurationMillis = openDurationMillis;
+    }
+
+    /**
+     * Return whether a request may go to the host now.
+     *
+     * @return true if the request is allowed
+     */
+    synchronized boolean allowRequest() {
+        switch (mState) {
+            case STATE_CLOSED:
+                return true;
+            case STATE_OPEN:
+                if (System.currentTimeMillis() - mOpenedAt < mOpenDurationMillis) {
+                    return false;
+                }
+                mState = STATE_HALF_OPEN;
+                mIsTrialInFlight = true;
+                return true;
+            case STATE_HALF_OPEN:
+                if (mIsTrialInFlight) {
+                    return false;
+                }
+                mIsTrialInFlight = true;
+                return true;
+            default:
+                throw new IllegalStateException("Unknown state: " + mState);
+        }
+    }
+
+    synchronized void recordSuccess() {
+        mState = STATE_CLOSED;
+        mConsecutiveFailures = 0;
+        mIsTrialInFlight = false;
+    }
+
+    synchronized void recordFailure() {
+        mConsecutiveFailures++;
+        mIsTrialInFlight = false;
+        if (mState == STATE_HALF_OPEN || mConsecutiveFailures >= mFailureThreshold) {
+            mState = STATE_OPEN;
+            mOpenedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Records a request which ended without telling whether the host works, e.g. because
+     * it was cancelled. A trial of the half-open circuit may be made by the next request.
+     */
+    synchronized void recordAbandoned() {
+        mIsTrialInFlight = false;
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Utilities for storing long texts, such as review bodies, deflated, and for
+ * cutting plain excerpts of them for lists.
+ */
+public class CompressionUtils {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /* This is utility class and we don't need to instantiate it */
+    private CompressionUtils() {}
+
+    /**
+     * Compresses text with deflate.
+     *
+     * @param text Text to compress
+     * @return The deflated UTF-8 bytes of the text
+     */
+    public static byte[] deflate(String text) {
+        byte[] input = text.getBytes(UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 16);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses text compressed by {@link #deflate(String)}.
+     *
+     * @param bytes Deflated bytes
+     * @return The text, or null if the bytes are not valid deflate data
+     */
+    public static String inflate(byte[] bytes) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length * 3);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    /* Truncated data */
+                    return null;
+                }
+                output.write(buffer, 0, length);
+            }
+            return new String(output.toByteArray(), UTF_8);
+        } catch (DataFormatException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the beginning of a text, cut at a word boundary if there is one near the end.
+     *
+     * @param text      Full text
+     * @param maxLength Maximum length of the excerpt, without the ellipsis
+     * @return The text if it is short enough, otherwise its beginning followed by an ellipsis
+     */
+    public static String getExcerpt(String text, int maxLength) {
+        if (text.length() <= maxLength) {
+            return text;
+        }
+
+        int end = maxLength;
+        int lastSpace = text.lastIndexOf(' ', maxLength);
+        if (lastSpace > maxLength * 3 / 4) {
+            end = lastSpace;
+        }
+        return text.substring(0, end).trim() + "\u2026";
+    }
+
+}
@@ -16,18 +16,21 @@
 package io.github.ilya_lebedev.popularmovies.utilities;
 
 import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.net.Uri;
+import android.telephony.TelephonyManager;
 import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
 
-import io.github.ilya_lebedev.popularmovies.BuildConfig;
 import io.github.ilya_lebedev.popularmovies.data.MoviesPreferences;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
  * These utilities uses to communicate with TMDb server.
@@ -36,11 +39,6 @@ public class NetworkUtils {
 
     private static final String TAG = NetworkUtils.class.getSimpleName();
 
-    private static final int TIMEOUT_CONNECT = 5000;
-    private static final int TIMEOUT_READ = 10000;
-
-    private static final String SCANNER_DELIMITER = "\\A";
-
     /* Base URL of TMDb API. */
     private static final String MOVIE_DB_BASE_URL = "https://api.themoviedb.org/3";
 
@@ -62,11 +60,8 @@ public class NetworkUtils {
     /* Page parameter */
     private static final String PAGE_PARAM = "page";
 
-    /* The API key parameter allow to access TMDb service */
-    private static final String API_KEY_PARAM = "api_key";
-
-    /* The API key value */
-    private static final String API_KEY = BuildConfig.TMDB_API_KEY;
+    /* Parameter to append sub-requests to a movie details request */
+    private static final String APPEND_TO_RESPONSE_PARAM = "append_to_response";
 
     /* Base URL of movie poster */
     private static final String MOVIE_POSTER_BASE_URL = "http://image.tmdb.org/t/p/";
@@ -85,6 +80,18 @@ public class NetworkUtils {
 
     private static final String MOVIE_POSTER_SIZE_ORIGINAL = "original";
 
+    /* Poster sizes served by TMDb and their widths in pixels, from smallest to largest */
+    private static final String[] MOVIE_POSTER_SIZES = {
+            MOVIE_POSTER_SIZE_W92,
+            MOVIE_POSTER_SIZE_W154,
+            MOVIE_POSTER_SIZE_W185,
+            MOVIE_POSTER_SIZE_W342,
+            MOVIE_POSTER_SIZE_W500,
+            MOVIE_POSTER_SIZE_W780
+    };
+
+    private static final int[] MOVIE_POSTER_WIDTHS = { 92, 154, 185, 342, 500, 780 };
+
     /* This is utility class and we don't need to instantiate it */
     private NetworkUtils() {}
 
@@ -110,49 +117,82 @@ public class NetworkUtils {
         return buildMoviesListUrl(showModePath, page);
     }
 
-    public static String getMoviePosterUrl(Context context, String posterPath) {
+    /**
+     * Builds the URL of a movie poster in the smallest size which is at least as wide
+     * as the view it is shown in, so the poster is neither upscaled nor wastes bytes.
+     *
+     * @param posterPath  Poster path as returned by TMDb API
+     * @param targetWidth Width of the view in pixels, which accounts for screen density
+     * @return The poster URL
+     */
+    public static String getMoviePosterUrl(String posterPath, int targetWidth) {
 
         Uri moviePosterUri = Uri.parse(MOVIE_POSTER_BASE_URL).buildUpon()
-                .appendPath(MOVIE_POSTER_SIZE_W185)
+                .appendPath(getMoviePosterSize(targetWidth))
                 .appendEncodedPath(posterPath)
                 .build();
 
         return moviePosterUri.toString();
     }
 
-    public static URL getMovieVideoListUrl(int movieTmdbId) {
-
-        Uri movieVideosListUri = Uri.parse(MOVIE_DB_BASE_URL).buildUpon()
-                .appendPath(MOVIE_PATH)
-                .appendPath(String.valueOf(movieTmdbId))
-                .appendPath(VIDEOS_PATH)
-                .appendQueryParameter(API_KEY_PARAM, API_KEY)
-                .build();
+    private static String getMoviePosterSize(int targetWidth) {
+        for (int i = 0; i < MOVIE_POSTER_WIDTHS.length; i++) {
+            if (MOVIE_POSTER_WIDTHS[i] >= targetWidth) {
+                return MOVIE_POSTER_SIZES[i];
+            }
+        }
+        return MOVIE_POSTER_SIZE_ORIGINAL;
+    }
 
-        try {
-            URL moviesListQueryUrl = new URL(movieVideosListUri.toString());
-            Log.v(TAG, "URL: " + moviesListQueryUrl);
-            return moviesListQueryUrl;
-        } catch (MalformedURLException ex) {
-            ex.printStackTrace();
-            return null;
+    /**
+     * Tells whether the active network is a slow one, i.e. a 2G or early 3G mobile network.
+     *
+     * @param context Used to access the ConnectivityManager
+     * @return true if the network is slow
+     */
+    public static boolean isSlowNetwork(Context context) {
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager == null
+                ? null : connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || networkInfo.getType() != ConnectivityManager.TYPE_MOBILE) {
+            return false;
         }
 
+        switch (networkInfo.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+            case TelephonyManager.NETWORK_TYPE_UMTS:
+            case TelephonyManager.NETWORK_TYPE_EVDO_0:
+            case TelephonyManager.NETWORK_TYPE_EVDO_A:
+                return true;
+            default:
+                return false;
+        }
     }
 
-    public static URL getMovieReviewListUrl(int movieTmdbId) {
+    /**
+     * Builds the URL of movie details with videos and reviews appended,
+     * so all of them are fetched in a single request.
+     *
+     * @param movieTmdbId Movie ID as returned by TMDb API
+     * @return The Url to use to query TMDb service
+     */
+    public static URL getMovieDetailUrl(int movieTmdbId) {
 
-        Uri movieReviewsListUri = Uri.parse(MOVIE_DB_BASE_URL).buildUpon()
+        Uri movieDetailUri = Uri.parse(MOVIE_DB_BASE_URL).buildUpon()
                 .appendPath(MOVIE_PATH)
                 .appendPath(String.valueOf(movieTmdbId))
-                .appendPath(REVIEWS_PATH)
-                .appendQueryParameter(API_KEY_PARAM, API_KEY)
+                .appendQueryParameter(APPEND_TO_RESPONSE_PARAM, VIDEOS_PATH + "," + REVIEWS_PATH)
                 .build();
 
         try {
-            URL moviesListQueryUrl = new URL(movieReviewsListUri.toString());
-            Log.v(TAG, "URL: " + moviesListQueryUrl);
-            return moviesListQueryUrl;
+            URL movieDetailUrl = new URL(movieDetailUri.toString());
+            Log.v(TAG, "URL: " + movieDetailUrl);
+            return movieDetailUrl;
         } catch (MalformedURLException ex) {
             ex.printStackTrace();
             return null;
@@ -172,7 +212,6 @@ public class NetworkUtils {
         Uri moviesListQueryUri = Uri.parse(MOVIE_DB_BASE_URL).buildUpon()
                 .appendPath(MOVIE_PATH)
                 .appendPath(sortOrderPath)
-                .appendQueryParameter(API_KEY_PARAM, API_KEY)
                 .appendQueryParameter(PAGE_PARAM, String.valueOf(page))
                 .build();
 
@@ -187,41 +226,70 @@ public class NetworkUtils {
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * Parses the body of an HTTP response while it is being read from the network.
+     *
+     * @param <T> Type of the parsed result
+     */
+    public interface ResponseParser<T> {
+
+        T parse(InputStream in) throws IOException;
+
+    }
+
+    /**
+     * This method fetches the HTTP response and hands its body stream to the parser.
+     * The request goes through the shared {@link TmdbHttpClient}, so the underlying
+     * connection is returned to the pool and reused by the next call, and the response
+     * may be served or revalidated from the response cache.
+     * The API key is added by the client, URLs built here never contain it.
      *
+     * @param context Used to access the shared HTTP client
      * @param url The URL to fetch the HTTP response from.
-     * @return The contents of the HTTP response, null if no response
+     * @param parser Parser of the response body
+     * @return The parsed contents of the HTTP response, null if no response
      * @throws IOException Related to network and stream reading
      */
-    public static String getResponseFromHttpUrl(URL url) throws IOException {
+    public static <T> T getResponseFromHttpUrl(Context context, URL url, ResponseParser<T> parser)
+            throws IOException {
 
-        /* Open connection for a given uri */
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-
-        /* Set connection and read timeouts */
-        urlConnection.setConnectTimeout(TIMEOUT_CONNECT);
-        urlConnection.setReadTimeout(TIMEOUT_READ);
+        Request request = new Request.Builder()
+                .url(url)
+                .build();
 
+        /* Body must be closed to let the connection go back to the pool */
+        Response response = TmdbHttpClient.getApiInstance(context).newCall(request).execute();
+        ResponseBody body = response.body();
         try {
-            /* Get a stream to read data from it */
-            InputStream inputStream = urlConnection.getInputStream();
-
-            /* Put stream inside scanner */
-            Scanner scanner = new Scanner(inputStream);
-            scanner.useDelimiter(SCANNER_DELIMITER);
-
-            /* Read data */
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
+            if (!response.isSuccessful()) {
+                throw getErrorResponseException(response, url);
             }
-            scanner.close();
-
-            return response;
+            if (body == null) {
+                return null;
+            }
+            return parser.parse(body.byteStream());
         } finally {
-            urlConnection.disconnect();
+            response.close();
+        }
+    }
+
+    /*
+     * TMDb server describes most errors with a status_code in the body, prefer it
+     * to the bare HTTP response code.
+     */
+    private static IOException getErrorResponseException(Response response, URL url) {
+        ResponseBody body = response.body();
+        if (body != null) {
+            try {
+                TmdbApiException apiException =
+                        TmdbJsonUtils.getApiExceptionFromJson(body.byteStream(), response.code());
+                if (apiException != null) {
+                    return apiException;
+                }
+            } catch (IOException | IllegalStateException e) {
+                /* Body is not a TMDb error object */
+            }
         }
+        return new IOException("Unexpected response code " + response.code() + " for " + url);
     }
 
 }
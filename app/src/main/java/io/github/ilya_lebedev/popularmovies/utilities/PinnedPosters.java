@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import android.net.Uri;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encoded posters of favorite movies, kept in app-private storage so that favorites show
+ * their posters offline. Pinned posters are not part of the poster cache, so they are
+ * never evicted, and they are served before the cache and the network. One poster is
+ * pinned per poster path, in a size large enough to be scaled down for any view.
+ */
+public class PinnedPosters {
+
+    /* Suffix of files being written, which are not pinned yet */
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+
+    /**
+     * Creates PinnedPosters.
+     *
+     * @param directory Directory of the pinned posters, owned by PinnedPosters
+     */
+    public PinnedPosters(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns the pinned poster of a poster uri in any size.
+     * Must not be called on the main thread.
+     *
+     * @param uri Poster uri, e.g. http://image.tmdb.org/t/p/w342/abc.jpg
+     * @return The encoded poster, or null if it is not pinned
+     */
+    public byte[] get(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.isEmpty()) {
+            return null;
+        }
+
+        File file = new File(mDirectory, segments.get(segments.size() - 1));
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                byte[] bytes = new byte[(int) file.length()];
+                in.readFully(bytes);
+                return bytes;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the poster of a poster path is pinned.
+     *
+     * @param posterPath Poster path as returned by TMDb API
+     * @return True if the poster is pinned
+     */
+    public boolean isPinned(String posterPath) {
+        return getFile(posterPath).isFile();
+    }
+
+    /**
+     * Pins the encoded poster of a poster path. Must not be called on the main thread.
+     *
+     * @param posterPath Poster path as returned by TMDb API
+     * @param bytes      Encoded poster
+     */
+    public void pin(String posterPath, byte[] bytes) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+
+        File file = getFile(posterPath);
+        File tempFile = new File(mDirectory, file.getName() + TEMP_FILE_SUFFIX);
+        try {
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return;
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Deletes the pinned posters of all poster paths but the given ones, together with
+     * files of interrupted pins. Must not be called on the main thread.
+     *
+     * @param posterPaths Poster paths whose posters stay pinned
+     * @return Number of deleted posters
+     */
+    public int unpinAllExcept(Set<String> posterPaths) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        Set<String> keptNames = new HashSet<>();
+        for (String posterPath : posterPaths) {
+            keptNames.add(getFile(posterPath).getName());
+        }
+
+        int unpinnedCount = 0;
+        for (File file : files) {
+            if (!keptNames.contains(file.getName()) && file.delete()
+                    && !file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                unpinnedCount++;
+            }
+        }
+        return unpinnedCount;
+    }
+
+    /* Poster paths are a slash and a file name, e.g. /abc.jpg */
+    private File getFile(String posterPath) {
+        return new File(mDirectory, Uri.parse(posterPath).getLastPathSegment());
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+import java.io.File;
+
+import io.github.ilya_lebedev.popularmovies.R;
+
+/**
+ * Two-tier cache of movie posters. Decoded posters are kept in memory within a share of
+ * the memory class of the app, and encoded posters are kept on disk across restarts,
+ * keyed by poster path and size bucket. Picasso is set up with both tiers, so every
+ * poster loaded through {@link PosterUtils} goes through them.
+ */
+public class PosterCache {
+
+    private static final String TAG = PosterCache.class.getSimpleName();
+
+    /* Directory of the poster cache, relative to the app cache directory */
+    private static final String DISK_CACHE_DIRECTORY = "posters";
+
+    /* Directory of the pinned posters of favorites, relative to the app files directory */
+    private static final String PINNED_POSTERS_DIRECTORY = "pinned_posters";
+
+    private static final long BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    private static final Object LOCK = new Object();
+
+    private static PosterMemoryCache sMemoryCache;
+
+    private static PosterDiskCache sDiskCache;
+
+    private static BitmapPool sBitmapPool;
+
+    private static PinnedPosters sPinnedPosters;
+
+    /* This is utility class and we don't need to instantiate it */
+    private PosterCache() {}
+
+    /**
+     * Return the memory tier, creating it on first use.
+     *
+     * @param context Used to access app resources and the memory class
+     * @return The shared memory cache of decoded posters
+     */
+    public static PosterMemoryCache getMemoryCache(Context context) {
+        synchronized (LOCK) {
+            if (sMemoryCache == null) {
+                Context appContext = context.getApplicationContext();
+                ActivityManager activityManager =
+                        (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+                int percent = appContext.getResources()
+                        .getInteger(R.integer.poster_memory_cache_percent);
+                long maxBytes = activityManager.getMemoryClass() * BYTES_IN_MEGABYTE
+                        * percent / 100;
+                sMemoryCache = new PosterMemoryCache((int) maxBytes, getBitmapPool(appContext));
+            }
+            return sMemoryCache;
+        }
+    }
+
+    /**
+     * Return the pool of posters to decode into, creating it on first use.
+     *
+     * @param context Used to access app resources and the memory class
+     * @return The shared bitmap pool
+     */
+    public static BitmapPool getBitmapPool(Context context) {
+        synchronized (LOCK) {
+            if (sBitmapPool == null) {
+                Context appContext = context.getApplicationContext();
+                ActivityManager activityManager =
+                        (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+                int percent = appContext.getResources()
+                        .getInteger(R.integer.poster_bitmap_pool_percent);
+                sBitmapPool = new BitmapPool(activityManager.getMemoryClass() * BYTES_IN_MEGABYTE
+                        * percent / 100);
+            }
+            return sBitmapPool;
+        }
+    }
+
+    /**
+     * Return the disk tier, creating it on first use.
+     *
+     * @param context Used to access app resources and cache directory
+     * @return The shared disk cache of encoded posters
+     */
+    public static PosterDiskCache getDiskCache(Context context) {
+        synchronized (LOCK) {
+            if (sDiskCache == null) {
+                Context appContext = context.getApplicationContext();
+                Resources resources = appContext.getResources();
+                int sizeMb = resources.getInteger(R.integer.poster_disk_cache_size_mb);
+                sDiskCache = new PosterDiskCache(
+                        new File(appContext.getCacheDir(), DISK_CACHE_DIRECTORY),
+                        sizeMb * BYTES_IN_MEGABYTE);
+            }
+            return sDiskCache;
+        }
+    }
+
+    /**
+     * Return the pinned posters of favorites, creating them on first use.
+     *
+     * @param context Used to access the app files directory
+     * @return The shared pinned posters
+     */
+    public static PinnedPosters getPinnedPosters(Context context) {
+        synchronized (LOCK) {
+            if (sPinnedPosters == null) {
+                sPinnedPosters = new PinnedPosters(new File(
+                        context.getApplicationContext().getFilesDir(), PINNED_POSTERS_DIRECTORY));
+            }
+            return sPinnedPosters;
+        }
+    }
+
+    /**
+     * Logs the counters of both tiers, if verbose logging is on.
+     *
+     * @param context Used to access the caches
+     */
+    public static void logStats(Context context) {
+        if (!Log.isLoggable(TAG, Log.VERBOSE)) {
+            return;
+        }
+        PosterMemoryCache memoryCache = getMemoryCache(context);
+        PosterDiskCache diskCache = getDiskCache(context);
+        Log.v(TAG, "Memory: " + memoryCache.getHitCount() + " hits, "
+                + memoryCache.getMissCount() + " misses, "
+                + memoryCache.getEvictionCount() + " evictions, "
+                + memoryCache.size() / 1024 + " of " + memoryCache.maxSize() / 1024 + " KB");
+        Log.v(TAG, "Disk: " + diskCache.getHitCount() + " hits, "
+                + diskCache.getMissCount() + " misses, "
+                + diskCache.getEvictionCount() + " evictions, "
+                + diskCache.getAverageReadMillis() + " ms per read, "
+                + PosterDownloader.getAverageDownloadMillis() + " ms per download");
+    }
+
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk tier of the poster cache. Keeps encoded posters as files, one per poster path and
+ * size bucket, up to a byte budget, and deletes the least recently used ones when over it.
+ * The order of use survives restarts in the modification times of the files.
+ */
+public class PosterDiskCache {
+
+    /* Suffix of files being written, which are not part of the cache yet */
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /* Sizes of the cached files by key, least recently used first, read on first use */
+    private LinkedHashMap<String, Long> mEntries;
+    private long mSize;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+    private final AtomicLong mReadMillis = new AtomicLong();
+
+    /**
+     * Creates PosterDiskCache.
+     *
+     * @param directory Directory of the cached posters, owned by the cache
+     * @param maxBytes  Budget of the cached posters in bytes
+     */
+    public PosterDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cache key of a poster uri, made of its size bucket and poster path.
+     *
+     * @param uri Poster uri, e.g. http://image.tmdb.org/t/p/w342/abc.jpg
+     * @return The key, e.g. w342_abc.jpg, or null if the uri is not a poster uri
+     */
+    public static String getKey(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2) {
+            return null;
+        }
+        return segments.get(segments.size() - 2) + "_" + segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Returns the encoded poster stored under a key and marks it as recently used.
+     * Must not be called on the main thread.
+     *
+     * @param key Cache key of the poster
+     * @return The encoded poster, or null if it is not cached
+     */
+    public byte[] get(String key) {
+        long startTime = SystemClock.elapsedRealtime();
+
+        synchronized (this) {
+            if (getEntries().get(key) == null) {
+                mMissCount.incrementAndGet();
+                return null;
+            }
+        }
+
+        File file = new File(mDirectory, key);
+        byte[] bytes;
+        try {
+            bytes = readFile(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            remove(key);
+            mMissCount.incrementAndGet();
+            return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        mHitCount.incrementAndGet();
+        mReadMillis.addAndGet(SystemClock.elapsedRealtime() - startTime);
+        return bytes;
+    }
+
+    /**
+     * Stores an encoded poster under a key and evicts the least recently used posters
+     * while the cache is over its budget. Must not be called on the main thread.
+     *
+     * @param key   Cache key of the poster
+     * @param bytes Encoded poster
+     */
+    public void put(String key, byte[] bytes) {
+        File tempFile = new File(mDirectory, key + TEMP_FILE_SUFFIX);
+        try {
+            writeFile(tempFile, bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return;
+        }
+
+        synchronized (this) {
+            if (!tempFile.renameTo(new File(mDirectory, key))) {
+                tempFile.delete();
+                return;
+            }
+            Long oldSize = getEntries().put(key, (long) bytes.length);
+            mSize += bytes.length - (oldSize != null ? oldSize : 0);
+            trimToSize();
+        }
+    }
+
+    /**
+     * Return the number of posters found on disk.
+     *
+     * @return Number of hits
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * Return the number of posters looked up on disk and not found.
+     *
+     * @return Number of misses
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Return the number of posters deleted to stay within the budget.
+     *
+     * @return Number of evictions
+     */
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    /**
+     * Return the average time of reading a cached poster.
+     *
+     * @return Average read time in milliseconds
+     */
+    public long getAverageReadMillis() {
+        long hitCount = mHitCount.get();
+        return hitCount == 0 ? 0 : mReadMillis.get() / hitCount;
+    }
+
+    private synchronized void remove(String key) {
+        Long size = getEntries().remove(key);
+        if (size != null) {
+            mSize -= size;
+        }
+        new File(mDirectory, key).delete();
+    }
+
+    /* Must be called while holding the lock */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            new File(mDirectory, entry.getKey()).delete();
+            mSize -= entry.getValue();
+            iterator.remove();
+            mEvictionCount.incrementAndGet();
+        }
+    }
+
+    /* Must be called while holding the lock */
+    private LinkedHashMap<String, Long> getEntries() {
+        if (mEntries != null) {
+            return mEntries;
+        }
+
+        mEntries = new LinkedHashMap<>(16, 0.75f, true);
+        mSize = 0;
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return mEntries;
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return mEntries;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long firstModified = first.lastModified();
+                long secondModified = second.lastModified();
+                return firstModified < secondModified ? -1 : (firstModified == secondModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            /* Writes interrupted by the process death */
+            if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            mEntries.put(file.getName(), file.length());
+            mSize += file.length();
+        }
+        trimToSize();
+        return mEntries;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.squareup.picasso.Downloader;
+import com.squareup.picasso.NetworkPolicy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+
+/**
+ * Picasso {@link Downloader} that loads movie posters through the shared {@link TmdbHttpClient},
+ * so poster requests to image.tmdb.org reuse pooled keep-alive connections.
+ * Pinned posters of favorites are served first, then posters are looked up in the disk
+ * tier of {@link PosterCache}, and downloaded posters are stored there.
+ */
+public class PosterDownloader implements Downloader {
+
+    /* Status code of a poster that is not cached when the network must not be used */
+    private static final int HTTP_GATEWAY_TIMEOUT = 504;
+
+    private static final AtomicLong sDownloadCount = new AtomicLong();
+    private static final AtomicLong sDownloadMillis = new AtomicLong();
+
+    private final Context mContext;
+
+    /**
+     * Creates PosterDownloader.
+     *
+     * @param context Used to access the shared HTTP client and the poster cache
+     */
+    public PosterDownloader(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Return the average time of downloading a poster from the network.
+     *
+     * @return Average download time in milliseconds
+     */
+    public static long getAverageDownloadMillis() {
+        long downloadCount = sDownloadCount.get();
+        return downloadCount == 0 ? 0 : sDownloadMillis.get() / downloadCount;
+    }
+
+    @Override
+    public Response load(Uri uri, int networkPolicy) throws IOException {
+        Poster poster = loadPoster(uri, networkPolicy);
+        return new Response(new ByteArrayInputStream(poster.bytes), poster.isCached,
+                poster.bytes.length);
+    }
+
+    /**
+     * Loads an encoded poster from the pinned posters, the disk cache or the network.
+     *
+     * @param uri           Poster uri
+     * @param networkPolicy Picasso network policy of the request
+     * @return The encoded poster
+     * @throws IOException If the poster could not be loaded
+     */
+    public Poster loadPoster(Uri uri, int networkPolicy) throws IOException {
+        byte[] pinnedBytes = PosterCache.getPinnedPosters(mContext).get(uri);
+        if (pinnedBytes != null) {
+            return new Poster(pinnedBytes, true);
+        }
+
+        PosterDiskCache diskCache = PosterCache.getDiskCache(mContext);
+        String key = PosterDiskCache.getKey(uri);
+
+        if (key != null && NetworkPolicy.shouldReadFromDiskCache(networkPolicy)) {
+            byte[] bytes = diskCache.get(key);
+            if (bytes != null) {
+                return new Poster(bytes, true);
+            }
+        }
+
+        if (NetworkPolicy.isOfflineOnly(networkPolicy)) {
+            throw new ResponseException(HTTP_GATEWAY_TIMEOUT + " Poster is not cached",
+                    networkPolicy, HTTP_GATEWAY_TIMEOUT);
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+
+        Request request = new Request.Builder()
+                .url(uri.toString())
+                .build();
+
+        okhttp3.Response response = TmdbHttpClient.getInstance(mContext).newCall(request).execute();
+        ResponseBody body = response.body();
+
+        if (!response.isSuccessful() || body == null) {
+            response.close();
+            throw new ResponseException(response.code() + " " + response.message(),
+                    networkPolicy, response.code());
+        }
+
+        /* Posters are small, so they are read whole to be stored and decoded */
+        byte[] bytes;
+        try {
+            bytes = body.bytes();
+        } finally {
+            response.close();
+        }
+
+        sDownloadCount.incrementAndGet();
+        sDownloadMillis.addAndGet(SystemClock.elapsedRealtime() - startTime);
+
+        if (key != null && NetworkPolicy.shouldWriteToDiskCache(networkPolicy)) {
+            diskCache.put(key, bytes);
+        }
+
+        return new Poster(bytes, false);
+    }
+
+    @Override
+    public void shutdown() {
+        /* The client is shared with TMDb API calls, so it stays open */
+    }
+
+    /**
+     * Encoded poster and where it was loaded from.
+     */
+    public static class Poster {
+
+        public final byte[] bytes;
+        public final boolean isCached;
+
+        Poster(byte[] bytes, boolean isCached) {
+            this.bytes = bytes;
+            this.isCached = isCached;
+        }
+
+    }
+
+}
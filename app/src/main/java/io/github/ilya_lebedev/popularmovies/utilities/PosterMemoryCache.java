@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import com.squareup.picasso.Cache;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory tier of the poster cache. Holds decoded posters up to a byte budget and evicts
+ * the least recently used ones, counting hits, misses and evictions. Posters leaving
+ * the cache are handed to the {@link BitmapPool}, which reuses them once no view shows them.
+ */
+public class PosterMemoryCache implements Cache {
+
+    /* Separates the uri from the decoding options in keys made by Picasso */
+    private static final char KEY_SEPARATOR = '\n';
+
+    private final LruCache<String, Bitmap> mCache;
+
+    private final BitmapPool mBitmapPool;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    /**
+     * Creates PosterMemoryCache.
+     *
+     * @param maxBytes   Budget of the decoded posters in bytes
+     * @param bitmapPool Pool which receives the posters leaving the cache
+     */
+    public PosterMemoryCache(int maxBytes, BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                                        Bitmap newValue) {
+                if (evicted) {
+                    mEvictionCount.incrementAndGet();
+                }
+                if (oldValue != newValue) {
+                    mBitmapPool.onUncached(oldValue);
+                }
+            }
+        };
+    }
+
+    /*
+     * Looked up under the lock of the pool, so an eviction on another thread either
+     * happens before and misses, or sees the poster taken and does not pool it.
+     */
+    @Override
+    public Bitmap get(String key) {
+        Bitmap bitmap;
+        synchronized (mBitmapPool) {
+            bitmap = mCache.get(key);
+            if (bitmap != null) {
+                mBitmapPool.onTaken(bitmap);
+            }
+        }
+        if (bitmap != null) {
+            mHitCount.incrementAndGet();
+        } else {
+            mMissCount.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    @Override
+    public void set(String key, Bitmap bitmap) {
+        mBitmapPool.onCached(bitmap);
+        mCache.put(key, bitmap);
+    }
+
+    @Override
+    public int size() {
+        return mCache.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    @Override
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public void clearKeyUri(String uri) {
+        int uriLength = uri.length();
+        for (Map.Entry<String, Bitmap> entry : mCache.snapshot().entrySet()) {
+            String key = entry.getKey();
+            if (key.startsWith(uri) && key.length() > uriLength
+                    && key.charAt(uriLength) == KEY_SEPARATOR) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Return the number of posters found in memory.
+     *
+     * @return Number of hits
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * Return the number of posters looked up in memory and not found.
+     *
+     * @return Number of misses
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Return the number of posters dropped to stay within the budget.
+     *
+     * @return Number of evictions
+     */
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Request;
+import com.squareup.picasso.RequestHandler;
+
+import java.io.IOException;
+
+/**
+ * Picasso {@link RequestHandler} that decodes movie posters straight to the width they are
+ * shown at, into bitmaps from the {@link BitmapPool} where possible. Poster uris carry
+ * the target width in a query parameter added by {@link PosterUtils}, which is dropped
+ * before the poster is loaded by {@link PosterDownloader}.
+ */
+public class PosterRequestHandler extends RequestHandler {
+
+    /* Query parameter with the width in pixels the poster is decoded to */
+    static final String PARAM_TARGET_WIDTH = "target_width";
+
+    private final Context mContext;
+    private final PosterDownloader mDownloader;
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * Creates PosterRequestHandler.
+     *
+     * @param context    Used to access the display density
+     * @param downloader Loads the encoded posters
+     * @param bitmapPool Pool of bitmaps to decode into
+     */
+    public PosterRequestHandler(Context context, PosterDownloader downloader,
+                                BitmapPool bitmapPool) {
+        mContext = context.getApplicationContext();
+        mDownloader = downloader;
+        mBitmapPool = bitmapPool;
+    }
+
+    @Override
+    public boolean canHandleRequest(Request data) {
+        return data.uri != null && data.uri.getQueryParameter(PARAM_TARGET_WIDTH) != null;
+    }
+
+    @Override
+    public Result load(Request request, int networkPolicy) throws IOException {
+        int targetWidth;
+        try {
+            targetWidth = Integer.parseInt(request.uri.getQueryParameter(PARAM_TARGET_WIDTH));
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad poster target width: " + request.uri);
+        }
+        Uri posterUri = request.uri.buildUpon().clearQuery().build();
+
+        PosterDownloader.Poster poster = mDownloader.loadPoster(posterUri, networkPolicy);
+
+        Bitmap.Config config = request.config != null ? request.config : Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = decode(poster.bytes, targetWidth, config);
+        if (bitmap == null) {
+            throw new IOException("Failed to decode poster: " + posterUri);
+        }
+
+        return new Result(bitmap,
+                poster.isCached ? Picasso.LoadedFrom.DISK : Picasso.LoadedFrom.NETWORK);
+    }
+
+    /*
+     * Posters are subsampled by a power of two while they stay at least as wide as
+     * the target, and the rest is scaled by the decoder itself through the densities.
+     */
+    private Bitmap decode(byte[] bytes, int targetWidth, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (targetWidth > 0 && options.outWidth / (sampleSize * 2) >= targetWidth) {
+            sampleSize *= 2;
+        }
+        int sampledWidth = options.outWidth / sampleSize;
+        int sampledHeight = options.outHeight / sampleSize;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+
+        int width = sampledWidth;
+        int height = sampledHeight;
+        if (targetWidth > 0 && targetWidth < sampledWidth) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = targetWidth;
+            width = targetWidth;
+            height = (int) (sampledHeight * targetWidth / (float) sampledWidth + 0.5f);
+        }
+
+        /* Before KitKat a bitmap can be decoded into only without subsampling and scaling */
+        Bitmap pooled = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            pooled = mBitmapPool.get(width, height, config);
+            options.inBitmap = pooled;
+        }
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        } catch (IllegalArgumentException e) {
+            /* The pooled bitmap does not fit after all */
+            e.printStackTrace();
+            if (pooled != null) {
+                mBitmapPool.putBack(pooled);
+            }
+            pooled = null;
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        }
+        if (bitmap == null) {
+            if (pooled != null) {
+                mBitmapPool.putBack(pooled);
+            }
+            return null;
+        }
+
+        /* Scaled decoding sets the target width as density, it is shown at the display one */
+        bitmap.setDensity(mContext.getResources().getDisplayMetrics().densityDpi);
+
+        mBitmapPool.recordDecode(bitmap, pooled != null && bitmap == pooled);
+        return bitmap;
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import com.squareup.picasso.Callback;
+import com.squareup.picasso.NetworkPolicy;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+
+import io.github.ilya_lebedev.popularmovies.R;
+
+/**
+ * PosterUtils
+ */
+public class PosterUtils {
+
+    private static final String TAG = PosterUtils.class.getSimpleName();
+
+    /* Width of the poster shown first on slow networks, until the full size one arrives */
+    private static final int PREVIEW_POSTER_WIDTH = 92;
+
+    /* Number of poster binds between two logs of decoding statistics */
+    private static final int BINDS_PER_DECODE_STATS = 1000;
+
+    /* Poster binds and the ones served from the memory cache, updated on the main thread */
+    private static int sBindCount;
+    private static int sWarmBindCount;
+
+    /* Decoding statistics at the previous log */
+    private static long sLastAllocatedBytes;
+    private static long sLastAllocationCount;
+    private static long sLastReuseCount;
+    private static long sLastGcCount;
+
+    /* This is utility class and we don't need to instantiate it */
+    private PosterUtils() {}
+
+    /**
+     * Loads a movie poster into a view in the size which fits the view. A view which is
+     * not laid out yet gets its poster once its width is known. On slow networks a small
+     * poster is shown first and then replaced by the full size one.
+     *
+     * @param posterView View to show the poster in
+     * @param posterPath Poster path as returned by TMDb API
+     */
+    public static void loadPoster(ImageView posterView, String posterPath) {
+        loadPoster(posterView, posterPath, null);
+    }
+
+    /**
+     * Loads a movie poster into a grid cell like {@link #loadPoster(ImageView, String)}.
+     * Thumbnails are decoded with less color precision if the app opts in to it,
+     * which halves their memory.
+     *
+     * @param posterView View to show the poster in
+     * @param posterPath Poster path as returned by TMDb API
+     */
+    public static void loadThumbnail(ImageView posterView, String posterPath) {
+        loadPoster(posterView, posterPath, getThumbnailConfig(posterView.getContext()));
+    }
+
+    /**
+     * Warms the poster caches with a thumbnail at the width it will be shown in.
+     * The poster is downloaded and decoded off the main thread.
+     *
+     * @param context    Used to access Picasso
+     * @param posterPath Poster path as returned by TMDb API
+     * @param width      Width of the view the poster will be shown in
+     * @param tag        Tag by which the prefetch can be cancelled
+     * @param callback   Called once the poster is cached or failed
+     */
+    public static void prefetchThumbnail(Context context, String posterPath, int width,
+                                         Object tag, Callback callback) {
+        createRequest(Picasso.with(context), posterPath, width, getThumbnailConfig(context))
+                .priority(Picasso.Priority.LOW)
+                .tag(tag)
+                .fetch(callback);
+    }
+
+    /**
+     * Returns the number of posters requested for views since the app started.
+     *
+     * @return The number of poster binds
+     */
+    public static int getBindCount() {
+        return sBindCount;
+    }
+
+    /**
+     * Returns the number of posters which were shown at once from the memory cache,
+     * e.g. because they were prefetched, since the app started.
+     *
+     * @return The number of warm poster binds
+     */
+    public static int getWarmBindCount() {
+        return sWarmBindCount;
+    }
+
+    private static void loadPoster(final ImageView posterView, final String posterPath,
+                                   final Bitmap.Config config) {
+        posterView.setTag(R.id.tag_poster_path, posterPath);
+
+        /* A poster requested for a previous binding of the view must not show up meanwhile */
+        Picasso.with(posterView.getContext()).cancelRequest(posterView);
+        hidePoster(posterView);
+
+        if (posterPath == null) {
+            return;
+        }
+
+        if (posterView.getWidth() > 0) {
+            loadPosterWithWidth(posterView, posterPath, posterView.getWidth(), config);
+            return;
+        }
+
+        posterView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        ViewTreeObserver observer = posterView.getViewTreeObserver();
+                        if (observer.isAlive()) {
+                            observer.removeOnPreDrawListener(this);
+                        }
+
+                        /* The view may have been bound to another movie before its layout */
+                        if (posterPath.equals(posterView.getTag(R.id.tag_poster_path))) {
+                            loadPosterWithWidth(posterView, posterPath, posterView.getWidth(),
+                                    config);
+                        }
+                        return true;
+                    }
+                });
+    }
+
+    private static void loadPosterWithWidth(final ImageView posterView, final String posterPath,
+                                            final int width, final Bitmap.Config config) {
+        final Context context = posterView.getContext();
+        final Picasso picasso = Picasso.with(context);
+
+        sBindCount++;
+        if (sBindCount % BINDS_PER_DECODE_STATS == 0 && Log.isLoggable(TAG, Log.VERBOSE)) {
+            logDecodeStats(context);
+        }
+
+        if (width <= PREVIEW_POSTER_WIDTH || !NetworkUtils.isSlowNetwork(context)) {
+            BindCallback callback = new BindCallback(posterView);
+            callback.mIsBinding = true;
+            createRequest(picasso, posterPath, width, config).into(posterView, callback);
+            callback.mIsBinding = false;
+            return;
+        }
+
+        /*
+         * A cached poster is shown without a preview, otherwise the full size request replaces
+         * the preview one on the same view. A new binding of the view cancels both, so
+         * a recycled view never gets the poster of another movie.
+         */
+        BindCallback callback = new BindCallback(posterView) {
+            @Override
+            public void onError() {
+                loadPreviewFirst(picasso, posterView, posterPath, width, config);
+            }
+        };
+        callback.mIsBinding = true;
+        createRequest(picasso, posterPath, width, config)
+                .networkPolicy(NetworkPolicy.OFFLINE)
+                .into(posterView, callback);
+        callback.mIsBinding = false;
+    }
+
+    private static void loadPreviewFirst(final Picasso picasso, final ImageView posterView,
+                                         final String posterPath, final int width,
+                                         final Bitmap.Config config) {
+        createRequest(picasso, posterPath, PREVIEW_POSTER_WIDTH, config)
+                .into(posterView, new BindCallback(posterView) {
+                    @Override
+                    public void onSuccess() {
+                        super.onSuccess();
+                        final Bitmap preview = getShownBitmap(posterView);
+                        /* No cross-fade, it would keep drawing the preview after its release */
+                        createRequest(picasso, posterPath, width, config)
+                                .noPlaceholder()
+                                .noFade()
+                                .into(posterView, new BindCallback(posterView) {
+                                    @Override
+                                    public void onSuccess() {
+                                        super.onSuccess();
+                                        if (preview != null) {
+                                            PosterCache.getBitmapPool(posterView.getContext())
+                                                    .onHidden(preview);
+                                        }
+                                    }
+                                });
+                    }
+
+                    @Override
+                    public void onError() {
+                        createRequest(picasso, posterPath, width, config)
+                                .into(posterView, new BindCallback(posterView));
+                    }
+                });
+    }
+
+    /*
+     * Poster uris carry the width they are decoded to, so posters of one size bucket
+     * shown at different widths are cached apart.
+     */
+    private static RequestCreator createRequest(Picasso picasso, String posterPath, int width,
+                                                Bitmap.Config config) {
+        Uri posterUri = Uri.parse(NetworkUtils.getMoviePosterUrl(posterPath, width)).buildUpon()
+                .appendQueryParameter(PosterRequestHandler.PARAM_TARGET_WIDTH,
+                        Integer.toString(width))
+                .build();
+        RequestCreator request = picasso.load(posterUri);
+        if (config != null) {
+            request.config(config);
+        }
+        return request;
+    }
+
+    private static Bitmap.Config getThumbnailConfig(Context context) {
+        return context.getResources().getBoolean(R.bool.poster_thumbnail_rgb_565)
+                ? Bitmap.Config.RGB_565
+                : null;
+    }
+
+    /* Clears the view and lets the bitmap pool know the view no longer shows its poster */
+    private static void hidePoster(ImageView posterView) {
+        Bitmap bitmap = getShownBitmap(posterView);
+        posterView.setImageDrawable(null);
+        if (bitmap != null) {
+            PosterCache.getBitmapPool(posterView.getContext()).onHidden(bitmap);
+        }
+    }
+
+    private static Bitmap getShownBitmap(ImageView posterView) {
+        Drawable drawable = posterView.getDrawable();
+        return drawable instanceof BitmapDrawable ? ((BitmapDrawable) drawable).getBitmap() : null;
+    }
+
+    /* Allocation and garbage collection while binding the last posters */
+    private static void logDecodeStats(Context context) {
+        BitmapPool bitmapPool = PosterCache.getBitmapPool(context);
+        long allocatedBytes = bitmapPool.getAllocatedBytes();
+        long allocationCount = bitmapPool.getAllocationCount();
+        long reuseCount = bitmapPool.getReuseCount();
+
+        String message = "Per " + BINDS_PER_DECODE_STATS + " poster binds: "
+                + (allocatedBytes - sLastAllocatedBytes) / 1024 + " KB of bitmaps allocated by "
+                + (allocationCount - sLastAllocationCount) + " decodes, "
+                + (reuseCount - sLastReuseCount) + " decodes into pooled bitmaps";
+
+        /* Runtime statistics are available since Marshmallow */
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            /* The statistic is null when the runtime doesn't report it */
+            String gcCountStat = Debug.getRuntimeStat("art.gc.gc-count");
+            if (gcCountStat != null) {
+                long gcCount = Long.parseLong(gcCountStat);
+                message += ", " + (gcCount - sLastGcCount) + " garbage collections";
+                sLastGcCount = gcCount;
+            }
+        }
+
+        Log.v(TAG, message);
+        sLastAllocatedBytes = allocatedBytes;
+        sLastAllocationCount = allocationCount;
+        sLastReuseCount = reuseCount;
+    }
+
+    /*
+     * Lets the bitmap pool know the view shows its poster. Picasso calls back at once,
+     * on the calling thread, only when the poster is in the memory cache, so the bind
+     * is counted as warm then.
+     */
+    private static class BindCallback implements Callback {
+
+        private final ImageView mPosterView;
+
+        /* Set while the view is bound, only the first request of a bind may count as warm */
+        boolean mIsBinding;
+
+        BindCallback(ImageView posterView) {
+            mPosterView = posterView;
+        }
+
+        @Override
+        public void onSuccess() {
+            if (mIsBinding) {
+                sWarmBindCount++;
+            }
+            Bitmap bitmap = getShownBitmap(mPosterView);
+            if (bitmap != null) {
+                PosterCache.getBitmapPool(mPosterView.getContext()).onShown(bitmap);
+            }
+        }
+
+        @Override
+        public void onError() {
+        }
+
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Client-side token bucket rate limiter. Installed as a network interceptor, so only
+ * requests which actually go to the network take a token, cache hits are free.
+ */
+class RateLimitInterceptor implements Interceptor {
+
+    private final double mCapacity;
+    private final double mTokensPerMillisecond;
+
+    private double mTokens;
+    private long mLastRefillTime;
+
+    /**
+     * Creates RateLimitInterceptor.
+     *
+     * @param capacity         Maximum burst of requests
+     * @param requestsPerSecond Sustained request rate
+     */
+    RateLimitInterceptor(int capacity, double requestsPerSecond) {
+        mCapacity = capacity;
+        mTokensPerMillisecond = requestsPerSecond / 1000;
+        mTokens = capacity;
+        mLastRefillTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        long waitMillis = reserveToken();
+        if (waitMillis > 0) {
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for rate limiter");
+            }
+        }
+        return chain.proceed(chain.request());
+    }
+
+    /*
+     * Takes a token and returns how long the caller has to wait for it. Tokens may go
+     * below zero, so waiting callers are served in the order they came.
+     */
+    private synchronized long reserveToken() {
+        long now = System.currentTimeMillis();
+        mTokens = Math.min(mCapacity, mTokens + (now - mLastRefillTime) * mTokensPerMillisecond);
+        mLastRefillTime = now;
+
+        mTokens -= 1;
+
+        if (mTokens >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-mTokens / mTokensPerMillisecond);
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Retries failed requests with exponential backoff and full jitter, and guards each host
+ * with a {@link CircuitBreaker}. Connection errors and 5xx responses are retried after a
+ * backoff delay, 429 responses after the delay the server asks for in Retry-After.
+ */
+class RetryInterceptor implements Interceptor {
+
+    private static final String TAG = RetryInterceptor.class.getSimpleName();
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    private final int mMaxAttempts;
+    private final long mBaseBackoffMillis;
+    private final long mMaxBackoffMillis;
+
+    /* Requests told to wait longer than this are not retried */
+    private final long mMaxRetryAfterMillis;
+
+    private final int mCircuitFailureThreshold;
+    private final long mCircuitOpenMillis;
+
+    private final ConcurrentHashMap<String, CircuitBreaker> mCircuitBreakers =
+            new ConcurrentHashMap<>();
+
+    private final Random mRandom = new Random();
+
+    /**
+     * Creates RetryInterceptor.
+     *
+     * @param maxAttempts             Attempts of a request, including the first one
+     * @param baseBackoffMillis       Backoff ceiling after the first failed attempt
+     * @param maxBackoffMillis        Backoff ceiling after any failed attempt
+     * @param maxRetryAfterMillis     Longest Retry-After delay which is still waited for
+     * @param circuitFailureThreshold Consecutive failures which open the circuit of a host
+     * @param circuitOpenMillis       Time the circuit of a host stays open
+     */
+    RetryInterceptor(int maxAttempts, long baseBackoffMillis, long maxBackoffMillis,
+                     long maxRetryAfterMillis, int circuitFailureThreshold,
+                     long circuitOpenMillis) {
+        mMaxAttempts = maxAttempts;
+        mBaseBackoffMillis = baseBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+        mMaxRetryAfterMillis = maxRetryAfterMillis;
+        mCircuitFailureThreshold = circuitFailureThreshold;
+        mCircuitOpenMillis = circuitOpenMillis;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String host = request.url().host();
+        CircuitBreaker circuitBreaker = getCircuitBreaker(host);
+
+        for (int attempt = 1; ; attempt++) {
+            if (!circuitBreaker.allowRequest()) {
+                throw new IOException("Circuit is open for " + host);
+            }
+
+            Response response = null;
+            boolean isFailureRecorded = false;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                /* Calls the app cancelled itself, e.g. pages after a failed one, say nothing */
+                if (isCancelled(chain, e)) {
+                    throw e;
+                }
+                circuitBreaker.recordFailure();
+                isFailureRecorded = true;
+                if (attempt >= mMaxAttempts) {
+                    throw e;
+                }
+                sleep(getBackoffMillis(attempt));
+                continue;
+            } finally {
+                /* A trial without an outcome must not keep the half-open circuit closed */
+                if (response == null && !isFailureRecorded) {
+                    circuitBreaker.recordAbandoned();
+                }
+            }
+
+            int code = response.code();
+            if (code != HTTP_TOO_MANY_REQUESTS && code < HTTP_SERVER_ERROR) {
+                circuitBreaker.recordSuccess();
+                return response;
+            }
+
+            long delayMillis;
+            if (code == HTTP_TOO_MANY_REQUESTS) {
+                /* The host is alive, it only asks to slow down */
+                circuitBreaker.recordSuccess();
+                delayMillis = getRetryAfterMillis(response, attempt);
+            } else {
+                circuitBreaker.recordFailure();
+                delayMillis = getBackoffMillis(attempt);
+            }
+
+            if (attempt >= mMaxAttempts || delayMillis > mMaxRetryAfterMillis) {
+                return response;
+            }
+
+            Log.w(TAG, "HTTP " + code + " from " + host + ", retry in " + delayMillis + " ms");
+            response.close();
+            sleep(delayMillis);
+        }
+    }
+
+    /*
+     * Cancelled calls and interrupted threads end with an interrupted I/O too, but unlike
+     * a timeout it is not the host which failed.
+     */
+    private static boolean isCancelled(Chain chain, IOException e) {
+        return chain.call().isCanceled()
+                || (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException));
+    }
+
+    private CircuitBreaker getCircuitBreaker(String host) {
+        CircuitBreaker circuitBreaker = mCircuitBreakers.get(host);
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker(mCircuitFailureThreshold, mCircuitOpenMillis);
+            CircuitBreaker previous = mCircuitBreakers.putIfAbsent(host, circuitBreaker);
+            if (previous != null) {
+                circuitBreaker = previous;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    /*
+     * Exponential backoff with full jitter: a random delay up to base * 2^(attempt - 1).
+     */
+    private long getBackoffMillis(int attempt) {
+        long ceiling = Math.min(mMaxBackoffMillis, mBaseBackoffMillis << (attempt - 1));
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * ceiling);
+        }
+    }
+
+    /*
+     * Retry-After is either a number of seconds or an HTTP date.
+     */
+    private long getRetryAfterMillis(Response response, int attempt) {
+        String retryAfter = response.header(HEADER_RETRY_AFTER);
+        if (retryAfter == null) {
+            return getBackoffMillis(attempt);
+        }
+
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            Date retryDate = response.headers().getDate(HEADER_RETRY_AFTER);
+            if (retryDate == null) {
+                return getBackoffMillis(attempt);
+            }
+            return Math.max(0, retryDate.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for retry");
+        }
+    }
+
+}
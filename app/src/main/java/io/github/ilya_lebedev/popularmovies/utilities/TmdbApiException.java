@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import java.io.IOException;
+
+/**
+ * Signals an error reported by TMDb server with a status_code in the response body.
+ */
+public class TmdbApiException extends IOException {
+
+    /* Status codes of TMDb API errors */
+    public static final int STATUS_CODE_INVALID_API_KEY = 7;
+    public static final int STATUS_CODE_REQUEST_LIMIT_EXCEEDED = 25;
+    public static final int STATUS_CODE_NOT_FOUND = 34;
+
+    private final int mHttpCode;
+    private final int mStatusCode;
+
+    /**
+     * Creates TmdbApiException.
+     *
+     * @param httpCode      HTTP response code, or 0 if unknown
+     * @param statusCode    TMDb status_code
+     * @param statusMessage TMDb status_message
+     */
+    public TmdbApiException(int httpCode, int statusCode, String statusMessage) {
+        super("TMDb error " + statusCode + " (HTTP " + httpCode + "): " + statusMessage);
+        mHttpCode = httpCode;
+        mStatusCode = statusCode;
+    }
+
+    public int getHttpCode() {
+        return mHttpCode;
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.ilya_lebedev.popularmovies.BuildConfig;
+import io.github.ilya_lebedev.popularmovies.R;
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Shared HTTP transport for both TMDb hosts (api.themoviedb.org and image.tmdb.org).
+ * Connections are kept alive in a bounded pool and reused between calls instead of
+ * paying a new TCP and TLS handshake for every request.
+ *
+ * API responses are stored in a size-bounded on-disk cache which honours Cache-Control
+ * and Expires, and stale entries are revalidated with conditional requests.
+ * The API key is only added to a request on its way to the network, so it is never
+ * part of a cache key and rotating the key does not invalidate the cache.
+ *
+ * API calls are retried with backoff, guarded by a per-host circuit breaker and
+ * throttled by a client-side rate limiter.
+ */
+public class TmdbHttpClient {
+
+    private static final String TAG = TmdbHttpClient.class.getSimpleName();
+
+    private static final int TIMEOUT_CONNECT = 5000;
+    private static final int TIMEOUT_READ = 10000;
+
+    /* Directory of the API response cache, relative to the app cache directory */
+    private static final String API_CACHE_DIRECTORY = "tmdb-api";
+
+    private static final long BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    /* The API key parameter allow to access TMDb service */
+    private static final String API_KEY_PARAM = "api_key";
+
+    /* The API key value */
+    private static final String API_KEY = BuildConfig.TMDB_API_KEY;
+
+    private static final Object LOCK = new Object();
+
+    /* Client for images, holds the connection pool */
+    private static OkHttpClient sClient;
+
+    /* Client for TMDb API calls, shares the pool and adds response cache */
+    private static OkHttpClient sApiClient;
+
+    private static Cache sApiCache;
+
+    private static final AtomicLong sConditionalRequestCount = new AtomicLong();
+    private static final AtomicLong sNotModifiedCount = new AtomicLong();
+
+    /* Connection statistics per host */
+    private static final ConcurrentHashMap<String, HostStats> sHostStats = new ConcurrentHashMap<>();
+
+    /* This is utility class and we don't need to instantiate it */
+    private TmdbHttpClient() {}
+
+    /**
+     * Return the shared client for image downloads, creating it on first use.
+     *
+     * @param context Used to access app resources
+     * @return The shared OkHttpClient
+     */
+    public static OkHttpClient getInstance(Context context) {
+        synchronized (LOCK) {
+            if (sClient == null) {
+                sClient = buildClient(context.getApplicationContext());
+            }
+            return sClient;
+        }
+    }
+
+    /**
+     * Return the shared client for TMDb API calls, creating it on first use.
+     * It uses the same connection pool as {@link #getInstance(Context)}.
+     *
+     * @param context Used to access app resources and cache directory
+     * @return The shared OkHttpClient with response cache
+     */
+    public static OkHttpClient getApiInstance(Context context) {
+        synchronized (LOCK) {
+            if (sApiClient == null) {
+                Context appContext = context.getApplicationContext();
+                Resources resources = appContext.getResources();
+                int cacheSizeMb = resources.getInteger(R.integer.http_api_cache_size_mb);
+                sApiCache = new Cache(new File(appContext.getCacheDir(), API_CACHE_DIRECTORY),
+                        cacheSizeMb * BYTES_IN_MEGABYTE);
+                sApiClient = getInstance(appContext).newBuilder()
+                        .cache(sApiCache)
+                        .addInterceptor(buildRetryInterceptor(resources))
+                        .addNetworkInterceptor(new RateLimitInterceptor(
+                                resources.getInteger(R.integer.http_rate_limit_burst),
+                                resources.getInteger(R.integer.http_rate_limit_per_second)))
+                        .addNetworkInterceptor(new ApiKeyInterceptor())
+                        .build();
+            }
+            return sApiClient;
+        }
+    }
+
+    private static RetryInterceptor buildRetryInterceptor(Resources resources) {
+        return new RetryInterceptor(
+                resources.getInteger(R.integer.http_retry_max_attempts),
+                resources.getInteger(R.integer.http_retry_base_backoff_ms),
+                resources.getInteger(R.integer.http_retry_max_backoff_ms),
+                TimeUnit.SECONDS.toMillis(
+                        resources.getInteger(R.integer.http_retry_max_retry_after_seconds)),
+                resources.getInteger(R.integer.http_circuit_failure_threshold),
+                TimeUnit.SECONDS.toMillis(
+                        resources.getInteger(R.integer.http_circuit_open_seconds)));
+    }
+
+    private static OkHttpClient buildClient(Context context) {
+        Resources resources = context.getResources();
+        int maxIdleConnections = resources.getInteger(R.integer.http_pool_max_idle_connections);
+        int keepAliveSeconds = resources.getInteger(R.integer.http_pool_keep_alive_seconds);
+
+        ConnectionPool connectionPool =
+                new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS);
+
+        return new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .connectTimeout(TIMEOUT_CONNECT, TimeUnit.MILLISECONDS)
+                .readTimeout(TIMEOUT_READ, TimeUnit.MILLISECONDS)
+                .eventListenerFactory(new EventListener.Factory() {
+                    @Override
+                    public EventListener create(Call call) {
+                        return new ConnectionCountingListener();
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Return the number of new connections established to a given host. Route attempts
+     * which failed to connect are not counted.
+     *
+     * @param host Host name, e.g. api.themoviedb.org
+     * @return Number of new connections
+     */
+    public static long getConnectCount(String host) {
+        HostStats stats = sHostStats.get(host);
+        return stats == null ? 0 : stats.connects.get();
+    }
+
+    /**
+     * Return the number of TLS handshakes performed with a given host.
+     *
+     * @param host Host name, e.g. api.themoviedb.org
+     * @return Number of TLS handshakes
+     */
+    public static long getTlsHandshakeCount(String host) {
+        HostStats stats = sHostStats.get(host);
+        return stats == null ? 0 : stats.tlsHandshakes.get();
+    }
+
+    /**
+     * Return the number of calls to a given host that were served by a pooled connection.
+     *
+     * @param host Host name, e.g. api.themoviedb.org
+     * @return Number of reused connections
+     */
+    public static long getReuseCount(String host) {
+        HostStats stats = sHostStats.get(host);
+        return stats == null ? 0 : stats.reuses.get();
+    }
+
+    /**
+     * Return the number of API requests served from the response cache without
+     * touching the network.
+     *
+     * @return Number of cache hits
+     */
+    public static long getCacheHitCount() {
+        Cache cache = sApiCache;
+        return cache == null ? 0 : cache.hitCount();
+    }
+
+    /**
+     * Return the number of API requests which went to the network, including
+     * conditional requests.
+     *
+     * @return Number of cache misses
+     */
+    public static long getCacheMissCount() {
+        Cache cache = sApiCache;
+        return cache == null ? 0 : cache.networkCount();
+    }
+
+    /**
+     * Return the number of conditional API requests, i.e. revalidations of stale
+     * cached responses.
+     *
+     * @return Number of revalidations
+     */
+    public static long getRevalidationCount() {
+        return sConditionalRequestCount.get();
+    }
+
+    /**
+     * Return the number of revalidations answered with 304 Not Modified.
+     *
+     * @return Number of successful revalidations
+     */
+    public static long getNotModifiedCount() {
+        return sNotModifiedCount.get();
+    }
+
+    /**
+     * Reset all connection statistics.
+     */
+    public static void resetStats() {
+        sHostStats.clear();
+        sConditionalRequestCount.set(0);
+        sNotModifiedCount.set(0);
+    }
+
+    private static HostStats getHostStats(String host) {
+        HostStats stats = sHostStats.get(host);
+        if (stats == null) {
+            stats = new HostStats();
+            HostStats previous = sHostStats.putIfAbsent(host, stats);
+            if (previous != null) {
+                stats = previous;
+            }
+        }
+        return stats;
+    }
+
+    private static class HostStats {
+        final AtomicLong connects = new AtomicLong();
+        final AtomicLong tlsHandshakes = new AtomicLong();
+        final AtomicLong reuses = new AtomicLong();
+    }
+
+    /**
+     * Network interceptor which adds the API key to a request leaving the cache layer
+     * and counts conditional requests.
+     */
+    private static class ApiKeyInterceptor implements Interceptor {
+
+        private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+        private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+
+            boolean isConditional = request.header(HEADER_IF_NONE_MATCH) != null
+                    || request.header(HEADER_IF_MODIFIED_SINCE) != null;
+
+            HttpUrl url = request.url().newBuilder()
+                    .setQueryParameter(API_KEY_PARAM, API_KEY)
+                    .build();
+
+            Response response = chain.proceed(request.newBuilder().url(url).build());
+
+            if (isConditional) {
+                sConditionalRequestCount.incrementAndGet();
+                if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    sNotModifiedCount.incrementAndGet();
+                }
+            }
+
+            /* The cache stores a response under the URL of its request, keep it key-free */
+            return response.newBuilder()
+                    .request(request)
+                    .build();
+        }
+
+    }
+
+    /**
+     * Per-call listener which tells a freshly connected call from one that got
+     * a connection out of the pool. A call may try several routes before one connects,
+     * so only the connection it acquires is counted.
+     */
+    @VisibleForTesting
+    static class ConnectionCountingListener extends EventListener {
+
+        /* Set when a new connection is established, until the call acquires it */
+        private boolean mIsConnected;
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                               Protocol protocol) {
+            mIsConnected = true;
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            getHostStats(call.request().url().host()).tlsHandshakes.incrementAndGet();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            String host = call.request().url().host();
+            if (mIsConnected) {
+                getHostStats(host).connects.incrementAndGet();
+            } else {
+                getHostStats(host).reuses.incrementAndGet();
+            }
+            /* A retry or a follow-up of the same call may acquire another connection */
+            mIsConnected = false;
+            /* Runs for every call, so it is traced only when verbose logging is on for the tag */
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, host + ": connects " + getConnectCount(host)
+                        + ", reuses " + getReuseCount(host));
+            }
+        }
+
+    }
+
+}
@@ -16,20 +16,27 @@
 package io.github.ilya_lebedev.popularmovies.utilities;
 
 import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
 
 import io.github.ilya_lebedev.popularmovies.data.MoviesContract;
 
 /**
  * Utility functions to handle TMDb JSON data.
+ * Responses are read straight from the network stream with a pull parser,
+ * so neither the response body nor a JSON tree is ever held in memory.
  */
 public class TmdbJsonUtils {
 
+    private static final String CHARSET_NAME = "UTF-8";
+
     /* JSON key of movies JSON array */
     private static final String TMDB_RESULTS = "results";
 
@@ -43,9 +50,16 @@ public class TmdbJsonUtils {
     private static final String TMDB_RELEASE_DATE = "release_date";
 
     private static final String TMDB_TOTAL_PAGES = "total_pages";
+    private static final String TMDB_PAGE = "page";
+
+    /* Number of movies on every page of a TMDb list but the last one */
+    private static final int TMDB_PAGE_SIZE = 20;
+
+    /* JSON keys of objects appended to a movie details JSON object */
+    private static final String TMDB_VIDEOS = "videos";
+    private static final String TMDB_REVIEWS = "reviews";
 
     /* JSON keys of a movie video JSON object */
-    private static final String TMDB_VIDEO_MOVIE_ID = "id";
     private static final String TMDB_VIDEO_RESULTS = "results";
     private static final String TMDB_VIDEO_ID = "id";
     private static final String TMDB_VIDEO_KEY = "key";
@@ -54,161 +68,399 @@ public class TmdbJsonUtils {
     private static final String TMDB_VIDEO_TYPE = "type";
 
     /* JSON keys of a movie review JSON object */
-    private static final String TMDB_REVIEW_MOVIE_ID = "id";
     private static final String TMDB_REVIEW_RESULTS = "results";
     private static final String TMDB_REVIEW_ID = "id";
     private static final String TMDB_REVIEW_AUTHOR = "author";
     private static final String TMDB_REVIEW_CONTENT = "content";
 
-    /**/
+    /* JSON keys of an error JSON object */
     private static final String TMDB_STATUS_MESSAGE = "status_message";
     private static final String TMDB_STATUS_CODE = "status_code";
 
-    /**/
-    private static final int TMDB_STATUS_CODE_INVALID_API_KEY = 7;
-    private static final int TMDB_STATUS_CODE_NOT_FOUND = 34;
+    /* This is utility class and we don't need to instantiate it */
+    private TmdbJsonUtils() {}
+
+    /**
+     * One page of a movies list as returned by TMDb server.
+     */
+    public static class MoviePage {
+
+        /* Array of ContentValues representing movies data */
+        public final ContentValues[] movies;
+
+        /* Total number of pages in the list */
+        public final int totalPages;
+
+        MoviePage(ContentValues[] movies, int totalPages) {
+            this.movies = movies;
+            this.totalPages = totalPages;
+        }
+
+    }
+
+    /**
+     * Videos and reviews of a movie as returned by TMDb server.
+     */
+    public static class MovieDetail {
+
+        /* Array of ContentValues representing videos data */
+        public final ContentValues[] videos;
+
+        /* Array of ContentValues representing reviews data */
+        public final ContentValues[] reviews;
+
+        MovieDetail(ContentValues[] videos, ContentValues[] reviews) {
+            this.videos = videos;
+            this.reviews = reviews;
+        }
+
+    }
 
     /**
-     * This method parses JSON and returns an array of ContentValues
-     * representing the list of movies
+     * This method parses a movies list page in a single pass and returns the movies
+     * together with the total number of pages.
      *
-     * @param movieJsonString JSON response from TMDb server
+     * @param in JSON response stream from TMDb server
      *
-     * @return Array of ContentValues representing movies data
+     * @return MoviePage, or null if the response has no movies
      *
-     * @throws JSONException If JSON data cannot be properly parsed
+     * @throws TmdbApiException If TMDb server reported an error
+     * @throws IOException If JSON data cannot be read or properly parsed
      */
-    public static ContentValues[] getMovieContentValuesFromJson(String movieJsonString)
-            throws JSONException {
-
-        JSONObject moviesJson = new JSONObject(movieJsonString);
-
-        /* Is error happened */
-        if (moviesJson.has(TMDB_STATUS_CODE)) {
-            int statusCode = moviesJson.getInt(TMDB_STATUS_CODE);
-
-            switch (statusCode) {
-                case TMDB_STATUS_CODE_INVALID_API_KEY:
-                    /* Invalid API key */
-                    return null;
-                case TMDB_STATUS_CODE_NOT_FOUND:
-                    /* Movies not found */
-                    return null;
+    public static MoviePage getMoviePageFromJson(InputStream in) throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, CHARSET_NAME));
+
+        try {
+            List<ContentValues> movies = null;
+            int totalPages = 1;
+            int page = 1;
+            int statusCode = 0;
+            String statusMessage = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (TMDB_RESULTS.equals(name)) {
+                    movies = readMovies(reader);
+                } else if (TMDB_TOTAL_PAGES.equals(name)) {
+                    totalPages = reader.nextInt();
+                } else if (TMDB_PAGE.equals(name)) {
+                    page = reader.nextInt();
+                } else if (TMDB_STATUS_CODE.equals(name)) {
+                    statusCode = reader.nextInt();
+                } else if (TMDB_STATUS_MESSAGE.equals(name)) {
+                    statusMessage = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
             }
-        }
+            reader.endObject();
 
-        /* Get JSON array of movies */
-        JSONArray movieResultsArray = moviesJson.getJSONArray(TMDB_RESULTS);
-
-        ContentValues[] movieContentValues = new ContentValues[movieResultsArray.length()];
-
-        for (int i = 0; i < movieResultsArray.length(); i++) {
-            JSONObject movie = movieResultsArray.getJSONObject(i);
-
-            /* Parse concrete movie */
-            int id = movie.getInt(TMDB_ID);
-            String title = movie.getString(TMDB_TITLE);
-            double voteAverage = movie.getDouble(TMDB_VOTE_AVERAGE);
-            double popularity = movie.getDouble(TMDB_POPULARITY);
-            String posterPath = movie.getString(TMDB_POSTER_PATH);
-            String overview = movie.getString(TMDB_OVERVIEW);
-            String releaseDateString = movie.getString(TMDB_RELEASE_DATE);
-            Long releaseDate = null;
-            try {
-                releaseDate = TmdbDateUtils.convertReleaseDateStringToMillis(releaseDateString);
-            } catch (ParseException e) {
-                e.printStackTrace();
+            /* Is error happened */
+            if (statusCode != 0) {
+                throw new TmdbApiException(0, statusCode, statusMessage);
             }
 
-            /* Put parsed data to the ContentValues */
-            ContentValues movieValues = new ContentValues();
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_MOVIE_ID, id);
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_TITLE, title);
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE, voteAverage);
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, popularity);
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_POSTER_PATH, posterPath);
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_OVERVIEW, overview);
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_RELEASE_DATE, releaseDate);
-
-            movieContentValues[i] = movieValues;
-        }
+            if (movies == null) {
+                return null;
+            }
 
-        return movieContentValues;
+            /* Absolute position in the list as the server ordered it */
+            for (int i = 0; i < movies.size(); i++) {
+                movies.get(i).put(MoviesContract.ListEntry.COLUMN_RANK,
+                        (page - 1) * TMDB_PAGE_SIZE + i);
+            }
+
+            return new MoviePage(movies.toArray(new ContentValues[movies.size()]), totalPages);
+        } finally {
+            reader.close();
+        }
     }
 
-    public static int getTotalPagesFromJson(String movieJsonString) throws JSONException {
+    /**
+     * This method parses movie details with appended videos and reviews
+     * in a single pass.
+     *
+     * @param in JSON response stream from TMDb server
+     *
+     * @return MovieDetail, or null if the response has no videos or reviews
+     *
+     * @throws TmdbApiException If TMDb server reported an error
+     * @throws IOException If JSON data cannot be read or properly parsed
+     */
+    public static MovieDetail getMovieDetailFromJson(InputStream in) throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, CHARSET_NAME));
+
+        try {
+            List<ContentValues> videos = null;
+            List<ContentValues> reviews = null;
+            int movieId = 0;
+            int statusCode = 0;
+            String statusMessage = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (TMDB_ID.equals(name)) {
+                    movieId = reader.nextInt();
+                } else if (TMDB_VIDEOS.equals(name)) {
+                    videos = readAppendedResults(reader, TMDB_VIDEO_RESULTS, true);
+                } else if (TMDB_REVIEWS.equals(name)) {
+                    reviews = readAppendedResults(reader, TMDB_REVIEW_RESULTS, false);
+                } else if (TMDB_STATUS_CODE.equals(name)) {
+                    statusCode = reader.nextInt();
+                } else if (TMDB_STATUS_MESSAGE.equals(name)) {
+                    statusMessage = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
 
-        JSONObject moviesJson = new JSONObject(movieJsonString);
+            if (statusCode != 0) {
+                throw new TmdbApiException(0, statusCode, statusMessage);
+            }
+
+            if (videos == null || reviews == null) {
+                return null;
+            }
 
-        return moviesJson.getInt(TMDB_TOTAL_PAGES);
+            return new MovieDetail(
+                    toContentValuesArray(
+                            videos, MoviesContract.VideoEntry.COLUMN_MOVIE_TMDB_ID, movieId),
+                    toContentValuesArray(
+                            reviews, MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID, movieId));
+        } finally {
+            reader.close();
+        }
     }
 
-    public static ContentValues[] getVideoContentValueFromJsonString(String videoJsonString)
-            throws JSONException {
+    /*
+     * Reads an object appended with append_to_response, e.g. "videos": { "results": [...] }
+     */
+    private static List<ContentValues> readAppendedResults(JsonReader reader, String resultsName,
+                                                           boolean isVideos) throws IOException {
+        List<ContentValues> results = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (resultsName.equals(name)) {
+                results = isVideos ? readVideos(reader) : readReviews(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-        JSONObject jsonObject = new JSONObject(videoJsonString);
+        return results;
+    }
 
-        int movieId = jsonObject.getInt(TMDB_VIDEO_MOVIE_ID);
+    /**
+     * This method parses the error object TMDb server responds with on a failed request.
+     *
+     * @param in       JSON response stream from TMDb server
+     * @param httpCode HTTP response code
+     *
+     * @return TmdbApiException describing the error, or null if the response has no status
+     *
+     * @throws IOException If JSON data cannot be read or properly parsed
+     */
+    public static TmdbApiException getApiExceptionFromJson(InputStream in, int httpCode)
+            throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, CHARSET_NAME));
+
+        try {
+            int statusCode = 0;
+            String statusMessage = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (TMDB_STATUS_CODE.equals(name)) {
+                    statusCode = reader.nextInt();
+                } else if (TMDB_STATUS_MESSAGE.equals(name)) {
+                    statusMessage = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
 
-        /* Get JSON array of movie videos */
-        JSONArray videoResultsArray = jsonObject.getJSONArray(TMDB_VIDEO_RESULTS);
+            if (statusCode == 0) {
+                return null;
+            }
 
-        ContentValues[] videoContentValues = new ContentValues[videoResultsArray.length()];
+            return new TmdbApiException(httpCode, statusCode, statusMessage);
+        } finally {
+            reader.close();
+        }
+    }
 
-        for (int i = 0; i < videoResultsArray.length(); i++) {
-            JSONObject video = videoResultsArray.getJSONObject(i);
+    /*
+     * The movie id of videos and reviews may follow the results array in the response,
+     * so it is put into the values once the whole document has been read.
+     */
+    private static ContentValues[] toContentValuesArray(List<ContentValues> valuesList,
+                                                        String movieIdColumn, int movieId) {
+        ContentValues[] valuesArray = new ContentValues[valuesList.size()];
+        for (int i = 0; i < valuesArray.length; i++) {
+            ContentValues values = valuesList.get(i);
+            values.put(movieIdColumn, movieId);
+            valuesArray[i] = values;
+        }
+        return valuesArray;
+    }
 
-            String id = video.getString(TMDB_VIDEO_ID);
-            String key = video.getString(TMDB_VIDEO_KEY);
-            String name = video.getString(TMDB_VIDEO_NAME);
-            String site = video.getString(TMDB_VIDEO_SITE);
-            String type = video.getString(TMDB_VIDEO_TYPE);
+    private static List<ContentValues> readMovies(JsonReader reader) throws IOException {
+        List<ContentValues> movies = new ArrayList<>();
 
-            /* Put parsed data to the ContentValues */
-            ContentValues videoValues = new ContentValues();
-            videoValues.put(MoviesContract.VideoEntry.COLUMN_MOVIE_TMDB_ID, movieId);
-            videoValues.put(MoviesContract.VideoEntry.COLUMN_TMDB_ID, id);
-            videoValues.put(MoviesContract.VideoEntry.COLUMN_KEY, key);
-            videoValues.put(MoviesContract.VideoEntry.COLUMN_NAME, name);
-            videoValues.put(MoviesContract.VideoEntry.COLUMN_SITE, site);
-            videoValues.put(MoviesContract.VideoEntry.COLUMN_TYPE, type);
-
-            videoContentValues[i] = videoValues;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            movies.add(readMovie(reader));
         }
+        reader.endArray();
 
-        return videoContentValues;
+        return movies;
     }
 
-    public static ContentValues[] getReviewContentValueFromJsonString(String reviewJsonString)
-            throws JSONException {
+    private static ContentValues readMovie(JsonReader reader) throws IOException {
+        ContentValues movieValues = new ContentValues();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case TMDB_ID:
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_MOVIE_ID, reader.nextInt());
+                    break;
+                case TMDB_TITLE:
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_TITLE, reader.nextString());
+                    break;
+                case TMDB_VOTE_AVERAGE:
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE,
+                            reader.nextDouble());
+                    break;
+                case TMDB_POPULARITY:
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_POPULARITY,
+                            reader.nextDouble());
+                    break;
+                case TMDB_POSTER_PATH:
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_POSTER_PATH,
+                            reader.nextString());
+                    break;
+                case TMDB_OVERVIEW:
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_OVERVIEW,
+                            reader.nextString());
+                    break;
+                case TMDB_RELEASE_DATE:
+                    Long releaseDate = null;
+                    try {
+                        releaseDate = TmdbDateUtils
+                                .convertReleaseDateStringToMillis(reader.nextString());
+                    } catch (ParseException e) {
+                        e.printStackTrace();
+                    }
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_RELEASE_DATE, releaseDate);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return movieValues;
+    }
 
-        JSONObject jsonObject = new JSONObject(reviewJsonString);
+    private static List<ContentValues> readVideos(JsonReader reader) throws IOException {
+        List<ContentValues> videos = new ArrayList<>();
 
-        int movieId = jsonObject.getInt(TMDB_REVIEW_MOVIE_ID);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ContentValues videoValues = new ContentValues();
 
-        /* Get JSON array of movie reviews */
-        JSONArray reviewResultsArray = jsonObject.getJSONArray(TMDB_REVIEW_RESULTS);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case TMDB_VIDEO_ID:
+                        videoValues.put(MoviesContract.VideoEntry.COLUMN_TMDB_ID,
+                                reader.nextString());
+                        break;
+                    case TMDB_VIDEO_KEY:
+                        videoValues.put(MoviesContract.VideoEntry.COLUMN_KEY, reader.nextString());
+                        break;
+                    case TMDB_VIDEO_NAME:
+                        videoValues.put(MoviesContract.VideoEntry.COLUMN_NAME, reader.nextString());
+                        break;
+                    case TMDB_VIDEO_SITE:
+                        videoValues.put(MoviesContract.VideoEntry.COLUMN_SITE, reader.nextString());
+                        break;
+                    case TMDB_VIDEO_TYPE:
+                        videoValues.put(MoviesContract.VideoEntry.COLUMN_TYPE, reader.nextString());
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
 
-        ContentValues[] reviewContentsValues = new ContentValues[reviewResultsArray.length()];
+            videos.add(videoValues);
+        }
+        reader.endArray();
 
-        for (int i = 0; i < reviewResultsArray.length(); i++) {
-            JSONObject review = reviewResultsArray.getJSONObject(i);
+        return videos;
+    }
 
-            String id = review.getString(TMDB_REVIEW_ID);
-            String author = review.getString(TMDB_REVIEW_AUTHOR);
-            String content = review.getString(TMDB_REVIEW_CONTENT);
+    private static List<ContentValues> readReviews(JsonReader reader) throws IOException {
+        List<ContentValues> reviews = new ArrayList<>();
 
-            /* Put parsed data to the ContentValues */
+        reader.beginArray();
+        while (reader.hasNext()) {
             ContentValues reviewValues = new ContentValues();
-            reviewValues.put(MoviesContract.ReviewEntry.COLUMN_MOVIE_TMDB_ID, movieId);
-            reviewValues.put(MoviesContract.ReviewEntry.COLUMN_TMDB_ID, id);
-            reviewValues.put(MoviesContract.ReviewEntry.COLUMN_AUTHOR, author);
-            reviewValues.put(MoviesContract.ReviewEntry.COLUMN_CONTENT, content);
 
-            reviewContentsValues[i] = reviewValues;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case TMDB_REVIEW_ID:
+                        reviewValues.put(MoviesContract.ReviewEntry.COLUMN_TMDB_ID,
+                                reader.nextString());
+                        break;
+                    case TMDB_REVIEW_AUTHOR:
+                        reviewValues.put(MoviesContract.ReviewEntry.COLUMN_AUTHOR,
+                                reader.nextString());
+                        break;
+                    case TMDB_REVIEW_CONTENT:
+                        reviewValues.put(MoviesContract.ReviewEntry.COLUMN_CONTENT,
+                                reader.nextString());
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            reviews.add(reviewValues);
         }
+        reader.endArray();
 
-        return reviewContentsValues;
+        return reviews;
     }
 
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.sync;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the ordered parallel page fetch of {@link MovieFetchTask} against a local fake
+ * server which delays every page, later pages less than earlier ones.
+ */
+public class MovieFetchTaskTest {
+
+    private static final int PAGE_COUNT = 6;
+    private static final int PAGES_AHEAD = 3;
+
+    /* Page n is delayed by MIN + STEP * (PAGE_COUNT - n), so later pages arrive first */
+    private static final long MIN_DELAY_MILLIS = 100;
+    private static final long STEP_DELAY_MILLIS = 50;
+
+    private MockWebServer mServer;
+    private OkHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                int page = Integer.parseInt(request.getPath().substring(1));
+                return new MockResponse()
+                        .setBody(Integer.toString(page))
+                        .setBodyDelay(MIN_DELAY_MILLIS + STEP_DELAY_MILLIS * (PAGE_COUNT - page),
+                                TimeUnit.MILLISECONDS);
+            }
+        });
+        mServer.start();
+        mClient = new OkHttpClient();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void parallelFetchIsFasterThanSerialAndCommitsInOrder() throws IOException {
+        List<Integer> serialPages = new ArrayList<>();
+        long serialStart = System.nanoTime();
+        for (int page = 1; page <= PAGE_COUNT; page++) {
+            serialPages.add(Integer.parseInt(fetchPage(page)));
+        }
+        long serialMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - serialStart);
+
+        final List<Integer> committedPages = new ArrayList<>();
+        long parallelStart = System.nanoTime();
+        MovieFetchTask.fetchPagesInOrder(new SyncScheduler(1, PAGES_AHEAD), 1, PAGE_COUNT,
+                newPageFetchers(),
+                new MovieFetchTask.PageCommitter<String>() {
+                    @Override
+                    public int commit(int page, String result, int lastPage) {
+                        /* Every page is committed under its own number */
+                        assertEquals(page, Integer.parseInt(result));
+                        committedPages.add(page);
+                        return lastPage;
+                    }
+                });
+        long parallelMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - parallelStart);
+
+        List<Integer> expectedPages = new ArrayList<>();
+        for (int page = 1; page <= PAGE_COUNT; page++) {
+            expectedPages.add(page);
+        }
+        assertEquals(expectedPages, serialPages);
+        assertEquals(expectedPages, committedPages);
+        assertTrue("Parallel fetch took " + parallelMillis + " ms, serial " + serialMillis + " ms",
+                parallelMillis < serialMillis);
+    }
+
+    @Test
+    public void pagesAfterFailedCommitAreNotCommitted() {
+        final List<Integer> committedPages = new ArrayList<>();
+        MovieFetchTask.fetchPagesInOrder(new SyncScheduler(1, PAGES_AHEAD), 1, PAGE_COUNT,
+                newPageFetchers(),
+                new MovieFetchTask.PageCommitter<String>() {
+                    @Override
+                    public int commit(int page, String result, int lastPage) {
+                        committedPages.add(page);
+                        return page == 2 ? -1 : lastPage;
+                    }
+                });
+
+        List<Integer> expectedPages = new ArrayList<>();
+        expectedPages.add(1);
+        expectedPages.add(2);
+        assertEquals(expectedPages, committedPages);
+    }
+
+    private MovieFetchTask.PageFetcherFactory<String> newPageFetchers() {
+        return new MovieFetchTask.PageFetcherFactory<String>() {
+            @Override
+            public Callable<String> create(final int page) {
+                return new Callable<String>() {
+                    @Override
+                    public String call() throws IOException {
+                        return fetchPage(page);
+                    }
+                };
+            }
+        };
+    }
+
+    private String fetchPage(int page) throws IOException {
+        Request request = new Request.Builder().url(mServer.url("/" + page)).build();
+        Response response = mClient.newCall(request).execute();
+        try {
+            return response.body().string();
+        } finally {
+            response.close();
+        }
+    }
+
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link RetryInterceptor} and its {@link CircuitBreaker} against a local fake server
+ * which returns scripted 5xx and 429 responses.
+ */
+public class RetryInterceptorTest {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 40;
+    private static final long MAX_RETRY_AFTER_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 2;
+    private static final long CIRCUIT_OPEN_MILLIS = 300;
+
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void serverErrorIsRetriedUntilSuccess() throws IOException {
+        mServer.enqueue(new MockResponse().setResponseCode(500));
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+
+        Response response = execute(newClient(newRetryingInterceptor()));
+
+        assertEquals(200, response.code());
+        assertEquals("ok", response.body().string());
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void serverErrorIsReturnedAfterMaxAttempts() throws IOException {
+        for (int i = 0; i < MAX_ATTEMPTS + 1; i++) {
+            mServer.enqueue(new MockResponse().setResponseCode(500));
+        }
+
+        Response response = execute(newClient(newRetryingInterceptor()));
+
+        assertEquals(500, response.code());
+        response.close();
+        assertEquals(MAX_ATTEMPTS, mServer.getRequestCount());
+    }
+
+    @Test
+    public void tooManyRequestsWaitsForRetryAfterSeconds() throws IOException {
+        mServer.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+
+        long startTime = System.currentTimeMillis();
+        Response response = execute(newClient(newRetryingInterceptor()));
+        long elapsedMillis = System.currentTimeMillis() - startTime;
+
+        assertEquals(200, response.code());
+        response.close();
+        assertEquals(2, mServer.getRequestCount());
+        assertTrue("Waited " + elapsedMillis + " ms", elapsedMillis >= 1000);
+    }
+
+    @Test
+    public void tooManyRequestsWaitsForRetryAfterDate() throws IOException {
+        /* HTTP dates have a resolution of a second, so the wait is between one and two */
+        Date retryDate = new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(2));
+        mServer.enqueue(new MockResponse().setResponseCode(429)
+                .setHeader("Retry-After", formatHttpDate(retryDate)));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+
+        long startTime = System.currentTimeMillis();
+        Response response = execute(newClient(newRetryingInterceptor()));
+        long elapsedMillis = System.currentTimeMillis() - startTime;
+
+        assertEquals(200, response.code());
+        response.close();
+        assertEquals(2, mServer.getRequestCount());
+        assertTrue("Waited " + elapsedMillis + " ms", elapsedMillis >= 900);
+        assertTrue("Waited " + elapsedMillis + " ms", elapsedMillis < 2500);
+    }
+
+    @Test
+    public void tooManyRequestsOverRetryAfterCapIsNotRetried() throws IOException {
+        mServer.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "16"));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+
+        long startTime = System.currentTimeMillis();
+        Response response = execute(newClient(newRetryingInterceptor()));
+        long elapsedMillis = System.currentTimeMillis() - startTime;
+
+        assertEquals(429, response.code());
+        response.close();
+        assertEquals(1, mServer.getRequestCount());
+        assertTrue("Waited " + elapsedMillis + " ms", elapsedMillis < 1000);
+    }
+
+    @Test
+    public void tooManyRequestsDoesNotOpenCircuit() throws IOException {
+        OkHttpClient client = newClient(newSingleAttemptInterceptor());
+        for (int i = 0; i < CIRCUIT_FAILURE_THRESHOLD + 1; i++) {
+            mServer.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "0"));
+        }
+        mServer.enqueue(new MockResponse().setBody("ok"));
+
+        for (int i = 0; i < CIRCUIT_FAILURE_THRESHOLD + 1; i++) {
+            execute(client).close();
+        }
+        Response response = execute(client);
+
+        assertEquals(200, response.code());
+        response.close();
+    }
+
+    @Test
+    public void circuitOpensAfterConsecutiveFailures() throws IOException {
+        OkHttpClient client = newClient(newSingleAttemptInterceptor());
+        for (int i = 0; i < CIRCUIT_FAILURE_THRESHOLD; i++) {
+            mServer.enqueue(new MockResponse().setResponseCode(500));
+        }
+        for (int i = 0; i < CIRCUIT_FAILURE_THRESHOLD; i++) {
+            execute(client).close();
+        }
+
+        assertCircuitOpen(client);
+        assertEquals(CIRCUIT_FAILURE_THRESHOLD, mServer.getRequestCount());
+    }
+
+    @Test
+    public void halfOpenCircuitClosesAfterSuccessfulTrial() throws Exception {
+        OkHttpClient client = newClient(newSingleAttemptInterceptor());
+        openCircuit(client);
+
+        Thread.sleep(CIRCUIT_OPEN_MILLIS + 50);
+        mServer.enqueue(new MockResponse().setBody("trial"));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+
+        Response trial = execute(client);
+        assertEquals(200, trial.code());
+        trial.close();
+
+        Response response = execute(client);
+        assertEquals("ok", response.body().string());
+    }
+
+    @Test
+    public void halfOpenCircuitReopensAfterFailedTrial() throws Exception {
+        OkHttpClient client = newClient(newSingleAttemptInterceptor());
+        openCircuit(client);
+
+        Thread.sleep(CIRCUIT_OPEN_MILLIS + 50);
+        mServer.enqueue(new MockResponse().setResponseCode(500));
+        execute(client).close();
+        int requestCount = mServer.getRequestCount();
+
+        /* A single failed trial opens the circuit again, below the failure threshold */
+        assertCircuitOpen(client);
+        assertEquals(requestCount, mServer.getRequestCount());
+    }
+
+    @Test
+    public void halfOpenCircuitLetsOneTrialThrough() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, 0);
+        for (int i = 0; i < CIRCUIT_FAILURE_THRESHOLD; i++) {
+            circuitBreaker.recordFailure();
+        }
+
+        assertTrue(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+
+        circuitBreaker.recordSuccess();
+        assertTrue(circuitBreaker.allowRequest());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void cancelledCallsDoNotOpenCircuit() throws Exception {
+        OkHttpClient client = newClient(newSingleAttemptInterceptor());
+        for (int i = 0; i < CIRCUIT_FAILURE_THRESHOLD; i++) {
+            mServer.enqueue(new MockResponse().setHeadersDelay(1, TimeUnit.SECONDS));
+            final Call call = client.newCall(
+                    new Request.Builder().url(mServer.url("/3/movie/top_rated")).build());
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    call.cancel();
+                }
+            }).start();
+            try {
+                call.execute().close();
+                fail("Cancelled call returned a response");
+            } catch (IOException e) {
+                assertTrue(call.isCanceled());
+            }
+        }
+
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        Response response = execute(client);
+        assertEquals("ok", response.body().string());
+    }
+
+    @Test
+    public void trialEndedByRuntimeExceptionLetsNextTrialThrough() throws Exception {
+        final AtomicBoolean isBroken = new AtomicBoolean();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(newSingleAttemptInterceptor())
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        if (isBroken.get()) {
+                            throw new IllegalStateException("Broken interceptor");
+                        }
+                        return chain.proceed(chain.request());
+                    }
+                })
+                .build();
+        openCircuit(client);
+
+        Thread.sleep(CIRCUIT_OPEN_MILLIS + 50);
+        isBroken.set(true);
+        try {
+            execute(client).close();
+            fail("Broken trial returned a response");
+        } catch (IllegalStateException e) {
+            /* The trial ended without an outcome */
+        }
+
+        isBroken.set(false);
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        Response response = execute(client);
+        assertEquals("ok", response.body().string());
+    }
+
+    private void openCircuit(OkHttpClient client) throws IOException {
+        for (int i = 0; i < CIRCUIT_FAILURE_THRESHOLD; i++) {
+            mServer.enqueue(new MockResponse().setResponseCode(500));
+            execute(client).close();
+        }
+        assertCircuitOpen(client);
+    }
+
+    private void assertCircuitOpen(OkHttpClient client) {
+        try {
+            execute(client).close();
+            fail("Request went through an open circuit");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Circuit is open"));
+        }
+    }
+
+    private Response execute(OkHttpClient client) throws IOException {
+        Request request = new Request.Builder().url(mServer.url("/3/movie/top_rated")).build();
+        return client.newCall(request).execute();
+    }
+
+    /* Retries failed requests, with a circuit which does not open while retrying */
+    private static RetryInterceptor newRetryingInterceptor() {
+        return new RetryInterceptor(MAX_ATTEMPTS, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS,
+                MAX_RETRY_AFTER_MILLIS, MAX_ATTEMPTS * 2, CIRCUIT_OPEN_MILLIS);
+    }
+
+    /* Does not retry, so every failed request is one failure of the circuit */
+    private static RetryInterceptor newSingleAttemptInterceptor() {
+        return new RetryInterceptor(1, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS,
+                MAX_RETRY_AFTER_MILLIS, CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS);
+    }
+
+    private static String formatHttpDate(Date date) {
+        SimpleDateFormat format =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(date);
+    }
+
+    private static OkHttpClient newClient(RetryInterceptor interceptor) {
+        return new OkHttpClient.Builder().addInterceptor(interceptor).build();
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 Ilya Lebedev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.ilya_lebedev.popularmovies.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Dns;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the connection statistics of {@link TmdbHttpClient} against a local fake server.
+ */
+public class TmdbHttpClientTest {
+
+    private static final int CALL_COUNT = 5;
+
+    /* Nothing listens there, so a connect to it is refused */
+    private static final String UNREACHABLE_ADDRESS = "127.0.0.2";
+
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start(InetAddress.getByName("127.0.0.1"), 0);
+        TmdbHttpClient.resetStats();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+        TmdbHttpClient.resetStats();
+    }
+
+    @Test
+    public void callsReuseTheFirstConnection() throws IOException {
+        OkHttpClient client = newClientBuilder().build();
+        String host = mServer.url("/").host();
+
+        for (int i = 1; i <= CALL_COUNT; i++) {
+            mServer.enqueue(new MockResponse().setBody("ok"));
+            execute(client);
+            assertEquals(1, TmdbHttpClient.getConnectCount(host));
+            assertEquals(i - 1, TmdbHttpClient.getReuseCount(host));
+        }
+    }
+
+    @Test
+    public void failedRouteIsNotCountedAsConnection() throws IOException {
+        final InetAddress serverAddress = InetAddress.getByName("127.0.0.1");
+        final InetAddress unreachableAddress = InetAddress.getByName(UNREACHABLE_ADDRESS);
+        OkHttpClient client = newClientBuilder()
+                .dns(new Dns() {
+                    @Override
+                    public List<InetAddress> lookup(String hostname) {
+                        return Arrays.asList(unreachableAddress, serverAddress);
+                    }
+                })
+                .build();
+        String host = mServer.url("/").host();
+
+        for (int i = 1; i <= CALL_COUNT; i++) {
+            mServer.enqueue(new MockResponse().setBody("ok"));
+            execute(client);
+        }
+
+        assertEquals(1, TmdbHttpClient.getConnectCount(host));
+        assertEquals(CALL_COUNT - 1, TmdbHttpClient.getReuseCount(host));
+    }
+
+    private static OkHttpClient.Builder newClientBuilder() {
+        return new OkHttpClient.Builder()
+                .connectTimeout(1, TimeUnit.SECONDS)
+                .eventListenerFactory(new EventListener.Factory() {
+                    @Override
+                    public EventListener create(Call call) {
+                        return new TmdbHttpClient.ConnectionCountingListener();
+                    }
+                });
+    }
+
+    private void execute(OkHttpClient client) throws IOException {
+        Request request = new Request.Builder().url(mServer.url("/")).build();
+        Response response = client.newCall(request).execute();
+        try {
+            assertEquals("ok", response.body().string());
+        } finally {
+            response.close();
+        }
+    }
+
+}